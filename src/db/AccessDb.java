@@ -4,6 +4,9 @@ import java.sql.*;
 import java.time.Instant;
 import java.util.*;
 
+import nfc.ParticipantCodec;
+import nfc.ParticipantIndex;
+
 /**
  * AccessDb utility — targets the ParticipantsWrite table and matches the
  * EntryForm field order.
@@ -18,6 +21,8 @@ import java.util.*;
  * java -cp "out;lib/*" db.AccessDb describe ParticipantsWrite
  * java -cp "out;lib/*" db.AccessDb create-participants
  * java -cp "out;lib/*" db.AccessDb test
+ * java -cp "out;lib/*" db.AccessDb import-participants roster.csv [threads]
+ * java -cp "out;lib/*" db.AccessDb sync-participants roster.csv [threads]
  */
 public class AccessDb {
 
@@ -37,182 +42,351 @@ public class AccessDb {
             String state, String excelCategory, boolean onlyStatusF) throws SQLException {
 
         try (Connection c = getConnection()) {
-            // --- verify table exists ---
-            DatabaseMetaData md = c.getMetaData();
-            boolean tableExists = false;
-            try (ResultSet rs = md.getTables(null, null, "ParticipantsRecord", new String[] { "TABLE" })) {
-                if (rs.next())
-                    tableExists = true;
-            }
-            if (!tableExists) {
-                try (ResultSet rs = md.getTables(null, null, "PARTICIPANTSRECORD", new String[] { "TABLE" })) {
-                    if (rs.next())
-                        tableExists = true;
-                }
+            return fetchParticipants(c, participantsRecordColumns(c), state, excelCategory, onlyStatusF);
+        }
+    }
+
+    /** The rows of {@link #fetchParticipantsByStateAndCategory} on an open connection. */
+    private static List<Map<String, String>> fetchParticipants(Connection c, Set<String> cols,
+            String state, String excelCategory, boolean onlyStatusF) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT * FROM [ParticipantsRecord] WHERE 1=1");
+        List<Object> params = new ArrayList<>();
+        appendParticipantFilters(sql, params, cols, state, excelCategory, onlyStatusF);
+
+        // Order by SNo if available, else Id, else fallback
+        String keyCol = participantKeyColumn(cols);
+        sql.append(" ORDER BY ").append(keyCol != null ? keyCol : "[FullName]");
+
+        try (PreparedStatement ps = c.prepareStatement(sql.toString())) {
+            for (int i = 0; i < params.size(); i++) {
+                ps.setString(i + 1, params.get(i).toString());
             }
-            if (!tableExists)
-                throw new SQLException("ParticipantsRecord table not found.");
 
-            // --- discover columns ---
-            Set<String> cols = new HashSet<>();
-            try (ResultSet rs = md.getColumns(null, null, "ParticipantsRecord", "%")) {
+            try (ResultSet rs = ps.executeQuery()) {
+                List<Map<String, String>> out = new ArrayList<>();
                 while (rs.next()) {
-                    String cn = rs.getString("COLUMN_NAME");
-                    if (cn != null)
-                        cols.add(cn.toUpperCase(Locale.ROOT));
+                    out.add(readParticipantRow(rs));
                 }
+                return out;
             }
+        }
+    }
 
-            // excel_category vs ExcelCategory (or missing)
-            final String EXCEL_COL = cols.contains("EXCEL_CATEGORY") ? "[excel_category]"
-                    : cols.contains("EXCELCATEGORY") ? "[ExcelCategory]" : null;
+    /**
+     * Count the ParticipantsRecord rows that
+     * {@link #fetchParticipantsByStateAndCategory} would return for the same
+     * filters, without transferring them.
+     */
+    public static int countParticipantsByStateAndCategory(
+            String state, String excelCategory, boolean onlyStatusF) throws SQLException {
 
-            // Order by SNo if available, else Id, else fallback
-            final boolean HAS_SNO = cols.contains("SNO");
-            final boolean HAS_ID = cols.contains("ID");
+        try (Connection c = getConnection()) {
+            Set<String> cols = participantsRecordColumns(c);
 
-            // --- build SQL (LIKE, case-insensitive) ---
-            StringBuilder sql = new StringBuilder("SELECT * FROM [ParticipantsRecord] WHERE 1=1");
+            StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM [ParticipantsRecord] WHERE 1=1");
             List<Object> params = new ArrayList<>();
+            appendParticipantFilters(sql, params, cols, state, excelCategory, onlyStatusF);
 
-            if (state != null && !state.trim().isEmpty()) {
-                sql.append(" AND UCASE([BSGState]) LIKE UCASE(?)");
-                params.add("%" + state.trim() + "%");
-            }
-            if (excelCategory != null && !excelCategory.trim().isEmpty()) {
-                if (EXCEL_COL == null) {
-                    sql.append(" AND 1=0"); // requested category filter but column missing
-                } else {
-                    sql.append(" AND UCASE(").append(EXCEL_COL).append(") LIKE UCASE(?)");
-                    params.add("%" + excelCategory.trim() + "%");
+            try (PreparedStatement ps = c.prepareStatement(sql.toString())) {
+                for (int i = 0; i < params.size(); i++) {
+                    ps.setString(i + 1, params.get(i).toString());
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getInt(1) : 0;
                 }
             }
-            if (onlyStatusF) {
-                sql.append(" AND UCASE([status]) = 'F'");
+        }
+    }
+
+    /** One keyset page of ParticipantsRecord rows. */
+    public static final class ParticipantPage {
+        public final List<Map<String, String>> rows;
+        /** SNo/Id of the last row, to pass as afterKey for the next page. */
+        public final Long lastKey;
+        public final boolean hasMore;
+
+        public ParticipantPage(List<Map<String, String>> rows, Long lastKey, boolean hasMore) {
+            this.rows = rows;
+            this.lastKey = lastKey;
+            this.hasMore = hasMore;
+        }
+    }
+
+    /**
+     * Keyset-paginated variant of {@link #fetchParticipantsByStateAndCategory}:
+     * returns at most pageSize rows whose SNo (or Id) is greater than afterKey
+     * (null = first page), ordered by that key.
+     *
+     * If the table has neither SNo nor Id there is no stable key to page on, so
+     * all matching rows are returned as a single page.
+     */
+    public static ParticipantPage fetchParticipantsPage(
+            String state, String excelCategory, boolean onlyStatusF,
+            Long afterKey, int pageSize) throws SQLException {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("pageSize must be > 0");
+
+        try (Connection c = getConnection()) {
+            Set<String> cols = participantsRecordColumns(c);
+            String keyCol = participantKeyColumn(cols);
+            if (keyCol == null) {
+                List<Map<String, String>> all = fetchParticipants(c, cols, state, excelCategory, onlyStatusF);
+                return new ParticipantPage(all, null, false);
             }
-            if (HAS_SNO)
-                sql.append(" ORDER BY [SNo]");
-            else if (HAS_ID)
-                sql.append(" ORDER BY [Id]");
-            else
-                sql.append(" ORDER BY [FullName]");
+
+            // fetch one extra row to know whether another page exists
+            StringBuilder sql = new StringBuilder("SELECT TOP ").append(pageSize + 1)
+                    .append(" * FROM [ParticipantsRecord] WHERE 1=1");
+            List<Object> params = new ArrayList<>();
+            appendParticipantFilters(sql, params, cols, state, excelCategory, onlyStatusF);
+            if (afterKey != null)
+                sql.append(" AND ").append(keyCol).append(" > ?");
+            sql.append(" ORDER BY ").append(keyCol);
 
             try (PreparedStatement ps = c.prepareStatement(sql.toString())) {
-                for (int i = 0; i < params.size(); i++) {
-                    ps.setString(i + 1, params.get(i).toString());
+                int idx = 1;
+                for (Object p : params) {
+                    ps.setString(idx++, p.toString());
                 }
+                if (afterKey != null)
+                    ps.setLong(idx, afterKey);
 
                 try (ResultSet rs = ps.executeQuery()) {
+                    String keyName = keyCol.substring(1, keyCol.length() - 1);
                     List<Map<String, String>> out = new ArrayList<>();
-
-                    java.util.function.Function<String, String> get = col -> {
-                        try {
-                            return Optional.ofNullable(rs.getString(col)).orElse("").trim();
-                        } catch (SQLException e) {
-                            return "";
-                        }
-                    };
-                    java.util.function.BiFunction<String, String, String> get2 = (a, b) -> {
-                        String v = get.apply(a);
-                        return !v.isEmpty() ? v : get.apply(b);
-                    };
-
+                    Long lastKey = afterKey;
+                    boolean hasMore = false;
                     while (rs.next()) {
-                        Map<String, String> row = new LinkedHashMap<>();
-
-                        row.put("FullName", get2.apply("FullName", "FULLNAME"));
-                        row.put("BSGUID", get2.apply("BSGUID", "BSGUID"));
-                        row.put("ParticipationType", get2.apply("ParticipationType", "PARTICIPATIONTYPE"));
-                        row.put("bsgDistrict", get2.apply("bsgDistrict", "BSGDISTRICT")); // your schema uses
-                                                                                          // bsgDistrict
-                        row.put("Email", get2.apply("Email", "EMAIL"));
-                        row.put("phoneNumber", get2.apply("phoneNumber", "PHONENUMBER")); // number type is fine;
-                                                                                          // getString works
-                        row.put("bsgState", get2.apply("bsgState", "BSGSTATE"));
-
-                        // --- names per your schema ---
-                        String memberType = get2.apply("memberType", "MEMBERTYPE");
-                        String unitName = get2.apply("unitName", "UNITNAME");
-                        String rank = get2.apply("rank_or_section", "RANK_OR_SECTION");
-
-                        // Put BOTH key styles to satisfy UI and AccessDb.insertAttendee
-                        row.put("memberType", memberType);
-                        row.put("memberTyp", memberType);
-
-                        row.put("unitName", unitName);
-                        row.put("unitNam", unitName);
-
-                        row.put("rank_or_section", rank);
-
-                        // --- dateOfBirth -> normalize to yyyy-MM-dd ---
-                        String dobIso = "";
-                        try {
-                            java.sql.Date d = null;
-                            try {
-                                d = rs.getDate("dateOfBirth");
-                            } catch (SQLException ignore) {
-                            }
-                            if (d == null) {
-                                try {
-                                    d = rs.getDate("DATEOFBIRTH");
-                                } catch (SQLException ignore) {
-                                }
-                            }
-                            if (d != null) {
-                                dobIso = d.toLocalDate().toString();
-                            } else {
-                                // maybe stored as text
-                                String dobText = get2.apply("dateOfBirth", "DATEOFBIRTH");
-                                dobIso = tryNormalizeDob(dobText);
-                            }
-                        } catch (Exception ignore) {
+                        if (out.size() == pageSize) {
+                            hasMore = true;
+                            break;
                         }
-                        // Again: BOTH keys for compatibility
-                        row.put("dateOfBirth", dobIso); // UI expects this
-                        row.put("dataOfBirth", dobIso); // AccessDb.insertAttendee expects this (typo in mapping)
-
-                        row.put("age", get2.apply("age", "AGE"));
-
-                        // NFC CSV in stable order
-                        String csv = String.join(",",
-                                Arrays.asList(
-                                        row.getOrDefault("FullName", ""),
-                                        row.getOrDefault("BSGUID", ""),
-                                        row.getOrDefault("ParticipationType", ""),
-                                        row.getOrDefault("bsgDistrict", ""),
-                                        row.getOrDefault("Email", ""),
-                                        row.getOrDefault("phoneNumber", ""),
-                                        row.getOrDefault("bsgState", ""),
-                                        row.getOrDefault("memberType", ""), // use correct names here
-                                        row.getOrDefault("unitName", ""),
-                                        row.getOrDefault("rank_or_section", ""),
-                                        row.getOrDefault("dateOfBirth", ""),
-                                        row.getOrDefault("age", "")));
-                        row.put("__CSV__", csv);
-
-                        out.add(row);
+                        out.add(readParticipantRow(rs));
+                        lastKey = rs.getLong(keyName);
                     }
-                    return out;
+                    return new ParticipantPage(out, lastKey, hasMore);
                 }
             }
         }
     }
 
+    /** True if the table exists (name as given or upper-cased). */
+    private static boolean tableExists(Connection c, String table) throws SQLException {
+        DatabaseMetaData md = c.getMetaData();
+        for (String name : new String[] { table, table.toUpperCase(Locale.ROOT) }) {
+            try (ResultSet rs = md.getTables(null, null, name, new String[] { "TABLE" })) {
+                if (rs.next())
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Verify ParticipantsRecord exists and return its column names
+     * (upper-cased).
+     */
+    private static Set<String> participantsRecordColumns(Connection c) throws SQLException {
+        if (!tableExists(c, "ParticipantsRecord"))
+            throw new SQLException("ParticipantsRecord table not found.");
+        return tableColumns(c, "ParticipantsRecord");
+    }
+
+    /** Column names of table (upper-cased); empty if it has none. */
+    private static Set<String> tableColumns(Connection c, String table) throws SQLException {
+        DatabaseMetaData md = c.getMetaData();
+        Set<String> cols = new HashSet<>();
+        try (ResultSet rs = md.getColumns(null, null, table, "%")) {
+            while (rs.next()) {
+                String cn = rs.getString("COLUMN_NAME");
+                if (cn != null)
+                    cols.add(cn.toUpperCase(Locale.ROOT));
+            }
+        }
+        return cols;
+    }
+
+    /** [SNo] if available, else [Id], else null. */
+    private static String participantKeyColumn(Set<String> cols) {
+        if (cols.contains("SNO"))
+            return "[SNo]";
+        if (cols.contains("ID"))
+            return "[Id]";
+        return null;
+    }
+
+    /** Append the state / excel_category / status filters (LIKE, case-insensitive). */
+    private static void appendParticipantFilters(StringBuilder sql, List<Object> params, Set<String> cols,
+            String state, String excelCategory, boolean onlyStatusF) {
+        // excel_category vs ExcelCategory (or missing)
+        final String EXCEL_COL = cols.contains("EXCEL_CATEGORY") ? "[excel_category]"
+                : cols.contains("EXCELCATEGORY") ? "[ExcelCategory]" : null;
+
+        if (state != null && !state.trim().isEmpty()) {
+            sql.append(" AND UCASE([BSGState]) LIKE UCASE(?)");
+            params.add("%" + state.trim() + "%");
+        }
+        if (excelCategory != null && !excelCategory.trim().isEmpty()) {
+            if (EXCEL_COL == null) {
+                sql.append(" AND 1=0"); // requested category filter but column missing
+            } else {
+                sql.append(" AND UCASE(").append(EXCEL_COL).append(") LIKE UCASE(?)");
+                params.add("%" + excelCategory.trim() + "%");
+            }
+        }
+        if (onlyStatusF) {
+            sql.append(" AND UCASE([status]) = 'F'");
+        }
+    }
+
+    /** Map the current ResultSet row to the key shape EntryForm expects. */
+    private static Map<String, String> readParticipantRow(ResultSet rs) {
+        java.util.function.Function<String, String> get = col -> {
+            try {
+                return Optional.ofNullable(rs.getString(col)).orElse("").trim();
+            } catch (SQLException e) {
+                return "";
+            }
+        };
+        java.util.function.BiFunction<String, String, String> get2 = (a, b) -> {
+            String v = get.apply(a);
+            return !v.isEmpty() ? v : get.apply(b);
+        };
+
+        Map<String, String> row = new LinkedHashMap<>();
+
+        row.put("FullName", get2.apply("FullName", "FULLNAME"));
+        row.put("BSGUID", get2.apply("BSGUID", "BSGUID"));
+        row.put("ParticipationType", get2.apply("ParticipationType", "PARTICIPATIONTYPE"));
+        row.put("bsgDistrict", get2.apply("bsgDistrict", "BSGDISTRICT")); // your schema uses
+                                                                          // bsgDistrict
+        row.put("Email", get2.apply("Email", "EMAIL"));
+        row.put("phoneNumber", get2.apply("phoneNumber", "PHONENUMBER")); // number type is fine;
+                                                                          // getString works
+        row.put("bsgState", get2.apply("bsgState", "BSGSTATE"));
+
+        // --- names per your schema ---
+        String memberType = get2.apply("memberType", "MEMBERTYPE");
+        String unitName = get2.apply("unitName", "UNITNAME");
+        String rank = get2.apply("rank_or_section", "RANK_OR_SECTION");
+
+        // Put BOTH key styles to satisfy UI and AccessDb.insertAttendee
+        row.put("memberType", memberType);
+        row.put("memberTyp", memberType);
+
+        row.put("unitName", unitName);
+        row.put("unitNam", unitName);
+
+        row.put("rank_or_section", rank);
+
+        // --- dateOfBirth -> normalize to yyyy-MM-dd ---
+        String dobIso = "";
+        try {
+            java.sql.Date d = null;
+            try {
+                d = rs.getDate("dateOfBirth");
+            } catch (SQLException ignore) {
+            }
+            if (d == null) {
+                try {
+                    d = rs.getDate("DATEOFBIRTH");
+                } catch (SQLException ignore) {
+                }
+            }
+            if (d != null) {
+                dobIso = d.toLocalDate().toString();
+            } else {
+                // maybe stored as text
+                String dobText = get2.apply("dateOfBirth", "DATEOFBIRTH");
+                dobIso = tryNormalizeDob(dobText);
+            }
+        } catch (Exception ignore) {
+        }
+        // Again: BOTH keys for compatibility
+        row.put("dateOfBirth", dobIso); // UI expects this
+        row.put("dataOfBirth", dobIso); // AccessDb.insertAttendee expects this (typo in mapping)
+
+        row.put("age", get2.apply("age", "AGE"));
+
+        // NFC CSV in stable order
+        String csv = String.join(",",
+                Arrays.asList(
+                        row.getOrDefault("FullName", ""),
+                        row.getOrDefault("BSGUID", ""),
+                        row.getOrDefault("ParticipationType", ""),
+                        row.getOrDefault("bsgDistrict", ""),
+                        row.getOrDefault("Email", ""),
+                        row.getOrDefault("phoneNumber", ""),
+                        row.getOrDefault("bsgState", ""),
+                        row.getOrDefault("memberType", ""), // use correct names here
+                        row.getOrDefault("unitName", ""),
+                        row.getOrDefault("rank_or_section", ""),
+                        row.getOrDefault("dateOfBirth", ""),
+                        row.getOrDefault("age", "")));
+        row.put("__CSV__", csv);
+        return row;
+    }
+
+    /**
+     * ParticipantsRecord column -> other spellings seen in exports and in the
+     * UI maps (memberTyp/unitNam/dataOfBirth etc.). Compared after lower-casing
+     * and dropping everything but letters and digits. "UID" is not one of
+     * them: here it means the card UID (CardUID), not BSGUID.
+     */
+    private static final Map<String, List<String>> PARTICIPANT_COLUMN_ALIASES = new LinkedHashMap<>();
+    static {
+        PARTICIPANT_COLUMN_ALIASES.put("FullName", Arrays.asList("fullname", "name", "participantname"));
+        PARTICIPANT_COLUMN_ALIASES.put("BSGUID", Arrays.asList("bsguid", "bsgid"));
+        PARTICIPANT_COLUMN_ALIASES.put("ParticipationType", Arrays.asList("participationtype", "participation"));
+        PARTICIPANT_COLUMN_ALIASES.put("bsgDistrict", Arrays.asList("bsgdistrict", "district"));
+        PARTICIPANT_COLUMN_ALIASES.put("Email", Arrays.asList("email", "emailid", "emailaddress"));
+        PARTICIPANT_COLUMN_ALIASES.put("phoneNumber", Arrays.asList("phonenumber", "phone", "mobile", "mobileno"));
+        PARTICIPANT_COLUMN_ALIASES.put("bsgState", Arrays.asList("bsgstate", "state"));
+        PARTICIPANT_COLUMN_ALIASES.put("memberType", Arrays.asList("membertype", "membertyp"));
+        PARTICIPANT_COLUMN_ALIASES.put("unitName", Arrays.asList("unitname", "unitnam", "unit"));
+        PARTICIPANT_COLUMN_ALIASES.put("rank_or_section", Arrays.asList("rankorsection", "rank", "section"));
+        PARTICIPANT_COLUMN_ALIASES.put("dateOfBirth", Arrays.asList("dateofbirth", "dataofbirth", "dob"));
+        PARTICIPANT_COLUMN_ALIASES.put("age", Arrays.asList("age"));
+        PARTICIPANT_COLUMN_ALIASES.put("excel_category", Arrays.asList("excelcategory", "category"));
+    }
+
+    /** ParticipantsRecord columns in NFC/CSV field order (plus excel_category). */
+    public static List<String> participantColumns() {
+        return new ArrayList<>(PARTICIPANT_COLUMN_ALIASES.keySet());
+    }
+
+    /**
+     * Map a CSV header (any of the known spellings) to its ParticipantsRecord
+     * column name, or null if unknown.
+     */
+    public static String canonicalParticipantColumn(String header) {
+        if (header == null)
+            return null;
+        String k = header.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", "");
+        for (Map.Entry<String, List<String>> en : PARTICIPANT_COLUMN_ALIASES.entrySet()) {
+            if (en.getValue().contains(k))
+                return en.getKey();
+        }
+        return null;
+    }
+
+    // compiled once: tryNormalizeDob runs per row during CSV imports
+    private static final java.time.format.DateTimeFormatter[] DOB_FORMATS = java.util.stream.Stream.of(
+            "yyyy-MM-dd", "dd/MM/yyyy", "dd-MM-yyyy", "MM/dd/yyyy",
+            "dd.MM.yyyy", "d/M/yyyy", "d-M-yyyy", "M/d/yyyy")
+            .map(java.time.format.DateTimeFormatter::ofPattern)
+            .toArray(java.time.format.DateTimeFormatter[]::new);
+
     /** Parse many common DOB formats to ISO yyyy-MM-dd (return "" if unknown). */
-    private static String tryNormalizeDob(String raw) {
+    static String tryNormalizeDob(String raw) {
         if (raw == null)
             return "";
         String s = raw.trim();
         if (s.isEmpty())
             return "";
 
-        String[] patterns = {
-                "yyyy-MM-dd", "dd/MM/yyyy", "dd-MM-yyyy", "MM/dd/yyyy",
-                "dd.MM.yyyy", "d/M/yyyy", "d-M-yyyy", "M/d/yyyy"
-        };
-        for (String p : patterns) {
+        for (java.time.format.DateTimeFormatter fmt : DOB_FORMATS) {
             try {
-                java.time.format.DateTimeFormatter fmt = java.time.format.DateTimeFormatter.ofPattern(p);
                 java.time.LocalDate d = java.time.LocalDate.parse(s, fmt);
                 return d.toString();
             } catch (Exception ignored) {
@@ -225,6 +399,88 @@ public class AccessDb {
         return "";
     }
 
+    // ------------------------ participant index ------------------------
+
+    /**
+     * Load every ParticipantsRecord row that has a CardUID into
+     * nfc.ParticipantIndex.shared(), replacing what it held. Returns the
+     * number of cards; 0 if the table has no CardUID column.
+     *
+     * A card handed out again keeps its UID on the previous holder's row,
+     * so when several rows carry one UID the holder of its latest issue
+     * (last ParticipantsWrite row for the card) wins; without that log, the
+     * row added last (highest SNo/Id).
+     */
+    public static int loadParticipantIndex() throws SQLException {
+        try (Connection c = getConnection()) {
+            Set<String> cols = participantsRecordColumns(c);
+            if (!cols.contains("CARDUID"))
+                return 0;
+            Map<String, String> holders = latestCardHolders(c);
+            String keyCol = participantKeyColumn(cols);
+            Map<String, String[]> rows = new HashMap<>();
+            try (Statement st = c.createStatement();
+                    ResultSet rs = st.executeQuery(
+                            "SELECT * FROM [ParticipantsRecord] WHERE [CardUID] IS NOT NULL AND [CardUID] <> ''"
+                                    + (keyCol != null ? " ORDER BY " + keyCol : ""))) {
+                while (rs.next()) {
+                    String uid = uidKey(rs.getString("CardUID"));
+                    if (uid.isEmpty())
+                        continue;
+                    String[] f = ParticipantCodec.fromMap(readParticipantRow(rs));
+                    String holder = holders.get(uid);
+                    String[] prev = rows.get(uid);
+                    if (prev == null || holder == null || !holder.equalsIgnoreCase(prev[ParticipantCodec.BSGUID]))
+                        rows.put(uid, f);
+                }
+            }
+            ParticipantIndex.shared().replaceAll(rows);
+            return rows.size();
+        }
+    }
+
+    /** {@link #loadParticipantIndex()} on a daemon thread; a failure is logged and the old index kept. */
+    public static void loadParticipantIndexAsync() {
+        Thread t = new Thread(() -> {
+            try {
+                loadParticipantIndex();
+            } catch (Exception ex) {
+                System.err.println("[WARN] Participant index not loaded: " + ex.getMessage());
+            }
+        }, "participant-index-thread");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Card UID -> BSGUID of its latest issue, from ParticipantsWrite; empty if that cannot be told. */
+    private static Map<String, String> latestCardHolders(Connection c) throws SQLException {
+        Map<String, String> out = new HashMap<>();
+        if (!tableExists(c, "ParticipantsWrite"))
+            return out;
+        Set<String> cols = tableColumns(c, "ParticipantsWrite");
+        String order = cols.contains("ID") ? "[Id]" : cols.contains("CREATEDAT") ? "[CreatedAt]" : null;
+        if (order == null || !cols.contains("CARDUID") || !cols.contains("BSGUID"))
+            return out;
+        try (Statement st = c.createStatement();
+                ResultSet rs = st.executeQuery("SELECT [CardUID], [BSGUID] FROM [ParticipantsWrite]"
+                        + " WHERE [CardUID] IS NOT NULL AND [CardUID] <> '' ORDER BY " + order)) {
+            while (rs.next()) {
+                String uid = uidKey(rs.getString(1));
+                String bsguid = rs.getString(2);
+                if (bsguid == null || bsguid.trim().isEmpty())
+                    out.remove(uid); // latest holder unknown
+                else
+                    out.put(uid, bsguid.trim());
+            }
+        }
+        return out;
+    }
+
+    /** A card UID as hex digits only (the writer stores 11:22:33:44, the reader returns 11223344). */
+    private static String uidKey(String uid) {
+        return uid == null ? "" : uid.replaceAll("[^0-9A-Fa-f]", "").toUpperCase(Locale.ROOT);
+    }
+
     public static Connection getConnection() throws SQLException {
         try {
             Class.forName("net.ucanaccess.jdbc.UcanaccessDriver");
@@ -407,6 +663,8 @@ public class AccessDb {
                 }
 
                 c.commit();
+                if (cardUid != null && !cardUid.trim().isEmpty())
+                    ParticipantIndex.shared().put(cardUid, ParticipantCodec.fromMap(data));
                 return generatedId;
             } catch (SQLException ex) {
                 try {
@@ -569,6 +827,20 @@ public class AccessDb {
                 case "test":
                     testConnection();
                     break;
+                case "import-participants":
+                    if (args.length < 2)
+                        System.out.println("Usage: import-participants <file.csv> [threads]");
+                    else
+                        importParticipants(args[1], ParticipantImporter.Mode.APPEND,
+                                args.length > 2 ? Integer.parseInt(args[2]) : 1);
+                    break;
+                case "sync-participants":
+                    if (args.length < 2)
+                        System.out.println("Usage: sync-participants <file.csv> [threads]");
+                    else
+                        importParticipants(args[1], ParticipantImporter.Mode.SYNC,
+                                args.length > 2 ? Integer.parseInt(args[2]) : 1);
+                    break;
                 default:
                     System.out.println("AccessDb helper");
                     System.out.println("Usage:");
@@ -576,6 +848,8 @@ public class AccessDb {
                     System.out.println("  java -cp \"out;lib/*\" db.AccessDb describe <TableName>");
                     System.out.println("  java -cp \"out;lib/*\" db.AccessDb create-participants");
                     System.out.println("  java -cp \"out;lib/*\" db.AccessDb test");
+                    System.out.println("  java -cp \"out;lib/*\" db.AccessDb import-participants <file.csv> [threads]");
+                    System.out.println("  java -cp \"out;lib/*\" db.AccessDb sync-participants <file.csv> [threads]");
             }
         } catch (Exception ex) {
             System.out.println("Error: " + ex.getMessage());
@@ -691,6 +965,19 @@ public class AccessDb {
         }
     }
 
+    private static void importParticipants(String file, ParticipantImporter.Mode mode, int threads)
+            throws Exception {
+        System.out.println((mode == ParticipantImporter.Mode.SYNC ? "Syncing " : "Importing ") + file
+                + " into ParticipantsRecord (" + threads + " parser thread(s))...");
+        ParticipantImporter.Result r = new ParticipantImporter(java.nio.file.Paths.get(file), mode, threads,
+                n -> System.out.println("  " + n + " rows")).run();
+        System.out.println(r);
+        for (String reject : r.rejects)
+            System.out.println("  rejected " + reject);
+        if (r.rejected > r.rejects.size())
+            System.out.println("  ... " + (r.rejected - r.rejects.size()) + " more rejected rows");
+    }
+
     private static void testConnection() {
         System.out.println("Attempting to connect to the Access database...");
         try (Connection c = getConnection()) {
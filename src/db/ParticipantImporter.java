@@ -0,0 +1,768 @@
+package db;
+
+import util.CsvProjection;
+import util.CsvReader;
+import util.CsvRows;
+
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Bulk import of a participant CSV into ParticipantsRecord.
+ *
+ * Runs as a three-stage pipeline connected by bounded queues, so parsing,
+ * cleaning and inserting overlap:
+ * 1) parse: stream rows with CsvReader (or ParallelCsvReader for threads > 1),
+ * projected onto just the header columns that map to ParticipantsRecord via
+ * {@link AccessDb#canonicalParticipantColumn} (memberType/memberTyp, ...);
+ * categorical values (state, district, category, ...) are interned
+ * 2) clean: normalize DOB to yyyy-MM-dd and validate; rejects are collected
+ * with their CSV record number and reason
+ * 3) insert (calling thread): batched PreparedStatement inserts, committed
+ * every {@link #COMMIT_ROWS} rows; on any failure the open chunk is rolled
+ * back and earlier chunks stay committed
+ *
+ * Only columns that exist in ParticipantsRecord are written; new rows get
+ * status='F' (unprocessed) when the column exists. Rows whose BSGUID is
+ * already in the table or repeated in the file are rejected.
+ *
+ * {@link Mode#SYNC} instead reconciles the table with an updated master
+ * roster, keyed by BSGUID: one scan of ParticipantsRecord builds a 64-bit
+ * FNV-1a hash per stored row over the columns the CSV provides, and stage 3
+ * hashes each incoming row the same way. New BSGUIDs are inserted, changed
+ * rows are updated, identical rows are skipped, and rows that already have a
+ * card (CardUID set or status='T') are never touched. All changes go in one
+ * batched transaction, so a failed sync leaves the table as it was.
+ */
+public class ParticipantImporter {
+
+    public static final int BATCH_ROWS = 500;
+    public static final int COMMIT_ROWS = 5_000;
+    private static final int MAX_REPORTED_REJECTS = 200;
+
+    /** One cleaned row: values in {@link AccessDb#participantColumns()} order. */
+    private static final class Row {
+        final long recordNo;
+        final String[] values;
+
+        Row(long recordNo, String[] values) {
+            this.recordNo = recordNo;
+            this.values = values;
+        }
+    }
+
+    private static final List<Row> END = Collections.emptyList();
+
+    public enum Mode {
+        /** Insert every valid row; existing BSGUIDs are rejected. */
+        APPEND,
+        /** Insert new and update changed rows by BSGUID; skip carded rows. */
+        SYNC
+    }
+
+    /** Hash of a stored row's roster columns, and whether it has a card. */
+    private static final class Stored {
+        final long key; // SNo/Id, or -1 if the table has no key column
+        final long hash;
+        final boolean locked;
+
+        Stored(long key, long hash, boolean locked) {
+            this.key = key;
+            this.hash = hash;
+            this.locked = locked;
+        }
+    }
+
+    /** Low-cardinality columns whose values are deduplicated while parsing. */
+    private static final Set<String> INTERNED = new HashSet<>(Arrays.asList(
+            "ParticipationType", "bsgDistrict", "bsgState", "memberType", "rank_or_section", "excel_category"));
+
+    public static class Result {
+        public final long rowsRead;
+        public final long inserted;
+        /** SYNC only: rows updated, identical, and left alone because carded. */
+        public final long updated;
+        public final long unchanged;
+        public final long locked;
+        public final long rejected;
+        /** First rejects as "row N: reason" (capped). */
+        public final List<String> rejects;
+        public final long elapsedMs;
+
+        Result(long rowsRead, long inserted, long updated, long unchanged, long locked, long rejected,
+                List<String> rejects, long elapsedMs) {
+            this.rowsRead = rowsRead;
+            this.inserted = inserted;
+            this.updated = updated;
+            this.unchanged = unchanged;
+            this.locked = locked;
+            this.rejected = rejected;
+            this.rejects = Collections.unmodifiableList(rejects);
+            this.elapsedMs = elapsedMs;
+        }
+
+        /** Rows written (inserted + updated) per second. */
+        public double rowsPerSec() {
+            long written = inserted + updated;
+            return elapsedMs <= 0 ? written : written * 1000.0 / elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("read=%d inserted=%d updated=%d unchanged=%d carded=%d rejected=%d in %.1fs (%.0f rows/s)",
+                    rowsRead, inserted, updated, unchanged, locked, rejected, elapsedMs / 1000.0, rowsPerSec());
+        }
+    }
+
+    private final Path csv;
+    private final Mode mode;
+    private final int threads;
+    private final Consumer<Long> onProgress;
+
+    private final List<String> columns = AccessDb.participantColumns();
+    private final int iName = columns.indexOf("FullName");
+    private final int iGuid = columns.indexOf("BSGUID");
+    private final int iDob = columns.indexOf("dateOfBirth");
+    private final int iAge = columns.indexOf("age");
+    private final int iEmail = columns.indexOf("Email");
+
+    private final List<String> rejects = Collections.synchronizedList(new ArrayList<>());
+    private volatile long rowsRead;
+    private volatile long rejected;
+    private long updated;
+    private long unchanged;
+    private long locked;
+    private volatile Throwable stageError;
+    private volatile boolean aborted;
+
+    /**
+     * @param threads    parser threads (1 = plain streaming reader)
+     * @param onProgress called from the insert stage with the running insert
+     *                   count after each commit (may be null)
+     */
+    public ParticipantImporter(Path csv, int threads, Consumer<Long> onProgress) {
+        this(csv, Mode.APPEND, threads, onProgress);
+    }
+
+    /**
+     * @param onProgress called with the running count of rows written (APPEND)
+     *                   or processed (SYNC); may be null
+     */
+    public ParticipantImporter(Path csv, Mode mode, int threads, Consumer<Long> onProgress) {
+        this.csv = csv;
+        this.mode = mode;
+        this.threads = Math.max(1, threads);
+        this.onProgress = onProgress;
+    }
+
+    public static Result importCsv(Path csv) throws Exception {
+        return new ParticipantImporter(csv, 1, null).run();
+    }
+
+    public static Result syncCsv(Path csv) throws Exception {
+        return new ParticipantImporter(csv, Mode.SYNC, 1, null).run();
+    }
+
+    public Result run() throws Exception {
+        long t0 = System.currentTimeMillis();
+        BlockingQueue<List<Row>> parsed = new ArrayBlockingQueue<>(8);
+        BlockingQueue<List<Row>> cleaned = new ArrayBlockingQueue<>(8);
+
+        try (Connection c = AccessDb.getConnection()) {
+            Map<String, Integer> colTypes = columnTypes(c);
+            Set<String> existing = new HashSet<>();
+            int[] synced = null;
+            Map<String, Stored> stored = null;
+            if (mode == Mode.SYNC) {
+                synced = syncedSlots(colTypes);
+                stored = storedHashes(c, colTypes, synced);
+            } else if (colTypes.containsKey("BSGUID")) {
+                existing = existingGuids(c);
+            }
+            final Set<String> known = existing;
+
+            Thread parser = stage("import-parse-thread", () -> parse(parsed));
+            Thread cleaner = stage("import-clean-thread", () -> clean(parsed, cleaned, known));
+            parser.start();
+            cleaner.start();
+
+            long inserted;
+            try {
+                inserted = mode == Mode.SYNC
+                        ? sync(c, cleaned, colTypes, synced, stored)
+                        : insert(c, cleaned, colTypes);
+            } finally {
+                aborted = true;
+                parser.interrupt();
+                cleaner.interrupt();
+                parser.join();
+                cleaner.join();
+            }
+            return new Result(rowsRead, inserted, updated, unchanged, locked, rejected, new ArrayList<>(rejects),
+                    System.currentTimeMillis() - t0);
+        }
+    }
+
+    // ---------------- stage 1: parse + header mapping ----------------
+
+    private void parse(BlockingQueue<List<Row>> out) throws Exception {
+        try (CsvRows r = threads > 1 ? CsvReader.parallel(csv, threads) : CsvReader.open(csv)) {
+            // project the header columns that map to a participant column, resolved once
+            List<String> header = r.header();
+            List<String> wanted = new ArrayList<>();
+            List<Integer> slots = new ArrayList<>();
+            mapHeader(header, wanted, slots);
+            if (wanted.isEmpty())
+                throw new Exception("No known participant columns in CSV header: " + header);
+
+            CsvProjection p = r.project(wanted);
+            for (int j = 0; j < wanted.size(); j++) {
+                if (INTERNED.contains(columns.get(slots.get(j))))
+                    p.intern(wanted.get(j));
+            }
+            int[] slotOf = slots.stream().mapToInt(Integer::intValue).toArray();
+
+            List<Row> batch = new ArrayList<>(BATCH_ROWS);
+            long n = 0;
+            while (p.next()) {
+                String[] v = new String[columns.size()];
+                for (int j = 0; j < slotOf.length; j++)
+                    v[slotOf[j]] = p.get(j);
+                batch.add(new Row(p.rowNumber(), v));
+                n++;
+                if (batch.size() == BATCH_ROWS) {
+                    out.put(batch);
+                    batch = new ArrayList<>(BATCH_ROWS);
+                }
+            }
+            rowsRead = n;
+            if (!batch.isEmpty())
+                out.put(batch);
+        } catch (InterruptedException ie) {
+            throw ie;
+        } catch (Throwable ex) {
+            fail(ex);
+            throw ex;
+        } finally {
+            if (!aborted)
+                out.put(END);
+        }
+    }
+
+    /** Fill wanted/slots with the header names that map to participant columns. */
+    private void mapHeader(List<String> header, List<String> wanted, List<Integer> slots) {
+        for (String h : header) {
+            String col = AccessDb.canonicalParticipantColumn(h);
+            int slot = col == null ? -1 : columns.indexOf(col);
+            if (slot >= 0 && !slots.contains(slot)) {
+                wanted.add(h);
+                slots.add(slot);
+            }
+        }
+    }
+
+    // ---------------- stage 2: normalize + validate ----------------
+
+    private void clean(BlockingQueue<List<Row>> in, BlockingQueue<List<Row>> out, Set<String> existing)
+            throws Exception {
+        Set<String> seen = new HashSet<>();
+        try {
+            List<Row> batch;
+            while ((batch = in.take()) != END) {
+                List<Row> ok = new ArrayList<>(batch.size());
+                for (Row row : batch) {
+                    String why = validate(row.values, existing, seen);
+                    if (why == null)
+                        ok.add(row);
+                    else
+                        reject(row.recordNo, why);
+                }
+                if (!ok.isEmpty())
+                    out.put(ok);
+            }
+        } catch (InterruptedException ie) {
+            throw ie;
+        } catch (Throwable ex) {
+            fail(ex);
+            throw ex;
+        } finally {
+            if (!aborted)
+                out.put(END);
+        }
+    }
+
+    /** Normalizes row in place; returns a reject reason or null. */
+    private String validate(String[] v, Set<String> existing, Set<String> seen) {
+        for (int i = 0; i < v.length; i++) {
+            if (v[i] != null && v[i].isEmpty())
+                v[i] = null;
+        }
+        if (v[iName] == null)
+            return "FullName is empty";
+
+        if (v[iDob] != null) {
+            String iso = AccessDb.tryNormalizeDob(v[iDob]);
+            if (iso.isEmpty())
+                return "unrecognised dateOfBirth '" + v[iDob] + "'";
+            v[iDob] = iso;
+        }
+        if (v[iAge] != null && !v[iAge].matches("\\d{1,3}"))
+            return "age is not a number: '" + v[iAge] + "'";
+        if (v[iEmail] != null && v[iEmail].indexOf('@') < 1)
+            return "invalid Email '" + v[iEmail] + "'";
+
+        String guid = v[iGuid];
+        if (guid == null && mode == Mode.SYNC)
+            return "BSGUID is empty";
+        if (guid != null) {
+            if (existing.contains(guid))
+                return "BSGUID " + guid + " already in ParticipantsRecord";
+            if (!seen.add(guid))
+                return "duplicate BSGUID " + guid + " in file";
+        }
+        return null;
+    }
+
+    private void reject(long recordNo, String why) {
+        rejected++;
+        if (rejects.size() < MAX_REPORTED_REJECTS)
+            rejects.add("row " + recordNo + ": " + why);
+    }
+
+    // ---------------- stage 3: batched inserts ----------------
+
+    private long insert(Connection c, BlockingQueue<List<Row>> in, Map<String, Integer> colTypes)
+            throws Exception {
+        // only columns present in the table; actual spelling from metadata
+        List<Integer> slots = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < columns.size(); i++) {
+            String actual = tableColumn(colTypes, columns.get(i));
+            if (actual != null) {
+                slots.add(i);
+                names.add(actual);
+            }
+        }
+        String statusCol = actualName(colTypes, "status");
+        if (names.isEmpty())
+            throw new SQLException("No importable columns found in ParticipantsRecord.");
+
+        List<String> quoted = new ArrayList<>();
+        for (String n : names)
+            quoted.add("[" + n + "]");
+        if (statusCol != null)
+            quoted.add("[" + statusCol + "]");
+        String sql = "INSERT INTO [ParticipantsRecord] (" + String.join(",", quoted) + ") VALUES ("
+                + String.join(",", Collections.nCopies(quoted.size(), "?")) + ")";
+
+        boolean auto = c.getAutoCommit();
+        c.setAutoCommit(false);
+        long inserted = 0;
+        long uncommitted = 0;
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            List<Row> batch;
+            while ((batch = in.take()) != END) {
+                for (Row row : batch) {
+                    int p = 1;
+                    for (int k = 0; k < slots.size(); k++)
+                        bind(ps, p++, row.values[slots.get(k)], colTypes.get(names.get(k).toUpperCase(Locale.ROOT)));
+                    if (statusCol != null)
+                        ps.setString(p, "F");
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                uncommitted += batch.size();
+                if (uncommitted >= COMMIT_ROWS) {
+                    c.commit();
+                    inserted += uncommitted;
+                    uncommitted = 0;
+                    if (onProgress != null)
+                        onProgress.accept(inserted);
+                }
+            }
+            if (stageError != null)
+                throw new Exception("Import failed: " + stageError.getMessage(), stageError);
+            c.commit();
+            inserted += uncommitted;
+            if (onProgress != null)
+                onProgress.accept(inserted);
+            return inserted;
+        } catch (Exception ex) {
+            try {
+                c.rollback();
+            } catch (Exception ignored) {
+            }
+            throw ex;
+        } finally {
+            try {
+                c.setAutoCommit(auto);
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    // ---------------- stage 3 (SYNC): diff against stored hashes ----------------
+
+    private long sync(Connection c, BlockingQueue<List<Row>> in, Map<String, Integer> colTypes, int[] slots,
+            Map<String, Stored> stored) throws Exception {
+        String statusCol = actualName(colTypes, "status");
+        String[] names = new String[slots.length];
+        Integer[] types = new Integer[slots.length];
+        List<String> quoted = new ArrayList<>();
+        List<String> sets = new ArrayList<>();
+        for (int k = 0; k < slots.length; k++) {
+            names[k] = tableColumn(colTypes, columns.get(slots[k]));
+            types[k] = colTypes.get(names[k].toUpperCase(Locale.ROOT));
+            quoted.add("[" + names[k] + "]");
+            if (slots[k] != iGuid)
+                sets.add("[" + names[k] + "] = ?");
+        }
+        if (statusCol != null)
+            quoted.add("[" + statusCol + "]");
+        String insertSql = "INSERT INTO [ParticipantsRecord] (" + String.join(",", quoted) + ") VALUES ("
+                + String.join(",", Collections.nCopies(quoted.size(), "?")) + ")";
+        // by primary key when there is one: BSGUID is usually not indexed
+        String keyCol = keyColumn(colTypes);
+        String updateSql = sets.isEmpty() ? null
+                : "UPDATE [ParticipantsRecord] SET " + String.join(", ", sets) + " WHERE "
+                        + (keyCol == null ? "[BSGUID]" : "[" + keyCol + "]") + " = ?";
+
+        boolean auto = c.getAutoCommit();
+        c.setAutoCommit(false);
+        long inserted = 0;
+        long processed = 0;
+        String[] canon = new String[slots.length];
+        try (PreparedStatement ins = c.prepareStatement(insertSql);
+                PreparedStatement upd = updateSql == null ? null : c.prepareStatement(updateSql)) {
+            List<Row> batch;
+            // stop at a stage failure: the whole sync rolls back below anyway
+            while (stageError == null && (batch = in.take()) != END) {
+                int pendingIns = 0;
+                int pendingUpd = 0;
+                for (Row row : batch) {
+                    for (int k = 0; k < slots.length; k++)
+                        canon[k] = canonical(row.values[slots[k]], types[k]);
+                    String guid = row.values[iGuid];
+                    Stored old = stored.get(guid);
+                    if (old == null) {
+                        int p = 1;
+                        for (int k = 0; k < slots.length; k++)
+                            bind(ins, p++, canon[k], types[k]);
+                        if (statusCol != null)
+                            ins.setString(p, "F");
+                        ins.addBatch();
+                        pendingIns++;
+                    } else if (old.locked) {
+                        locked++;
+                    } else if (old.hash == hash(canon) || upd == null) {
+                        unchanged++;
+                    } else {
+                        int p = 1;
+                        for (int k = 0; k < slots.length; k++) {
+                            if (slots[k] != iGuid)
+                                bind(upd, p++, canon[k], types[k]);
+                        }
+                        if (keyCol == null)
+                            upd.setString(p, guid);
+                        else
+                            upd.setLong(p, old.key);
+                        upd.addBatch();
+                        pendingUpd++;
+                    }
+                }
+                if (pendingIns > 0)
+                    ins.executeBatch();
+                if (pendingUpd > 0)
+                    upd.executeBatch();
+                inserted += pendingIns;
+                updated += pendingUpd;
+                processed += batch.size();
+                if (onProgress != null)
+                    onProgress.accept(processed);
+            }
+            if (stageError != null)
+                throw new Exception("Sync failed: " + stageError.getMessage(), stageError);
+            c.commit();
+            return inserted;
+        } catch (Exception ex) {
+            try {
+                c.rollback();
+            } catch (Exception ignored) {
+            }
+            updated = unchanged = locked = 0;
+            throw ex;
+        } finally {
+            try {
+                c.setAutoCommit(auto);
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    /**
+     * Participant slots the sync compares and writes: those the CSV provides
+     * that exist in the table. BSGUID must be among them.
+     */
+    private int[] syncedSlots(Map<String, Integer> colTypes) throws Exception {
+        List<String> header;
+        try (CsvRows r = CsvReader.open(csv)) {
+            header = r.header();
+        }
+        List<Integer> slots = new ArrayList<>();
+        mapHeader(header, new ArrayList<>(), slots);
+        if (!slots.contains(iGuid) || !colTypes.containsKey("BSGUID"))
+            throw new Exception("Sync needs a BSGUID column in both the CSV and ParticipantsRecord.");
+        Collections.sort(slots);
+        List<Integer> present = new ArrayList<>();
+        for (int slot : slots) {
+            if (tableColumn(colTypes, columns.get(slot)) != null)
+                present.add(slot);
+        }
+        return present.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** One scan: BSGUID -> hash of the synced columns, plus the carded flag. */
+    private Map<String, Stored> storedHashes(Connection c, Map<String, Integer> colTypes, int[] slots)
+            throws SQLException {
+        String keyCol = keyColumn(colTypes);
+        boolean hasCard = colTypes.containsKey("CARDUID");
+        boolean hasStatus = colTypes.containsKey("STATUS");
+        StringBuilder sql = new StringBuilder("SELECT [BSGUID]");
+        if (keyCol != null)
+            sql.append(", [").append(keyCol).append("]");
+        if (hasCard)
+            sql.append(", [CardUID]");
+        if (hasStatus)
+            sql.append(", [status]");
+        for (int slot : slots)
+            sql.append(", [").append(tableColumn(colTypes, columns.get(slot))).append("]");
+        sql.append(" FROM [ParticipantsRecord]");
+
+        Integer[] types = new Integer[slots.length];
+        for (int k = 0; k < slots.length; k++)
+            types[k] = colTypes.get(tableColumn(colTypes, columns.get(slots[k])).toUpperCase(Locale.ROOT));
+        int first = 2 + (keyCol != null ? 1 : 0) + (hasCard ? 1 : 0) + (hasStatus ? 1 : 0);
+
+        Map<String, Stored> out = new HashMap<>();
+        String[] canon = new String[slots.length];
+        try (Statement st = c.createStatement(); ResultSet rs = st.executeQuery(sql.toString())) {
+            while (rs.next()) {
+                String guid = rs.getString(1);
+                if (guid == null || guid.trim().isEmpty())
+                    continue;
+                int i = 2;
+                long key = keyCol != null ? rs.getLong(i++) : -1;
+                String card = hasCard ? rs.getString(i++) : null;
+                String status = hasStatus ? rs.getString(i++) : null;
+                boolean carded = (card != null && !card.trim().isEmpty())
+                        || (status != null && status.trim().equalsIgnoreCase("T"));
+                for (int k = 0; k < slots.length; k++)
+                    canon[k] = storedValue(rs, first + k, types[k]);
+                out.put(guid.trim(), new Stored(key, hash(canon), carded));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * CSV value in the form it is stored and read back: dates yyyy-MM-dd,
+     * numbers without leading zeros, text trimmed; null for empty.
+     */
+    private static String canonical(String v, Integer sqlType) {
+        if (v == null || v.isEmpty())
+            return null;
+        int t = sqlType == null ? Types.VARCHAR : sqlType;
+        try {
+            switch (t) {
+                case Types.INTEGER:
+                case Types.SMALLINT:
+                case Types.TINYINT:
+                case Types.BIGINT:
+                    return Long.toString(Long.parseLong(v));
+                case Types.DOUBLE:
+                case Types.FLOAT:
+                case Types.REAL:
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    return new java.math.BigDecimal(v).stripTrailingZeros().toPlainString();
+                default:
+                    return v;
+            }
+        } catch (NumberFormatException ex) {
+            return null; // bound as NULL too
+        }
+    }
+
+    private static String storedValue(ResultSet rs, int idx, Integer sqlType) throws SQLException {
+        int t = sqlType == null ? Types.VARCHAR : sqlType;
+        switch (t) {
+            case Types.DATE:
+            case Types.TIMESTAMP: {
+                java.sql.Date d = rs.getDate(idx);
+                return d == null ? null : d.toLocalDate().toString();
+            }
+            case Types.INTEGER:
+            case Types.SMALLINT:
+            case Types.TINYINT:
+            case Types.BIGINT: {
+                long n = rs.getLong(idx);
+                return rs.wasNull() ? null : Long.toString(n);
+            }
+            case Types.DOUBLE:
+            case Types.FLOAT:
+            case Types.REAL:
+            case Types.DECIMAL:
+            case Types.NUMERIC: {
+                java.math.BigDecimal n = rs.getBigDecimal(idx);
+                return n == null ? null : n.stripTrailingZeros().toPlainString();
+            }
+            default: {
+                String s = rs.getString(idx);
+                return s == null || s.trim().isEmpty() ? null : s.trim();
+            }
+        }
+    }
+
+    /** 64-bit FNV-1a over the values, with a separator and a distinct null marker. */
+    static long hash(String[] values) {
+        long h = 0xcbf29ce484222325L;
+        for (String v : values) {
+            if (v == null) {
+                h = (h ^ 0xFF) * 0x100000001b3L;
+            } else {
+                for (int i = 0; i < v.length(); i++) {
+                    char ch = v.charAt(i);
+                    h = (h ^ (ch & 0xFF)) * 0x100000001b3L;
+                    h = (h ^ (ch >>> 8)) * 0x100000001b3L;
+                }
+            }
+            h = (h ^ 0x1F) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static void bind(PreparedStatement ps, int idx, String v, Integer sqlType) throws SQLException {
+        int t = sqlType == null ? Types.VARCHAR : sqlType;
+        if (v == null) {
+            ps.setNull(idx, t);
+            return;
+        }
+        switch (t) {
+            case Types.DATE:
+            case Types.TIMESTAMP:
+                ps.setDate(idx, java.sql.Date.valueOf(v));
+                break;
+            case Types.INTEGER:
+            case Types.SMALLINT:
+            case Types.TINYINT:
+            case Types.BIGINT:
+                try {
+                    ps.setLong(idx, Long.parseLong(v));
+                } catch (NumberFormatException ex) {
+                    ps.setNull(idx, t);
+                }
+                break;
+            case Types.DOUBLE:
+            case Types.FLOAT:
+            case Types.REAL:
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                try {
+                    ps.setBigDecimal(idx, new java.math.BigDecimal(v));
+                } catch (NumberFormatException ex) {
+                    ps.setNull(idx, t);
+                }
+                break;
+            default:
+                ps.setString(idx, v);
+        }
+    }
+
+    // ---------------- helpers ----------------
+
+    /** Upper-cased column name -> java.sql.Types for ParticipantsRecord. */
+    private static Map<String, Integer> columnTypes(Connection c) throws SQLException {
+        Map<String, Integer> out = new LinkedHashMap<>();
+        DatabaseMetaData md = c.getMetaData();
+        try (ResultSet rs = md.getColumns(null, null, "ParticipantsRecord", "%")) {
+            while (rs.next()) {
+                String cn = rs.getString("COLUMN_NAME");
+                if (cn != null)
+                    out.put(cn.toUpperCase(Locale.ROOT), rs.getInt("DATA_TYPE"));
+            }
+        }
+        if (out.isEmpty())
+            throw new SQLException("ParticipantsRecord table not found.");
+        return out;
+    }
+
+    /**
+     * col if the table has it (metadata keys are upper-cased, so compared
+     * case-insensitively, as Access does), else null. Returns col as given,
+     * not the table's spelling.
+     */
+    private static String actualName(Map<String, Integer> colTypes, String col) {
+        return colTypes.containsKey(col.toUpperCase(Locale.ROOT)) ? col : null;
+    }
+
+    /** Table column for a participant column; excel_category may be ExcelCategory. */
+    private static String tableColumn(Map<String, Integer> colTypes, String col) {
+        String actual = actualName(colTypes, col);
+        if (actual == null && col.equals("excel_category"))
+            actual = actualName(colTypes, "ExcelCategory");
+        return actual;
+    }
+
+    /** Numeric primary key column (SNo or Id), or null. */
+    private static String keyColumn(Map<String, Integer> colTypes) {
+        if (colTypes.containsKey("SNO"))
+            return "SNo";
+        if (colTypes.containsKey("ID"))
+            return "Id";
+        return null;
+    }
+
+    private static Set<String> existingGuids(Connection c) throws SQLException {
+        Set<String> out = new HashSet<>();
+        try (Statement st = c.createStatement();
+                ResultSet rs = st.executeQuery("SELECT [BSGUID] FROM [ParticipantsRecord]")) {
+            while (rs.next()) {
+                String g = rs.getString(1);
+                if (g != null && !g.trim().isEmpty())
+                    out.add(g.trim());
+            }
+        }
+        return out;
+    }
+
+    private interface StageBody {
+        void run() throws Exception;
+    }
+
+    private Thread stage(String name, StageBody body) {
+        Thread t = new Thread(() -> {
+            try {
+                body.run();
+            } catch (InterruptedException ie) {
+                // insert stage finished or failed first
+            } catch (Throwable ex) {
+                fail(ex);
+            }
+        }, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    /**
+     * Record the first stage failure. parse/clean call this before their
+     * finally puts END, so the writer always sees the error when it takes END.
+     */
+    private synchronized void fail(Throwable ex) {
+        if (stageError == null)
+            stageError = ex;
+    }
+}
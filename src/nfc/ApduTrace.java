@@ -0,0 +1,354 @@
+package nfc;
+
+import javax.smartcardio.*;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * APDU instrumentation shared by the NFC classes.
+ *
+ * Channels are passed through {@link #wrap} right after connecting. When
+ * tracing is off that returns the channel itself, so the hot path pays one
+ * volatile read per card and nothing per APDU. When it is on, every transmit
+ * records class, instruction, block, status word and duration into a
+ * fixed-size ring (the last {@link #CAPACITY} APDUs, lock-free: writers take
+ * a number with one atomic increment and its slot with one CAS) and into per-command counters and
+ * log2 latency histograms.
+ *
+ * Tracing is on when nfc-trace.txt exists in the working directory (like
+ * keys.txt, checked at startup) or after {@link #setEnabled}. Card operations
+ * that fail call {@link #dump}, which appends the recent APDUs and the
+ * per-command summary to that file and to stderr.
+ */
+public final class ApduTrace {
+
+    public static final String TRACE_FILE = "nfc-trace.txt";
+    /** Ring size; a power of two. */
+    public static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+    private static final int NO_BLOCK = 0xFFFF;
+
+    /** Commands with their own counters; everything else is OTHER. */
+    public enum Command {
+        GET_UID(0xCA), LOAD_KEY(0x82), AUTH(0x86), READ(0xB0), WRITE(0xD6), OTHER(-1);
+
+        final int ins;
+
+        Command(int ins) {
+            this.ins = ins;
+        }
+
+        static Command of(int ins) {
+            for (Command c : values())
+                if (c.ins == ins)
+                    return c;
+            return OTHER;
+        }
+    }
+
+    /** Histogram buckets: bucket b counts durations in [2^(b-1), 2^b) microseconds. */
+    static final int BUCKETS = 20;
+
+    private static volatile boolean enabled = Files.exists(Paths.get(TRACE_FILE));
+
+    // ring: seq[i] = claim number + 1 once slot i is complete, -(claim number + 1)
+    // while being written, 0 if never written; entries are read seqlock-style
+    private static final AtomicLong cursor = new AtomicLong();
+    private static final AtomicLongArray seq = new AtomicLongArray(CAPACITY);
+    private static final long[] info = new long[CAPACITY]; // cla<<48 | ins<<40 | block<<16 | sw
+    private static final long[] startNanos = new long[CAPACITY];
+    private static final long[] durNanos = new long[CAPACITY];
+
+    private static final int COMMANDS = Command.values().length;
+    private static final AtomicLongArray count = new AtomicLongArray(COMMANDS);
+    private static final AtomicLongArray errors = new AtomicLongArray(COMMANDS);
+    private static final AtomicLongArray totalNanos = new AtomicLongArray(COMMANDS);
+    private static final AtomicLongArray maxNanos = new AtomicLongArray(COMMANDS);
+    private static final AtomicLongArray histogram = new AtomicLongArray(COMMANDS * BUCKETS);
+
+    private ApduTrace() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /** The channel to use for a card operation: traced if tracing is on. */
+    public static CardChannel wrap(CardChannel channel) {
+        if (!enabled || channel == null || channel instanceof Traced)
+            return channel;
+        return new Traced(channel);
+    }
+
+    /** One recorded APDU. */
+    public static final class Entry {
+        public final Command command;
+        public final int cla;
+        public final int ins;
+        /** Block addressed (READ/WRITE/AUTH), or -1. */
+        public final int block;
+        public final int sw;
+        public final long startNanos;
+        public final long nanos;
+
+        Entry(long info, long startNanos, long nanos) {
+            this.cla = (int) (info >>> 48) & 0xFF;
+            this.ins = (int) (info >>> 40) & 0xFF;
+            int b = (int) (info >>> 16) & 0xFFFF;
+            this.block = b == NO_BLOCK ? -1 : b;
+            this.sw = (int) info & 0xFFFF;
+            this.command = Command.of(ins);
+            this.startNanos = startNanos;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-8s %02X %02X block=%-3s SW=%04X %7.2f ms", command, cla, ins,
+                    block < 0 ? "-" : Integer.toString(block), sw, nanos / 1e6);
+        }
+    }
+
+    /** Per-command totals. Percentiles are histogram bucket upper bounds. */
+    public static final class Stats {
+        public final Command command;
+        public final long count;
+        public final long errors;
+        public final long totalNanos;
+        public final long maxNanos;
+        private final long[] buckets;
+
+        Stats(Command command, long count, long errors, long totalNanos, long maxNanos, long[] buckets) {
+            this.command = command;
+            this.count = count;
+            this.errors = errors;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.buckets = buckets;
+        }
+
+        public double meanMs() {
+            return count == 0 ? 0 : totalNanos / 1e6 / count;
+        }
+
+        /** Upper bound, in ms, of the bucket holding the p-th percentile (0..100). */
+        public double percentileMs(double p) {
+            long total = 0;
+            for (long b : buckets)
+                total += b;
+            if (total == 0)
+                return 0;
+            long rank = (long) Math.ceil(total * p / 100.0);
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b];
+                if (seen >= rank)
+                    return (1L << b) / 1000.0;
+            }
+            return maxNanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-8s n=%-6d err=%-4d mean=%6.2f p50<=%6.2f p95<=%6.2f max=%6.2f ms", command,
+                    count, errors, meanMs(), percentileMs(50), percentileMs(95), maxNanos / 1e6);
+        }
+    }
+
+    /** The last (up to CAPACITY) recorded APDUs, oldest first. */
+    public static List<Entry> recent() {
+        long end = cursor.get();
+        List<Entry> out = new ArrayList<>();
+        for (long n = Math.max(0, end - CAPACITY); n < end; n++) {
+            int i = (int) (n & MASK);
+            long s1 = seq.get(i);
+            if (s1 != n + 1)
+                continue; // being written, or already overwritten
+            long in = info[i], st = startNanos[i], d = durNanos[i];
+            VarHandle.acquireFence(); // the reads above stay before the re-check
+            if (seq.get(i) == s1) // not overwritten meanwhile
+                out.add(new Entry(in, st, d));
+        }
+        return out;
+    }
+
+    public static List<Stats> stats() {
+        List<Stats> out = new ArrayList<>();
+        for (Command c : Command.values()) {
+            int k = c.ordinal();
+            if (count.get(k) == 0)
+                continue;
+            long[] h = new long[BUCKETS];
+            for (int b = 0; b < BUCKETS; b++)
+                h[b] = histogram.get(k * BUCKETS + b);
+            out.add(new Stats(c, count.get(k), errors.get(k), totalNanos.get(k), maxNanos.get(k), h));
+        }
+        return out;
+    }
+
+    /** Per-command summary, one line per command seen. */
+    public static String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Stats s : stats())
+            sb.append(s).append(System.lineSeparator());
+        return sb.toString();
+    }
+
+    /** Clear the ring and the counters. */
+    public static synchronized void reset() {
+        for (int i = 0; i < CAPACITY; i++)
+            seq.set(i, 0);
+        cursor.set(0);
+        for (int k = 0; k < COMMANDS; k++) {
+            count.set(k, 0);
+            errors.set(k, 0);
+            totalNanos.set(k, 0);
+            maxNanos.set(k, 0);
+        }
+        for (int i = 0; i < histogram.length(); i++)
+            histogram.set(i, 0);
+    }
+
+    /**
+     * Write the last {@code last} APDUs and the summary to stderr and append
+     * them to nfc-trace.txt. Does nothing when tracing is off.
+     */
+    public static void dump(String reason, int last) {
+        if (!enabled)
+            return;
+        List<Entry> entries = recent();
+        entries = entries.subList(Math.max(0, entries.size() - last), entries.size());
+        String nl = System.lineSeparator();
+        StringBuilder sb = new StringBuilder();
+        sb.append("=== ").append(LocalDateTime.now()).append(' ').append(reason).append(nl);
+        long t0 = entries.isEmpty() ? 0 : entries.get(0).startNanos;
+        for (Entry e : entries)
+            sb.append(String.format("+%8.2f ms  ", (e.startNanos - t0) / 1e6)).append(e).append(nl);
+        sb.append(summary());
+        System.err.print(sb);
+        try {
+            Files.write(Paths.get(TRACE_FILE), sb.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException ex) {
+            System.err.println("ApduTrace: could not write " + TRACE_FILE + ": " + ex.getMessage());
+        }
+    }
+
+    public static void dump(String reason) {
+        dump(reason, 64);
+    }
+
+    static void record(byte[] apdu, int sw, long start, long nanos) {
+        int cla = apdu.length > 0 ? apdu[0] & 0xFF : 0;
+        int ins = apdu.length > 1 ? apdu[1] & 0xFF : 0;
+        int block = NO_BLOCK;
+        if ((ins == 0xB0 || ins == 0xD6) && apdu.length > 3)
+            block = apdu[3] & 0xFF;
+        else if (ins == 0x86 && apdu.length > 7)
+            block = apdu[7] & 0xFF;
+
+        long n = cursor.getAndIncrement();
+        int i = (int) (n & MASK);
+        if (claim(i, n)) {
+            info[i] = ((long) cla << 48) | ((long) ins << 40) | ((long) block << 16) | (sw & 0xFFFF);
+            startNanos[i] = start;
+            durNanos[i] = nanos;
+            seq.set(i, n + 1);
+        }
+
+        int k = Command.of(ins).ordinal();
+        count.incrementAndGet(k);
+        if (sw != 0x9000)
+            errors.incrementAndGet(k);
+        totalNanos.addAndGet(k, nanos);
+        long max = maxNanos.get(k);
+        while (nanos > max && !maxNanos.compareAndSet(k, max, nanos))
+            max = maxNanos.get(k);
+        long micros = nanos / 1000;
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        histogram.incrementAndGet(k * BUCKETS + bucket);
+    }
+
+    /**
+     * Take slot i for claim n. Claims CAPACITY apart share a slot, so a
+     * writer that lapped a slower one finds it busy (or already holding
+     * the newer entry) and leaves its APDU out of the ring; it is still
+     * counted in the stats.
+     */
+    private static boolean claim(int i, long n) {
+        while (true) {
+            long s = seq.get(i);
+            if (s < 0 || s > n)
+                return false;
+            if (seq.compareAndSet(i, s, -(n + 1))) {
+                VarHandle.storeStoreFence(); // the field writes stay after the claim
+                return true;
+            }
+        }
+    }
+
+    /** CardChannel that records every transmit. */
+    private static final class Traced extends CardChannel {
+        private final CardChannel channel;
+
+        Traced(CardChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public Card getCard() {
+            return channel.getCard();
+        }
+
+        @Override
+        public int getChannelNumber() {
+            return channel.getChannelNumber();
+        }
+
+        @Override
+        public ResponseAPDU transmit(CommandAPDU command) throws CardException {
+            long start = System.nanoTime();
+            int sw = 0;
+            try {
+                ResponseAPDU r = channel.transmit(command);
+                sw = r.getSW();
+                return r;
+            } finally {
+                record(command.getBytes(), sw, start, System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public int transmit(ByteBuffer command, ByteBuffer response) throws CardException {
+            byte[] apdu = new byte[Math.min(8, command.remaining())];
+            command.duplicate().get(apdu);
+            int pos = response.position();
+            long start = System.nanoTime();
+            int sw = 0;
+            try {
+                int n = channel.transmit(command, response);
+                if (n >= 2)
+                    sw = ((response.get(pos + n - 2) & 0xFF) << 8) | (response.get(pos + n - 1) & 0xFF);
+                return n;
+            } finally {
+                record(apdu, sw, start, System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void close() throws CardException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package nfc;
+
+import java.util.*;
+
+/**
+ * Data last read from each card, by UID, so a card tapped again (attendance
+ * at the next session, the info desk) is not read sector by sector again.
+ *
+ * An entry keeps the card's {@link CardLayout} header block next to the
+ * decoded result. A repeat read costs the UID and block 1: if block 1 is
+ * byte for byte the header the entry was made from (same length, CRC,
+ * sector mask and write stamp) the cached result is returned, otherwise the
+ * card is read in full. Writers and erasers change the stamp, so a card
+ * rewritten at another station misses here; on this station they also
+ * drop the entry before touching the card, so a write that fails half-way
+ * never leaves a cached result behind.
+ *
+ * Only cards with a header are cached; older cards have nothing in one
+ * block that tells whether the rest changed. The cache is bounded and drops
+ * the least recently read card first.
+ */
+public final class CardCache {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final class Entry {
+        final byte[] header;
+        final SmartMifareReader.ReadResult result;
+
+        Entry(byte[] header, SmartMifareReader.ReadResult result) {
+            this.header = header;
+            this.result = result;
+        }
+    }
+
+    private static final Object lock = new Object();
+    private static int capacity = DEFAULT_CAPACITY; // guarded by lock
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() <= capacity)
+                return false;
+            evictions++;
+            return true;
+        }
+    }; // guarded by lock
+
+    // metrics, guarded by lock
+    private static long hits;
+    private static long misses;
+    private static long stale;
+    private static long evictions;
+    private static long invalidations;
+
+    private CardCache() {
+    }
+
+    /**
+     * The cached result for uid if headerBlock (block 1 as just read) is the
+     * header it was read under; null otherwise.
+     */
+    static SmartMifareReader.ReadResult get(String uid, byte[] headerBlock) {
+        if (CardLayout.parseHeader(headerBlock) == null)
+            return null;
+        synchronized (lock) {
+            Entry e = entries.get(key(uid));
+            if (e != null && Arrays.equals(e.header, headerBlock)) {
+                hits++;
+                SmartMifareReader.ReadResult r = e.result;
+                return new SmartMifareReader.ReadResult(r.uid, r.data, r.fields == null ? null : r.fields.clone());
+            }
+            misses++;
+            if (e != null) {
+                stale++;
+                entries.remove(key(uid));
+            }
+            return null;
+        }
+    }
+
+    /** Remember result as what the card holds while block 1 reads headerBlock. */
+    static void put(String uid, byte[] headerBlock, SmartMifareReader.ReadResult result) {
+        if (CardLayout.parseHeader(headerBlock) == null || result == null)
+            return;
+        String[] fields = result.fields == null ? null : result.fields.clone();
+        synchronized (lock) {
+            entries.put(key(uid), new Entry(headerBlock.clone(), new SmartMifareReader.ReadResult(
+                    result.uid, result.data, fields)));
+        }
+    }
+
+    /** Drop the entry for uid (about to be written). */
+    static void invalidate(String uid) {
+        synchronized (lock) {
+            if (entries.remove(key(uid)) != null)
+                invalidations++;
+        }
+    }
+
+    /**
+     * Drop every entry made under headerBlock, for callers that know the
+     * card's header but not its UID (the eraser). Cards that happen to
+     * share the header are only read again.
+     */
+    static void invalidate(byte[] headerBlock) {
+        if (headerBlock == null)
+            return;
+        synchronized (lock) {
+            for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+                if (Arrays.equals(it.next().header, headerBlock)) {
+                    it.remove();
+                    invalidations++;
+                }
+            }
+        }
+    }
+
+    public static void clear() {
+        synchronized (lock) {
+            invalidations += entries.size();
+            entries.clear();
+        }
+    }
+
+    /** Most cards kept; the least recently read are dropped beyond it. */
+    public static void setCapacity(int max) {
+        if (max < 1)
+            throw new IllegalArgumentException("capacity must be at least 1: " + max);
+        synchronized (lock) {
+            capacity = max;
+            for (Iterator<String> it = entries.keySet().iterator(); entries.size() > capacity;) {
+                it.next();
+                it.remove();
+                evictions++;
+            }
+        }
+    }
+
+    /** Cache counters since startup. */
+    public static final class Stats {
+        /** Reads of cards with a header answered from the cache. */
+        public final long hits;
+        /** Reads of cards with a header that went to the card. */
+        public final long misses;
+        /** Misses where the card had changed since it was cached. */
+        public final long stale;
+        public final long evictions;
+        /** Entries dropped by writes, erases and {@link #clear}. */
+        public final long invalidations;
+        public final int size;
+        public final int capacity;
+
+        Stats(long hits, long misses, long stale, long evictions, long invalidations, int size, int capacity) {
+            this.hits = hits;
+            this.misses = misses;
+            this.stale = stale;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+            this.size = size;
+            this.capacity = capacity;
+        }
+
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : hits / (double) lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d (%.1f%% hit) stale=%d evictions=%d invalidations=%d size=%d/%d",
+                    hits, misses, 100 * hitRate(), stale, evictions, invalidations, size, capacity);
+        }
+    }
+
+    public static Stats stats() {
+        synchronized (lock) {
+            return new Stats(hits, misses, stale, evictions, invalidations, entries.size(), capacity);
+        }
+    }
+
+    /** UIDs as the reader (11223344) and the writer (11:22:33:44) format them map to one key. */
+    private static String key(String uid) {
+        return uid == null ? "" : uid.replaceAll("[^0-9A-Fa-f]", "").toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,262 @@
+package nfc;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Drops repeat taps of the same card within a time window, one table per
+ * use (attendance, form auto-fill, info desk) so a tap counted by one does
+ * not hide the card from another.
+ *
+ * Each table is a fixed array of slots (open addressing, linear probing
+ * over at most {@link #MAX_PROBE} slots) keyed by the UID bytes packed into
+ * two longs, with the time each entry's window ends. Expired entries are
+ * reused in place, and when every slot a UID can go to is still within its
+ * window the one closest to expiry is dropped, so memory stays fixed however
+ * many cards an event sees.
+ *
+ * Windows come from debounce.txt in the working directory (lines like
+ * attendance=30000, in milliseconds) or {@link #setWindow}; the defaults are
+ * those of {@link Use}.
+ */
+public final class CardDebounce {
+
+    public static final String WINDOWS_FILE = "debounce.txt";
+    public static final int DEFAULT_CAPACITY = 1024;
+    /** Slots looked at for one UID. */
+    static final int MAX_PROBE = 16;
+
+    public enum Use {
+        /** A participant tapping twice at the attendance desk. */
+        ATTENDANCE(30_000),
+        /** The same card put down again on the entry form. */
+        AUTOFILL(5_000),
+        /** A card held on the reader at the info desk. */
+        INFO(500);
+
+        final long defaultMs;
+
+        Use(long defaultMs) {
+            this.defaultMs = defaultMs;
+        }
+    }
+
+    private static final Map<Use, CardDebounce> TABLES = new EnumMap<>(Use.class);
+    static {
+        Map<String, Long> configured = loadWindows();
+        for (Use u : Use.values()) {
+            Long ms = configured.get(u.name());
+            TABLES.put(u, new CardDebounce(DEFAULT_CAPACITY, ms != null && ms >= 0 ? ms : u.defaultMs));
+        }
+    }
+
+    // slots, guarded by this: k1 == 0 = never used (k1 carries the UID length, never 0 in use)
+    private final long[] k0;
+    private final long[] k1;
+    private final long[] until; // System.nanoTime() at which the entry's window ends
+    private final int mask;
+    private long windowNanos;
+
+    // counters, guarded by this
+    private long accepted;
+    private long dropped;
+    private long evictions;
+
+    /** A table of its own; capacity is rounded up to a power of two. */
+    public CardDebounce(int capacity, long windowMs) {
+        int n = Integer.highestOneBit(Math.max(MAX_PROBE, capacity - 1)) << 1;
+        this.k0 = new long[n];
+        this.k1 = new long[n];
+        this.until = new long[n];
+        this.mask = n - 1;
+        setWindow(windowMs);
+    }
+
+    /** The station's table for use. */
+    public static CardDebounce of(Use use) {
+        return TABLES.get(use);
+    }
+
+    public synchronized void setWindow(long windowMs) {
+        if (windowMs < 0)
+            throw new IllegalArgumentException("window must not be negative: " + windowMs);
+        this.windowNanos = windowMs * 1_000_000L;
+    }
+
+    public synchronized long windowMs() {
+        return windowNanos / 1_000_000L;
+    }
+
+    /**
+     * True for the first tap of uid (hex, any separators) in a window, which
+     * starts the window; false for repeats until it ends. UIDs that cannot
+     * be keyed (none, or over 15 bytes) are always accepted.
+     */
+    public boolean accept(String uid) {
+        long[] key = pack(uid);
+        return key == null || accept(key[0], key[1], System.nanoTime());
+    }
+
+    /** As {@link #accept(String)} for the raw UID bytes. */
+    public boolean accept(byte[] uid) {
+        long[] key = pack(uid);
+        return key == null || accept(key[0], key[1], System.nanoTime());
+    }
+
+    /** End uid's window now (e.g. its tap could not be handled), so the next tap counts. */
+    public synchronized void forget(String uid) {
+        long[] key = pack(uid);
+        if (key == null)
+            return;
+        int s = find(key[0], key[1]);
+        if (s >= 0)
+            until[s] = System.nanoTime();
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(k0, 0);
+        Arrays.fill(k1, 0);
+        Arrays.fill(until, 0);
+    }
+
+    /** Cards currently within their window. */
+    public synchronized int size() {
+        long now = System.nanoTime();
+        int n = 0;
+        for (int s = 0; s <= mask; s++)
+            if (k1[s] != 0 && until[s] - now > 0)
+                n++;
+        return n;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("window=%d ms accepted=%d dropped=%d evictions=%d capacity=%d", windowMs(), accepted,
+                dropped, evictions, capacity());
+    }
+
+    synchronized boolean accept(long a, long b, long now) {
+        int home = slot(a, b);
+        int free = -1;
+        int soonest = -1;
+        for (int i = 0; i < MAX_PROBE; i++) {
+            int s = (home + i) & mask;
+            if (k1[s] == 0) {
+                if (free < 0)
+                    free = s;
+                break; // nothing placed from home was ever put past an unused slot
+            }
+            if (k0[s] == a && k1[s] == b) {
+                if (until[s] - now > 0) {
+                    dropped++;
+                    return false;
+                }
+                until[s] = now + windowNanos;
+                accepted++;
+                return true;
+            }
+            if (until[s] - now <= 0) {
+                if (free < 0)
+                    free = s;
+            } else if (soonest < 0 || until[s] - until[soonest] < 0) {
+                soonest = s;
+            }
+        }
+        if (free < 0) {
+            free = soonest;
+            evictions++;
+        }
+        k0[free] = a;
+        k1[free] = b;
+        until[free] = now + windowNanos;
+        accepted++;
+        return true;
+    }
+
+    // caller holds this
+    private int find(long a, long b) {
+        int home = slot(a, b);
+        for (int i = 0; i < MAX_PROBE; i++) {
+            int s = (home + i) & mask;
+            if (k1[s] == 0)
+                return -1;
+            if (k0[s] == a && k1[s] == b)
+                return s;
+        }
+        return -1;
+    }
+
+    private int slot(long a, long b) {
+        long h = a * 0x9E3779B97F4A7C15L ^ b * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Bytes 0-7 of the UID big-endian in the first long; bytes 8-14 and the
+     * length in the top byte of the second. Null for no UID or over 15 bytes.
+     */
+    static long[] pack(byte[] uid) {
+        if (uid == null || uid.length == 0 || uid.length > 15)
+            return null;
+        long a = 0, b = 0;
+        for (int i = 0; i < uid.length; i++) {
+            if (i < 8)
+                a = a << 8 | (uid[i] & 0xFF);
+            else
+                b = b << 8 | (uid[i] & 0xFF);
+        }
+        return new long[] { a, b | (long) uid.length << 56 };
+    }
+
+    /** As {@link #pack(byte[])} from hex, ignoring separators. */
+    static long[] pack(String uid) {
+        if (uid == null)
+            return null;
+        long a = 0, b = 0;
+        int digits = 0;
+        for (int i = 0; i < uid.length(); i++) {
+            int d = Character.digit(uid.charAt(i), 16);
+            if (d < 0)
+                continue;
+            if (digits >= 30)
+                return null;
+            if (digits < 16)
+                a = a << 4 | d;
+            else
+                b = b << 4 | d;
+            digits++;
+        }
+        if (digits == 0 || digits % 2 != 0)
+            return null;
+        return new long[] { a, b | (long) (digits / 2) << 56 };
+    }
+
+    private static Map<String, Long> loadWindows() {
+        Map<String, Long> out = new HashMap<>();
+        try {
+            Path p = Paths.get(WINDOWS_FILE);
+            if (Files.exists(p)) {
+                for (String line : Files.readAllLines(p)) {
+                    String l = line.replaceAll("#.*", "").trim();
+                    if (l.isEmpty())
+                        continue;
+                    String[] kv = l.split("=", 2);
+                    try {
+                        out.put(kv[0].trim().toUpperCase(Locale.ROOT), Long.parseLong(kv[1].trim()));
+                    } catch (RuntimeException ex) {
+                        System.err.println("CardDebounce: ignoring bad line in " + WINDOWS_FILE + ": " + line);
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            System.err.println("CardDebounce: could not read " + WINDOWS_FILE + ": " + ex.getMessage());
+        }
+        return out;
+    }
+}
@@ -0,0 +1,70 @@
+package nfc;
+
+import java.util.*;
+
+/**
+ * Value codes for the repeated participant enumerations stored on cards
+ * (participation type, state, rank/section). Lookups ignore case; a coded
+ * value decodes in the spelling of this table.
+ *
+ * Only built-in codes are written, and they never change, so a card means
+ * the same thing at every station. Values without one are stored on the
+ * card as text. Codes this table does not hold (never written by this
+ * build) decode as {@link #unknown}, never as an empty field.
+ */
+public final class CardDictionary {
+
+    private static final CardDictionary SHARED = new CardDictionary();
+
+    private final Map<Integer, Map<String, Integer>> codes = new HashMap<>();
+    private final Map<Integer, Map<Integer, String>> values = new HashMap<>();
+
+    private CardDictionary() {
+        builtIn(ParticipantCodec.PARTICIPATION_TYPE, "guide", "scout", "ranger", "rover", "cub", "bulbul");
+        builtIn(ParticipantCodec.RANK_OR_SECTION, "guide", "scout", "ranger", "rover", "cub", "bulbul");
+        builtIn(ParticipantCodec.STATE,
+                "Andhra Pradesh", "Arunachal Pradesh", "Assam", "Bihar", "Chhattisgarh", "Goa", "Gujarat",
+                "Haryana", "Himachal Pradesh", "Jharkhand", "Karnataka", "Kerala", "Madhya Pradesh",
+                "Maharashtra", "Manipur", "Meghalaya", "Mizoram", "Nagaland", "Odisha", "Punjab", "Rajasthan",
+                "Sikkim", "Tamil Nadu", "Telangana", "Tripura", "Uttar Pradesh", "Uttarakhand", "West Bengal",
+                "Andaman and Nicobar Islands", "Chandigarh", "Dadra and Nagar Haveli and Daman and Diu", "Delhi",
+                "Jammu and Kashmir", "Ladakh", "Lakshadweep", "Puducherry");
+    }
+
+    public static CardDictionary shared() {
+        return SHARED;
+    }
+
+    /** True for the fields that are dictionary-coded on cards. */
+    public static boolean isCoded(int field) {
+        return field == ParticipantCodec.PARTICIPATION_TYPE || field == ParticipantCodec.STATE
+                || field == ParticipantCodec.RANK_OR_SECTION;
+    }
+
+    /** Code for value, or 0 if it has none. */
+    public synchronized int code(int field, String value) {
+        Map<String, Integer> m = codes.get(field);
+        Integer c = m == null ? null : m.get(value.toLowerCase(Locale.ROOT));
+        return c == null ? 0 : c;
+    }
+
+    /** Value for code, or null if it is not a built-in code. */
+    public synchronized String value(int field, int code) {
+        Map<Integer, String> m = values.get(field);
+        return m == null ? null : m.get(code);
+    }
+
+    /** What a code this table does not hold decodes as, so the field is visibly not a real value. */
+    public static String unknown(int code) {
+        return "[unknown code " + code + "]";
+    }
+
+    private void builtIn(int field, String... vals) {
+        Map<String, Integer> m = codes.computeIfAbsent(field, f -> new HashMap<>());
+        Map<Integer, String> v = values.computeIfAbsent(field, f -> new HashMap<>());
+        for (int i = 0; i < vals.length; i++) {
+            m.put(vals[i].toLowerCase(Locale.ROOT), i + 1);
+            v.put(i + 1, vals[i]);
+        }
+    }
+}
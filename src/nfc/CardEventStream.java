@@ -0,0 +1,214 @@
+package nfc;
+
+import javax.smartcardio.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Card presence as events, for screens that react to taps.
+ *
+ * One daemon thread ("nfc-card-events") blocks in
+ * {@link CardTerminals#waitForChange} on every reader at once and, when it
+ * returns, publishes {@link Type#CARD_REMOVED} for cards that went away and
+ * {@link Type#CARD_PRESENT} with the UID (one GET UID on a short connection)
+ * for cards that arrived. Nothing runs while no card moves, and a tap is
+ * seen as soon as PC/SC reports it instead of at the next poll.
+ *
+ * Subscribers are called on the event thread in subscription order and
+ * must hand anything slow (reading the card's data, UI updates) to another
+ * thread. Cards already on a reader when the thread starts are published
+ * as present. The thread starts with the first subscriber and runs for the
+ * life of the application.
+ */
+public final class CardEventStream {
+
+    /** Longest wait before the readers are looked at again without a change. */
+    public static final long WAIT_MS = 2000;
+    private static final long RETRY_MS = 1000;
+
+    public enum Type {
+        CARD_PRESENT, CARD_REMOVED
+    }
+
+    public static final class CardEvent {
+        public final Type type;
+        public final CardTerminal terminal;
+        public final String reader;
+        /** Upper-case hex without separators, as {@link SmartMifareReader} returns it. */
+        public final String uid;
+        /** System.nanoTime() when the change was seen. */
+        public final long nanos;
+
+        CardEvent(Type type, CardTerminal terminal, String uid, long nanos) {
+            this.type = type;
+            this.terminal = terminal;
+            this.reader = terminal.getName();
+            this.uid = uid;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + uid + " on " + reader;
+        }
+    }
+
+    /** Returned by {@link #subscribe}; close to stop receiving events. */
+    public interface Subscription extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final List<Consumer<CardEvent>> subscribers = new CopyOnWriteArrayList<>();
+    private static final Map<String, CardEvent> present = new ConcurrentHashMap<>(); // reader -> its PRESENT event
+    private static Thread thread; // guarded by CardEventStream.class
+    private static volatile long published;
+
+    private CardEventStream() {
+    }
+
+    public static Subscription subscribe(Consumer<CardEvent> subscriber) {
+        Objects.requireNonNull(subscriber);
+        subscribers.add(subscriber);
+        start();
+        return () -> subscribers.remove(subscriber);
+    }
+
+    /** UID of the card on each reader that has one, as last published. */
+    public static Map<String, String> present() {
+        Map<String, String> out = new HashMap<>();
+        for (CardEvent e : present.values())
+            out.put(e.reader, e.uid);
+        return out;
+    }
+
+    /** Events published since startup. */
+    public static long published() {
+        return published;
+    }
+
+    private static synchronized void start() {
+        if (thread != null)
+            return;
+        thread = new Thread(CardEventStream::run, "nfc-card-events");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void run() {
+        CardTerminals terminals = null;
+        while (true) {
+            try {
+                if (terminals == null) {
+                    terminals = ReaderSession.newCardTerminals();
+                    scan(terminals, Collections.emptyList(), Collections.emptyList());
+                }
+                if (terminals.waitForChange(WAIT_MS))
+                    scan(terminals, terminals.list(CardTerminals.State.CARD_REMOVAL),
+                            terminals.list(CardTerminals.State.CARD_INSERTION));
+                else
+                    scan(terminals, Collections.emptyList(), Collections.emptyList());
+            } catch (Exception ex) {
+                // no PC/SC service, no readers to wait on, or the context went away
+                terminals = null;
+                try {
+                    Thread.sleep(RETRY_MS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Publish what changed: removals first, so a card swapped for another
+     * between two waits reads as removed then present.
+     */
+    private static void scan(CardTerminals terminals, List<CardTerminal> removed, List<CardTerminal> inserted)
+            throws CardException {
+        long now = System.nanoTime();
+        List<CardTerminal> all = terminals.list();
+        Set<String> names = new HashSet<>();
+        for (CardTerminal t : all) {
+            String name = t.getName();
+            names.add(name);
+            boolean on = t.isCardPresent();
+            CardEvent known = present.get(name);
+            String uid = null;
+            if (known != null && on && !contains(removed, t) && contains(inserted, t)) {
+                // insertion without a removal: the card we already published, or one swapped in unseen
+                uid = readUid(t);
+                if (known.uid.equals(uid))
+                    continue;
+            }
+            if (known != null && (!on || contains(removed, t) || uid != null)) {
+                present.remove(name);
+                publish(new CardEvent(Type.CARD_REMOVED, t, known.uid, now));
+                known = null;
+            }
+            if (on && known == null) {
+                if (uid == null)
+                    uid = readUid(t);
+                if (uid != null) {
+                    CardEvent e = new CardEvent(Type.CARD_PRESENT, t, uid, now);
+                    present.put(name, e);
+                    publish(e);
+                }
+            }
+        }
+        // readers unplugged with a card on them
+        for (Iterator<CardEvent> it = present.values().iterator(); it.hasNext();) {
+            CardEvent e = it.next();
+            if (!names.contains(e.reader)) {
+                it.remove();
+                publish(new CardEvent(Type.CARD_REMOVED, e.terminal, e.uid, now));
+            }
+        }
+    }
+
+    private static boolean contains(List<CardTerminal> list, CardTerminal t) {
+        for (CardTerminal x : list)
+            if (x.getName().equals(t.getName()))
+                return true;
+        return false;
+    }
+
+    /** UID of the card on t, or null if it went away before it could be read. */
+    private static String readUid(CardTerminal t) {
+        Card card = null;
+        try {
+            card = t.connect("*");
+            CardChannel channel = ApduTrace.wrap(card.getBasicChannel());
+            ResponseAPDU r = channel
+                    .transmit(new CommandAPDU(new byte[] { (byte) 0xFF, (byte) 0xCA, 0x00, 0x00, 0x00 }));
+            if (r.getSW() != 0x9000 || r.getData().length == 0)
+                return null;
+            StringBuilder sb = new StringBuilder();
+            for (byte b : r.getData())
+                sb.append(String.format("%02X", b));
+            return sb.toString();
+        } catch (CardException ex) {
+            return null;
+        } finally {
+            if (card != null) {
+                try {
+                    card.disconnect(false);
+                } catch (Exception ignored) {
+                }
+            }
+        }
+    }
+
+    private static void publish(CardEvent e) {
+        published++;
+        for (Consumer<CardEvent> s : subscribers) {
+            try {
+                s.accept(e);
+            } catch (RuntimeException ex) {
+                System.err.println("CardEventStream: subscriber failed on " + e + ": " + ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package nfc;
+
+import javax.smartcardio.*;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * On-card layout for participant data.
+ *
+ * Block 1 (sector 0) holds a 16-byte header:
+ *
+ * <pre>
+ *  0-1   magic 'A' 'F'
+ *  2     format version (1)
+ *  3     payload encoding (0 = UTF-8 text, 1 = {@link ParticipantCodec})
+ *  4-5   payload length in bytes (big-endian)
+ *  6-9   CRC32 of the payload (big-endian)
+ *  10-13 write stamp (big-endian)
+ *  14-15 sector mask: bit s set = sector s holds payload (big-endian)
+ * </pre>
+ *
+ * The payload fills the data blocks (not trailers) of the sectors in the
+ * mask, in order, zero-padded to a whole block. Sectors the writer cannot
+ * authenticate are left out of the mask, so the reader reads exactly the
+ * blocks that hold data and verifies them against the CRC.
+ *
+ * The stamp changes whenever a writer or eraser changes the header, so
+ * block 1 alone tells whether a card still holds what was last read from
+ * it ({@link CardCache}). Cards written before stamps were added carry 0.
+ *
+ * Cards written before this layout have no magic in block 1; readers fall
+ * back to probing every sector for printable text.
+ */
+public final class CardLayout {
+
+    public static final int HEADER_BLOCK = 1;
+    public static final int VERSION = 1;
+    public static final int ENCODING_UTF8 = 0;
+    public static final int ENCODING_PARTICIPANT = 1;
+    public static final int BLOCK_SIZE = 16;
+    /** Payload bytes that fit in sectors 1..15. */
+    public static final int MAX_PAYLOAD = 15 * 3 * BLOCK_SIZE;
+
+    private static final byte MAGIC_0 = 'A';
+    private static final byte MAGIC_1 = 'F';
+    private static final SecureRandom STAMPS = new SecureRandom();
+
+    private CardLayout() {
+    }
+
+    /** Parsed block-1 header. */
+    public static final class Header {
+        public final int version;
+        public final int encoding;
+        public final int length;
+        public final long crc;
+        public final long stamp;
+        public final int sectorMask;
+
+        Header(int version, int encoding, int length, long crc, long stamp, int sectorMask) {
+            this.version = version;
+            this.encoding = encoding;
+            this.length = length;
+            this.crc = crc;
+            this.stamp = stamp;
+            this.sectorMask = sectorMask;
+        }
+
+        /** Data blocks holding the payload, in order. */
+        public List<Integer> blocks() {
+            return dataBlocks(sectorMask, blockCount(length));
+        }
+    }
+
+    /** Header and verified payload read from a card. */
+    public static final class Payload {
+        public final Header header;
+        public final byte[] bytes;
+
+        Payload(Header header, byte[] bytes) {
+            this.header = header;
+            this.bytes = bytes;
+        }
+
+        public String text() {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /** Participant fields, whichever encoding the card uses. */
+        public String[] fields() {
+            return ParticipantCodec.decode(bytes, header.encoding);
+        }
+    }
+
+    public static int blockCount(int payloadLength) {
+        return Math.max(1, (payloadLength + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    }
+
+    /** First count data blocks of the sectors in mask (sectors 1..15). */
+    public static List<Integer> dataBlocks(int sectorMask, int count) {
+        List<Integer> out = new ArrayList<>(count);
+        for (int sector = 1; sector < 16 && out.size() < count; sector++) {
+            if ((sectorMask & (1 << sector)) == 0)
+                continue;
+            for (int b = sector * 4; b < sector * 4 + 3 && out.size() < count; b++)
+                out.add(b);
+        }
+        return out;
+    }
+
+    public static long crc32(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    /**
+     * Stamp for a header replacing old: the next one after old's, or a
+     * random one for a card without a header, so a card erased in full and
+     * written again does not repeat the stamps it had.
+     */
+    public static long nextStamp(Header old) {
+        if (old == null)
+            return STAMPS.nextInt() & 0xFFFFFFFFL;
+        return (old.stamp + 1) & 0xFFFFFFFFL;
+    }
+
+    /** Build the 16-byte header block. */
+    public static byte[] header(int encoding, byte[] payload, int sectorMask, long stamp) {
+        if (payload.length > 0xFFFF)
+            throw new IllegalArgumentException("payload too large: " + payload.length);
+        long crc = crc32(payload);
+        byte[] h = new byte[BLOCK_SIZE];
+        h[0] = MAGIC_0;
+        h[1] = MAGIC_1;
+        h[2] = (byte) VERSION;
+        h[3] = (byte) encoding;
+        h[4] = (byte) (payload.length >>> 8);
+        h[5] = (byte) payload.length;
+        h[6] = (byte) (crc >>> 24);
+        h[7] = (byte) (crc >>> 16);
+        h[8] = (byte) (crc >>> 8);
+        h[9] = (byte) crc;
+        h[10] = (byte) (stamp >>> 24);
+        h[11] = (byte) (stamp >>> 16);
+        h[12] = (byte) (stamp >>> 8);
+        h[13] = (byte) stamp;
+        h[14] = (byte) (sectorMask >>> 8);
+        h[15] = (byte) sectorMask;
+        return h;
+    }
+
+    /** Parse a header block; null if it does not carry the magic. */
+    public static Header parseHeader(byte[] block) {
+        if (block == null || block.length < BLOCK_SIZE || block[0] != MAGIC_0 || block[1] != MAGIC_1)
+            return null;
+        int length = ((block[4] & 0xFF) << 8) | (block[5] & 0xFF);
+        long crc = ((block[6] & 0xFFL) << 24) | ((block[7] & 0xFFL) << 16) | ((block[8] & 0xFFL) << 8)
+                | (block[9] & 0xFFL);
+        long stamp = ((block[10] & 0xFFL) << 24) | ((block[11] & 0xFFL) << 16) | ((block[12] & 0xFFL) << 8)
+                | (block[13] & 0xFFL);
+        int mask = ((block[14] & 0xFF) << 8) | (block[15] & 0xFF);
+        return new Header(block[2] & 0xFF, block[3] & 0xFF, length, crc, stamp, mask);
+    }
+
+    /**
+     * Read the header and then only the payload blocks, authenticating each
+     * sector once. Returns null if the card has no header (legacy layout).
+     *
+     * @throws Exception if a block cannot be read or the CRC does not match
+     */
+    public static Payload read(CardChannel channel, MifareKeyManager keys) throws Exception {
+        if (keys.authenticate(channel, HEADER_BLOCK) == null)
+            return null;
+        return read(channel, keys, readBlock(channel, HEADER_BLOCK));
+    }
+
+    /** As {@link #read(CardChannel, MifareKeyManager)}, with block 1 already read. */
+    public static Payload read(CardChannel channel, MifareKeyManager keys, byte[] headerBlock) throws Exception {
+        return read(channel, keys, headerBlock, false);
+    }
+
+    /**
+     * As {@link #read(CardChannel, MifareKeyManager, byte[])}; with multiRead
+     * each sector's payload blocks are fetched by one READ BINARY, falling
+     * back to block by block for the rest of the card if the reader rejects
+     * that.
+     */
+    public static Payload read(CardChannel channel, MifareKeyManager keys, byte[] headerBlock, boolean multiRead)
+            throws Exception {
+        Header h = parseHeader(headerBlock);
+        if (h == null)
+            return null;
+        if (h.version != VERSION)
+            throw new Exception("Unsupported card format version " + h.version);
+
+        List<Integer> blocks = h.blocks();
+        if (blocks.size() * BLOCK_SIZE < h.length)
+            throw new Exception("Card header claims " + h.length + " bytes in too few sectors");
+        byte[] buf = new byte[blocks.size() * BLOCK_SIZE];
+        for (int i = 0; i < blocks.size();) {
+            int first = blocks.get(i);
+            int n = 1; // payload blocks of this sector (consecutive)
+            while (i + n < blocks.size() && blocks.get(i + n) / 4 == first / 4)
+                n++;
+            if (keys.authenticate(channel, first) == null)
+                throw new Exception("Cannot authenticate sector " + (first / 4));
+            byte[] span = multiRead && n > 1 ? readBlocks(channel, first, n) : null;
+            if (span != null) {
+                System.arraycopy(span, 0, buf, i * BLOCK_SIZE, n * BLOCK_SIZE);
+            } else {
+                if (multiRead && n > 1) {
+                    // some readers drop the authentication on the rejected read
+                    multiRead = false;
+                    if (keys.authenticate(channel, first) == null)
+                        throw new Exception("Cannot authenticate sector " + (first / 4));
+                }
+                for (int k = 0; k < n; k++) {
+                    byte[] data = readBlock(channel, first + k);
+                    if (data == null || data.length < BLOCK_SIZE)
+                        throw new Exception("Cannot read block " + (first + k));
+                    System.arraycopy(data, 0, buf, (i + k) * BLOCK_SIZE, BLOCK_SIZE);
+                }
+            }
+            i += n;
+        }
+        byte[] payload = Arrays.copyOf(buf, h.length);
+        if (crc32(payload) != h.crc)
+            throw new Exception("Card data CRC mismatch");
+        return new Payload(h, payload);
+    }
+
+    /**
+     * count consecutive blocks of one sector in a single READ BINARY, or null
+     * if the reader does not support multi-block reads (the sector may then
+     * need authenticating again).
+     */
+    static byte[] readBlocks(CardChannel channel, int first, int count) {
+        try {
+            byte[] apdu = new byte[] { (byte) 0xFF, (byte) 0xB0, 0x00, (byte) first, (byte) (BLOCK_SIZE * count) };
+            ResponseAPDU resp = channel.transmit(new CommandAPDU(apdu));
+            if (resp.getSW() == 0x9000 && resp.getData().length == BLOCK_SIZE * count)
+                return resp.getData();
+            return null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    static byte[] readBlock(CardChannel channel, int block) {
+        try {
+            byte[] apdu = new byte[] { (byte) 0xFF, (byte) 0xB0, 0x00, (byte) block, 0x10 };
+            ResponseAPDU resp = channel.transmit(new CommandAPDU(apdu));
+            if (resp.getSW() == 0x9000)
+                return resp.getData();
+            return null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package nfc;
+
+import javax.smartcardio.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the candidate MIFARE keys loaded in the reader's key slots.
+ *
+ * PC/SC readers such as the ACR122U hold keys in volatile slots (0x00 and
+ * 0x01) that survive from one card to the next, so each key is loaded (FF 82)
+ * once per reader connection and the hot paths only send authenticate, read
+ * and write APDUs. Candidate keys are the common transport keys
+ * (FFFFFFFFFFFF, 000000000000) followed by the site keys from keys.txt in
+ * the working directory (one 12-digit hex key per line, '#' comments).
+ *
+ * With more keys than slots, the first keys stay pinned and the last slot is
+ * reloaded on demand. The key/type that last authenticated is tried first,
+ * since the cards of one event are usually keyed the same way.
+ *
+ * If no key authenticates and none has since the keys were loaded, the
+ * slots may have been lost (reader replugged or reset), so the keys are
+ * loaded again and the authentication retried once.
+ */
+public final class MifareKeyManager {
+
+    public static final int DEFAULT_SLOTS = 2;
+    public static final String SITE_KEYS_FILE = "keys.txt";
+
+    static final byte KEY_A = 0x60;
+    static final byte KEY_B = 0x61;
+
+    private static final byte[][] COMMON_KEYS = new byte[][] {
+            hex("FFFFFFFFFFFF"),
+            hex("000000000000"),
+    };
+
+    private static final Map<String, MifareKeyManager> BY_READER = new ConcurrentHashMap<>();
+
+    /** Key and type that authenticated a sector. */
+    public static final class KeyRef {
+        public final byte[] key;
+        public final byte keyType; // 0x60 (A) or 0x61 (B)
+
+        KeyRef(byte[] key, byte keyType) {
+            this.key = key;
+            this.keyType = keyType;
+        }
+    }
+
+    private final List<byte[]> keys;
+    private final byte[][] slotKey; // key currently in each slot, null = unknown
+    private boolean verified; // a preloaded key has authenticated since the last load
+    private int hintKey = 0;
+    private byte hintType = KEY_A;
+    private long loadApdus;
+
+    public MifareKeyManager(List<byte[]> keys, int slots) {
+        if (keys.isEmpty())
+            throw new IllegalArgumentException("no keys");
+        this.keys = new ArrayList<>(keys);
+        this.slotKey = new byte[Math.max(1, slots)][];
+    }
+
+    /** Shared manager for a reader, keyed by its name. */
+    public static MifareKeyManager forTerminal(CardTerminal terminal) {
+        return forReader(terminal == null ? "" : terminal.getName());
+    }
+
+    /** Shared manager for a reader name; "" is used when the reader is unknown. */
+    public static MifareKeyManager forReader(String readerName) {
+        return BY_READER.computeIfAbsent(readerName,
+                n -> new MifareKeyManager(configuredKeys(), DEFAULT_SLOTS));
+    }
+
+    /** Common transport keys followed by the site keys from keys.txt. */
+    public static List<byte[]> configuredKeys() {
+        List<byte[]> out = new ArrayList<>(Arrays.asList(COMMON_KEYS));
+        try {
+            Path p = Paths.get(SITE_KEYS_FILE);
+            if (Files.exists(p)) {
+                for (String line : Files.readAllLines(p)) {
+                    String k = line.replaceAll("#.*", "").replaceAll("[^0-9A-Fa-f]", "");
+                    if (k.length() != 12) {
+                        if (!k.isEmpty())
+                            System.err.println("MifareKeyManager: ignoring bad key in " + SITE_KEYS_FILE);
+                        continue;
+                    }
+                    byte[] key = hex(k);
+                    boolean dup = false;
+                    for (byte[] e : out)
+                        dup |= Arrays.equals(e, key);
+                    if (!dup)
+                        out.add(key);
+                }
+            }
+        } catch (Exception ex) {
+            System.err.println("MifareKeyManager: could not read " + SITE_KEYS_FILE + ": " + ex.getMessage());
+        }
+        return out;
+    }
+
+    /**
+     * Authenticate the sector of block with the first candidate key that
+     * works as A or B. Returns null if none does.
+     */
+    public synchronized KeyRef authenticate(CardChannel channel, int block) {
+        KeyRef ref = tryAll(channel, block);
+        if (ref == null && !verified) {
+            invalidate();
+            ref = tryAll(channel, block);
+        }
+        return ref;
+    }
+
+    /** Forget what the slots hold; keys are loaded again on next use. */
+    public synchronized void invalidate() {
+        Arrays.fill(slotKey, null);
+        verified = false;
+    }
+
+    /** Number of FF 82 (load key) APDUs sent so far. */
+    public synchronized long loadApdus() {
+        return loadApdus;
+    }
+
+    private KeyRef tryAll(CardChannel channel, int block) {
+        // last successful key/type first, then every key as A and B
+        KeyRef ref = tryKey(channel, block, hintKey, hintType);
+        if (ref != null)
+            return ref;
+        for (int k = 0; k < keys.size(); k++) {
+            for (byte type : new byte[] { KEY_A, KEY_B }) {
+                if (k == hintKey && type == hintType)
+                    continue;
+                ref = tryKey(channel, block, k, type);
+                if (ref != null)
+                    return ref;
+            }
+        }
+        return null;
+    }
+
+    private KeyRef tryKey(CardChannel channel, int block, int k, byte type) {
+        int slot = ensureLoaded(channel, k);
+        if (slot < 0)
+            return null;
+        if (!auth(channel, block, type, slot))
+            return null;
+        verified = true;
+        hintKey = k;
+        hintType = type;
+        return new KeyRef(keys.get(k), type);
+    }
+
+    /** Slot holding key k, loading it first if needed; -1 if the load failed. */
+    private int ensureLoaded(CardChannel channel, int k) {
+        byte[] key = keys.get(k);
+        int slot = Math.min(k, slotKey.length - 1);
+        if (slotKey[slot] == key)
+            return slot;
+        slotKey[slot] = null;
+        loadApdus++;
+        if (!loadKey(channel, slot, key))
+            return -1;
+        slotKey[slot] = key;
+        return slot;
+    }
+
+    private static boolean loadKey(CardChannel c, int slot, byte[] key) {
+        try {
+            byte[] apdu = new byte[11];
+            apdu[0] = (byte) 0xFF;
+            apdu[1] = (byte) 0x82;
+            apdu[2] = 0x00;
+            apdu[3] = (byte) slot;
+            apdu[4] = 0x06;
+            System.arraycopy(key, 0, apdu, 5, 6);
+            ResponseAPDU r = c.transmit(new CommandAPDU(apdu));
+            return r.getSW() == 0x9000;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static boolean auth(CardChannel c, int block, byte type, int slot) {
+        try {
+            byte[] apdu = new byte[] { (byte) 0xFF, (byte) 0x86, 0x00, 0x00, 0x05, 0x01, 0x00, (byte) block, type,
+                    (byte) slot };
+            ResponseAPDU r = c.transmit(new CommandAPDU(apdu));
+            return r.getSW() == 0x9000;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static byte[] hex(String s) {
+        s = s.replaceAll("[^0-9A-Fa-f]", "");
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++)
+            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        return out;
+    }
+}
@@ -0,0 +1,97 @@
+package nfc;
+
+import javax.smartcardio.CardException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * The station's NFC work, as typed jobs on {@link ReaderPool#shared()}.
+ *
+ * Screens submit what they want done with the next card instead of opening
+ * readers themselves, so a write from the entry form, an erase and the
+ * auto-fill of a card just tapped never fight over a reader: the pool runs
+ * them one at a time per card, highest priority first (see
+ * {@link ReaderPool.JobType}).
+ *
+ * Each call returns at once with the job's ticket; {@link #await} blocks for
+ * its result. Timeouts count from submission and fail a job no reader has
+ * taken with a TimeoutException.
+ */
+public final class NfcService {
+
+    /** How long an auto-fill read waits for its reader before giving up on the tap. */
+    public static final long AUTOFILL_TIMEOUT_MS = 2000;
+
+    private NfcService() {
+    }
+
+    /** Write participant fields to the next card presented on any reader. */
+    public static ReaderPool.Ticket<SmartMifareWriter.WriteResult> write(String[] fields, long timeoutMs)
+            throws CardException {
+        return ReaderPool.shared().submit(ReaderPool.JobType.WRITE, null, timeoutMs,
+                (channel, keys, terminal) -> SmartMifareWriter.writeParticipantOnChannel(channel, fields, keys));
+    }
+
+    /** Erase the next card presented on any reader. */
+    public static ReaderPool.Ticket<Void> erase(SmartMifareEraser.EraseMode mode, long timeoutMs)
+            throws CardException {
+        return ReaderPool.shared().submit(ReaderPool.JobType.ERASE, null, timeoutMs, (channel, keys, terminal) -> {
+            SmartMifareEraser.eraseOnChannel(channel, keys, mode);
+            return null;
+        });
+    }
+
+    /** UID and data of the next card presented on any reader (info desk). */
+    public static ReaderPool.Ticket<SmartMifareReader.ReadResult> readInfo(long timeoutMs) throws CardException {
+        return ReaderPool.shared().submit(ReaderPool.JobType.READ_INFO, null, timeoutMs,
+                (channel, keys, terminal) -> SmartMifareReader.readOnChannel(channel, keys));
+    }
+
+    /**
+     * Data of the card ev reported, read on the reader it arrived on. The
+     * result is null if another card is on that reader by the time it runs;
+     * the job is dropped if a write, erase or info read takes the card first.
+     */
+    public static ReaderPool.Ticket<SmartMifareReader.ReadResult> autofillRead(CardEventStream.CardEvent ev)
+            throws CardException {
+        return ReaderPool.shared().submit(ReaderPool.JobType.AUTOFILL_READ, ev.reader, AUTOFILL_TIMEOUT_MS,
+                (channel, keys, terminal) -> {
+                    SmartMifareReader.ReadResult rr = SmartMifareReader.readOnChannel(channel, keys);
+                    return rr != null && ev.uid.equals(rr.uid) ? rr : null;
+                });
+    }
+
+    /**
+     * The next card presented on any reader at the attendance desk. With
+     * known (e.g. {@link ParticipantIndex#get}) a card it has fields for
+     * costs only the UID read.
+     */
+    public static ReaderPool.Ticket<SmartMifareReader.ReadResult> attendanceRead(
+            Function<String, String[]> known, long timeoutMs) throws CardException {
+        return ReaderPool.shared().submit(ReaderPool.JobType.ATTENDANCE_READ, null, timeoutMs,
+                (channel, keys, terminal) -> known == null
+                        ? SmartMifareReader.readOnChannel(channel, keys)
+                        : SmartMifareReader.readOnChannel(channel, keys, known));
+    }
+
+    /** Queue totals of the shared pool, per job type. */
+    public static List<ReaderPool.QueueStats> stats() throws CardException {
+        return ReaderPool.shared().queueStats();
+    }
+
+    /**
+     * Block until ticket completes and return its result, rethrowing the
+     * job's own failure (or the TimeoutException / CancellationException).
+     */
+    public static <T> T await(ReaderPool.Ticket<T> ticket) throws Exception {
+        try {
+            return ticket.result().get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception e)
+                throw e;
+            throw new Exception(cause);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package nfc;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Binary encoding of a participant's twelve card fields
+ * ({@link CardLayout#ENCODING_PARTICIPANT}), replacing the comma-joined CSV
+ * text, which broke on names containing commas and used more blocks.
+ *
+ * <pre>
+ * version      1 byte (2)
+ * present      varint, bit i set = field i is non-empty
+ * then, for each present field in {@link #FIELD_NAMES} order:
+ *   type/state/rank           varint built-in code ({@link CardDictionary}),
+ *                             or 0 + text
+ *   phoneNumber               varint (digits &lt;&lt; 1 | 1) + packed BCD,
+ *                             or (bytes &lt;&lt; 1) + UTF-8
+ *   dateOfBirth               varint days since 1900-01-01 + 1, or 0 + text
+ *   age                       varint age + 1, or 0 + text
+ *   others                    text
+ * text = varint byte length + UTF-8
+ * </pre>
+ *
+ * Version 1 also wrote district as 0 + text (it has no codes); it is still
+ * decoded.
+ *
+ * Fields are exchanged as a String[12] in {@link #FIELD_NAMES} order, with ""
+ * for empty. Cards written as CSV text (encoding 0, or no header at all) are
+ * decoded by {@link #decodeCsv}.
+ */
+public final class ParticipantCodec {
+
+    public static final int VERSION = 2;
+
+    public static final int NAME = 0;
+    public static final int BSGUID = 1;
+    public static final int PARTICIPATION_TYPE = 2;
+    public static final int DISTRICT = 3;
+    public static final int EMAIL = 4;
+    public static final int PHONE = 5;
+    public static final int STATE = 6;
+    public static final int MEMBER_TYPE = 7;
+    public static final int UNIT = 8;
+    public static final int RANK_OR_SECTION = 9;
+    public static final int DOB = 10;
+    public static final int AGE = 11;
+    public static final int FIELD_COUNT = 12;
+
+    /** ParticipantsRecord column names, in card field order. */
+    public static final List<String> FIELD_NAMES = Collections.unmodifiableList(Arrays.asList(
+            "FullName", "BSGUID", "ParticipationType", "bsgDistrict", "Email", "phoneNumber",
+            "bsgState", "memberType", "unitName", "rank_or_section", "dateOfBirth", "age"));
+
+    // other keys the UI maps use for the same fields
+    private static final String[][] MAP_ALIASES = {
+            { "memberTyp", "memberType" }, { "unitNam", "unitName" }, { "dataOfBirth", "dateOfBirth" } };
+
+    private static final long EPOCH_1900 = LocalDate.of(1900, 1, 1).toEpochDay();
+
+    private ParticipantCodec() {
+    }
+
+    /** Fields from a form/DB row map (accepts memberTyp/unitNam/dataOfBirth). */
+    public static String[] fromMap(Map<String, String> map) {
+        String[] f = new String[FIELD_COUNT];
+        for (int i = 0; i < FIELD_COUNT; i++)
+            f[i] = clean(map.get(FIELD_NAMES.get(i)));
+        for (String[] alias : MAP_ALIASES) {
+            int i = FIELD_NAMES.indexOf(alias[1]);
+            if (f[i].isEmpty())
+                f[i] = clean(map.get(alias[0]));
+        }
+        return f;
+    }
+
+    /** Comma-joined fields, the format cards carried before this codec. */
+    public static String toCsv(String[] fields) {
+        return String.join(",", fields);
+    }
+
+    /** Legacy CSV card text -> fields (missing trailing fields are ""). */
+    public static String[] decodeCsv(String text) {
+        String[] f = new String[FIELD_COUNT];
+        Arrays.fill(f, "");
+        if (text == null)
+            return f;
+        String[] parts = text.split(",", -1);
+        for (int i = 0; i < FIELD_COUNT && i < parts.length; i++)
+            f[i] = parts[i].trim();
+        return f;
+    }
+
+    /** Decode a CardLayout payload of the given encoding. */
+    public static String[] decode(byte[] payload, int encoding) {
+        if (encoding == CardLayout.ENCODING_PARTICIPANT)
+            return decode(payload);
+        return decodeCsv(new String(payload, StandardCharsets.UTF_8));
+    }
+
+    // ---------------- encode ----------------
+
+    public static byte[] encode(String[] fields) {
+        if (fields.length != FIELD_COUNT)
+            throw new IllegalArgumentException("expected " + FIELD_COUNT + " fields, got " + fields.length);
+        CardDictionary dict = CardDictionary.shared();
+        Out out = new Out();
+        out.b(VERSION);
+        int present = 0;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            if (fields[i] != null && !fields[i].trim().isEmpty())
+                present |= 1 << i;
+        }
+        out.varint(present);
+
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            if ((present & (1 << i)) == 0)
+                continue;
+            String v = fields[i].trim();
+            if (CardDictionary.isCoded(i)) {
+                int code = dict.code(i, v);
+                out.varint(code);
+                if (code == 0)
+                    out.text(v);
+            } else if (i == PHONE) {
+                if (v.length() <= 32 && isDigits(v)) {
+                    out.varint((v.length() << 1) | 1);
+                    for (int k = 0; k < v.length(); k += 2) {
+                        int hi = v.charAt(k) - '0';
+                        int lo = k + 1 < v.length() ? v.charAt(k + 1) - '0' : 0xF;
+                        out.b((hi << 4) | lo);
+                    }
+                } else {
+                    out.varint(utf8Length(v) << 1);
+                    out.utf8(v);
+                }
+            } else if (i == DOB) {
+                long days = isoDays(v);
+                out.varint(days < 0 ? 0 : (int) days + 1);
+                if (days < 0)
+                    out.text(v);
+            } else if (i == AGE) {
+                int age = v.length() <= 3 && isDigits(v) ? Integer.parseInt(v) : -1;
+                out.varint(age < 0 ? 0 : age + 1);
+                if (age < 0)
+                    out.text(v);
+            } else {
+                out.text(v);
+            }
+        }
+        return Arrays.copyOf(out.buf, out.len);
+    }
+
+    // ---------------- decode ----------------
+
+    /** Decode a binary payload. */
+    public static String[] decode(byte[] p) {
+        In in = new In(p);
+        int version = in.b();
+        if (version != VERSION && version != 1)
+            throw new IllegalArgumentException("Unsupported participant codec version " + version);
+        CardDictionary dict = CardDictionary.shared();
+        int present = in.varint();
+        String[] f = new String[FIELD_COUNT];
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            if ((present & (1 << i)) == 0) {
+                f[i] = "";
+                continue;
+            }
+            if (CardDictionary.isCoded(i) || (version == 1 && i == DISTRICT)) {
+                int code = in.varint();
+                if (code == 0) {
+                    f[i] = in.text();
+                } else {
+                    String v = dict.value(i, code);
+                    if (v == null) {
+                        System.err.println("ParticipantCodec: unknown " + FIELD_NAMES.get(i) + " code " + code);
+                        v = CardDictionary.unknown(code);
+                    }
+                    f[i] = v;
+                }
+            } else if (i == PHONE) {
+                int tag = in.varint();
+                int n = tag >>> 1;
+                if ((tag & 1) != 0) {
+                    char[] digits = new char[n];
+                    for (int k = 0; k < n; k += 2) {
+                        int b = in.b();
+                        digits[k] = (char) ('0' + (b >>> 4));
+                        if (k + 1 < n)
+                            digits[k + 1] = (char) ('0' + (b & 0xF));
+                    }
+                    f[i] = new String(digits);
+                } else {
+                    f[i] = in.utf8(n);
+                }
+            } else if (i == DOB) {
+                int d = in.varint();
+                f[i] = d == 0 ? in.text() : LocalDate.ofEpochDay(EPOCH_1900 + d - 1).toString();
+            } else if (i == AGE) {
+                int a = in.varint();
+                f[i] = a == 0 ? in.text() : Integer.toString(a - 1);
+            } else {
+                f[i] = in.text();
+            }
+        }
+        return f;
+    }
+
+    // ---------------- helpers ----------------
+
+    private static String clean(String v) {
+        return v == null ? "" : v.trim();
+    }
+
+    private static boolean isDigits(String s) {
+        if (s.isEmpty())
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+        }
+        return true;
+    }
+
+    /** Days since 1900-01-01 for a yyyy-MM-dd date in 1900..2099, else -1. */
+    private static long isoDays(String s) {
+        if (s.length() != 10 || s.charAt(4) != '-' || s.charAt(7) != '-')
+            return -1;
+        String y = s.substring(0, 4), m = s.substring(5, 7), d = s.substring(8, 10);
+        if (!isDigits(y) || !isDigits(m) || !isDigits(d))
+            return -1;
+        int year = Integer.parseInt(y);
+        if (year < 1900 || year > 2099)
+            return -1;
+        try {
+            return LocalDate.of(year, Integer.parseInt(m), Integer.parseInt(d)).toEpochDay() - EPOCH_1900;
+        } catch (java.time.DateTimeException ex) {
+            return -1;
+        }
+    }
+
+    private static int utf8Length(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80)
+                n += 1;
+            else if (c < 0x800)
+                n += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                n += 4;
+                i++;
+            } else
+                n += 3;
+        }
+        return n;
+    }
+
+    /** Growable output buffer; strings are UTF-8 encoded in place. */
+    private static final class Out {
+        byte[] buf = new byte[128];
+        int len;
+
+        void b(int v) {
+            if (len == buf.length)
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            buf[len++] = (byte) v;
+        }
+
+        void varint(int v) {
+            while ((v & ~0x7F) != 0) {
+                b((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            b(v);
+        }
+
+        void text(String s) {
+            varint(utf8Length(s));
+            utf8(s);
+        }
+
+        void utf8(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    b(c);
+                } else if (c < 0x800) {
+                    b(0xC0 | (c >> 6));
+                    b(0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    b(0xF0 | (cp >> 18));
+                    b(0x80 | ((cp >> 12) & 0x3F));
+                    b(0x80 | ((cp >> 6) & 0x3F));
+                    b(0x80 | (cp & 0x3F));
+                } else {
+                    b(0xE0 | (c >> 12));
+                    b(0x80 | ((c >> 6) & 0x3F));
+                    b(0x80 | (c & 0x3F));
+                }
+            }
+        }
+    }
+
+    private static final class In {
+        final byte[] p;
+        int pos;
+
+        In(byte[] p) {
+            this.p = p;
+        }
+
+        int b() {
+            if (pos >= p.length)
+                throw new IllegalArgumentException("Truncated participant payload");
+            return p[pos++] & 0xFF;
+        }
+
+        int varint() {
+            int v = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = b();
+                v |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return v;
+            }
+            throw new IllegalArgumentException("Bad varint in participant payload");
+        }
+
+        String text() {
+            return utf8(varint());
+        }
+
+        String utf8(int n) {
+            if (n < 0 || pos + n > p.length)
+                throw new IllegalArgumentException("Truncated participant payload");
+            String s = new String(p, pos, n, StandardCharsets.UTF_8);
+            pos += n;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package nfc;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Participants by card UID, so a station that only needs to know whose card
+ * was tapped (attendance) can read the UID and skip the card's data.
+ *
+ * Loaded from ParticipantsRecord.CardUID (see AccessDb.loadParticipantIndex)
+ * and kept current with the cards this station issues. Fields are in
+ * {@link ParticipantCodec#FIELD_NAMES} order, as on cards. UIDs are compared
+ * as hex digits only, so the 11:22:33:44 the writer stores and the 11223344
+ * the reader returns are the same card.
+ */
+public final class ParticipantIndex {
+
+    private static final ParticipantIndex SHARED = new ParticipantIndex();
+
+    private volatile Map<String, String[]> byUid = new ConcurrentHashMap<>();
+    // cards erased here: the DB still names their last holder, so reloads leave them out
+    private final Set<String> erased = ConcurrentHashMap.newKeySet();
+    private volatile long loadedAt; // System.currentTimeMillis() of the last load, 0 = never
+
+    private ParticipantIndex() {
+    }
+
+    public static ParticipantIndex shared() {
+        return SHARED;
+    }
+
+    /** Fields of the participant holding the card, or null if it is not in the index. */
+    public String[] get(String uid) {
+        String[] f = byUid.get(key(uid));
+        return f == null ? null : f.clone();
+    }
+
+    /** Record (or move) a card; fields in {@link ParticipantCodec#FIELD_NAMES} order. */
+    public void put(String uid, String[] fields) {
+        String k = key(uid);
+        if (k.isEmpty() || fields == null)
+            return;
+        erased.remove(k);
+        byUid.put(k, Arrays.copyOf(fields, ParticipantCodec.FIELD_NAMES.size()));
+    }
+
+    /**
+     * Forget a card this station erased. Its DB row still carries the UID,
+     * so later {@link #replaceAll} loads leave it out until it is issued
+     * again ({@link #put}).
+     */
+    public void remove(String uid) {
+        String k = key(uid);
+        if (k.isEmpty())
+            return;
+        erased.add(k);
+        byUid.remove(k);
+    }
+
+    /** Replace the whole index with a fresh load (UID to fields). */
+    public void replaceAll(Map<String, String[]> rows) {
+        Map<String, String[]> fresh = new ConcurrentHashMap<>(Math.max(16, rows.size() * 4 / 3 + 1));
+        for (Map.Entry<String, String[]> e : rows.entrySet()) {
+            String k = key(e.getKey());
+            if (!k.isEmpty() && e.getValue() != null && !erased.contains(k))
+                fresh.put(k, Arrays.copyOf(e.getValue(), ParticipantCodec.FIELD_NAMES.size()));
+        }
+        byUid = fresh;
+        loadedAt = System.currentTimeMillis();
+    }
+
+    public int size() {
+        return byUid.size();
+    }
+
+    /** Milliseconds since the last {@link #replaceAll}, or Long.MAX_VALUE if never loaded. */
+    public long age() {
+        long at = loadedAt;
+        return at == 0 ? Long.MAX_VALUE : System.currentTimeMillis() - at;
+    }
+
+    private static String key(String uid) {
+        return uid == null ? "" : uid.replaceAll("[^0-9A-Fa-f]", "").toUpperCase(Locale.ROOT);
+    }
+}
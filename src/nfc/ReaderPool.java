@@ -0,0 +1,531 @@
+package nfc;
+
+import javax.smartcardio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * One worker thread per attached reader, all taking jobs from one priority
+ * queue.
+ *
+ * A worker waits for a card on its own reader and only then takes a job,
+ * so each job goes to whichever reader a card was put on and a desk with
+ * four readers writes four cards at a time. Jobs are typed
+ * ({@link JobType}): a reader takes the highest-priority job it may run,
+ * oldest first within a type, so a write submitted while reads are waiting
+ * is the next thing done. A card lifted between taking a job and
+ * connecting puts the job back in the queue, ahead of later jobs of its
+ * type.
+ *
+ * After a job the worker does not give the card another job of the same
+ * type until it has been lifted, so a card is never written twice for two
+ * rows; jobs of other types may use it meanwhile (a card read into the
+ * entry form can then be written without another tap).
+ *
+ * A job can be tied to one reader (the auto-fill read of the card that
+ * just arrived there) and given a timeout, after which it fails with a
+ * TimeoutException if no reader has taken it. When a reader takes a job,
+ * the poll jobs ({@link JobType#preemptible}) of lower priority tied to
+ * that reader are dropped: the card they were for is being used for
+ * something else. A job that is already running is not interrupted.
+ *
+ * Jobs run on an open (traced) channel with the reader's
+ * {@link MifareKeyManager}; {@link NfcService} builds the station's jobs.
+ * The shared pool follows {@link ReaderSession}: readers plugged in later
+ * get a worker, workers of readers that went away stop.
+ */
+public final class ReaderPool implements AutoCloseable {
+
+    /** How long a worker blocks on its reader or the queue before looking again. */
+    static final long POLL_MS = 250;
+    /** How often a worker looks for a served card being lifted while it takes other jobs. */
+    static final long LIFT_POLL_MS = 50;
+    private static final long RETRY_MS = 1000;
+
+    private static ReaderPool shared; // guarded by ReaderPool.class
+
+    /** Kinds of work, highest priority first. */
+    public enum JobType {
+        WRITE(false), ERASE(false), READ_INFO(false), AUTOFILL_READ(true), ATTENDANCE_READ(true);
+
+        /** A poll: dropped when a higher-priority job takes the card of the reader it is tied to. */
+        public final boolean preemptible;
+
+        JobType(boolean preemptible) {
+            this.preemptible = preemptible;
+        }
+    }
+
+    /** Work to do on the card a reader was given. */
+    public interface CardJob<T> {
+        T run(CardChannel channel, MifareKeyManager keys, CardTerminal terminal) throws Exception;
+    }
+
+    /** A submitted job: taken by a reader once a card is on it, then completed. */
+    public static final class Ticket<T> {
+        private final JobType type;
+        private final String affinity; // reader name, null = any
+        private final long seq;
+        private final long submitted = System.nanoTime();
+        private final CardJob<T> job;
+        private final JobQueue queue;
+        private final CompletableFuture<String> taken = new CompletableFuture<>();
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private boolean cancelled; // guarded by this
+        private volatile long waitNanos = -1;
+
+        Ticket(JobType type, String affinity, CardJob<T> job, JobQueue queue) {
+            this.type = type;
+            this.affinity = affinity;
+            this.job = job;
+            this.queue = queue;
+            this.seq = queue.nextSeq();
+        }
+
+        public JobType type() {
+            return type;
+        }
+
+        /** Completes with the job's result, or exceptionally with its failure, timeout or cancellation. */
+        public CompletableFuture<T> result() {
+            return result;
+        }
+
+        /** Name of the reader that took the job, or null while queued or if it never ran. */
+        public String reader() {
+            return taken.isDone() && !taken.isCompletedExceptionally() ? taken.join() : null;
+        }
+
+        /** Nanoseconds the job waited in the queue, or -1 if no reader has taken it. */
+        public long waitNanos() {
+            return waitNanos;
+        }
+
+        /** Wait until a reader has a card for this job; false on timeout or cancellation. */
+        public boolean awaitTaken(long timeoutMs) throws InterruptedException {
+            try {
+                taken.get(timeoutMs, TimeUnit.MILLISECONDS);
+                return true;
+            } catch (TimeoutException | ExecutionException | CancellationException e) {
+                return false;
+            }
+        }
+
+        /** Withdraw the job if no reader has taken it yet. */
+        public boolean cancel() {
+            return fail(new CancellationException("cancelled before a card was presented"), Outcome.CANCELLED);
+        }
+
+        synchronized boolean fail(Exception why, Outcome outcome) {
+            if (taken.isDone())
+                return false;
+            cancelled = true;
+            queue.remove(this);
+            queue.count(type, outcome, 0);
+            taken.completeExceptionally(why);
+            result.completeExceptionally(why);
+            return true;
+        }
+
+        synchronized boolean take(String reader) {
+            if (cancelled || !taken.complete(reader))
+                return false;
+            waitNanos = System.nanoTime() - submitted;
+            queue.count(type, Outcome.TAKEN, waitNanos);
+            return true;
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /** Per-reader totals. */
+    public static final class ReaderStats {
+        public final String reader;
+        public final long jobs;
+        public final long failed;
+        /** Time spent connected and running jobs. */
+        public final long busyNanos;
+        /** From the start of the first job to the end of the last. */
+        public final long spanNanos;
+
+        ReaderStats(String reader, long jobs, long failed, long busyNanos, long spanNanos) {
+            this.reader = reader;
+            this.jobs = jobs;
+            this.failed = failed;
+            this.busyNanos = busyNanos;
+            this.spanNanos = spanNanos;
+        }
+
+        public double meanMs() {
+            return jobs == 0 ? 0 : busyNanos / 1e6 / jobs;
+        }
+
+        /** Jobs per minute over the span this reader was in use. */
+        public double cardsPerMinute() {
+            return spanNanos == 0 ? 0 : jobs * 60e9 / spanNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-30s jobs=%-5d failed=%-4d mean=%7.1f ms %6.0f cards/min", reader, jobs, failed,
+                    meanMs(), cardsPerMinute());
+        }
+    }
+
+    /** Per-type queue totals: what became of submitted jobs and how long they waited for a card. */
+    public static final class QueueStats {
+        public final JobType type;
+        public final long submitted;
+        /** Jobs a reader took (and ran). */
+        public final long taken;
+        public final long timedOut;
+        public final long cancelled;
+        public final long preempted;
+        /** Total and longest time taken jobs spent queued. */
+        public final long waitNanos;
+        public final long maxWaitNanos;
+
+        QueueStats(JobType type, long[] c) {
+            this.type = type;
+            this.submitted = c[Outcome.SUBMITTED.ordinal()];
+            this.taken = c[Outcome.TAKEN.ordinal()];
+            this.timedOut = c[Outcome.TIMED_OUT.ordinal()];
+            this.cancelled = c[Outcome.CANCELLED.ordinal()];
+            this.preempted = c[Outcome.PREEMPTED.ordinal()];
+            this.waitNanos = c[WAIT];
+            this.maxWaitNanos = c[MAX_WAIT];
+        }
+
+        public double meanWaitMs() {
+            return taken == 0 ? 0 : waitNanos / 1e6 / taken;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-15s submitted=%-5d taken=%-5d timedOut=%-4d cancelled=%-4d preempted=%-4d "
+                    + "wait mean=%.1f ms max=%.1f ms", type, submitted, taken, timedOut, cancelled, preempted,
+                    meanWaitMs(), maxWaitNanos / 1e6);
+        }
+    }
+
+    enum Outcome {
+        SUBMITTED, TAKEN, TIMED_OUT, CANCELLED, PREEMPTED
+    }
+
+    // counter slots after the outcomes
+    private static final int WAIT = Outcome.values().length;
+    private static final int MAX_WAIT = WAIT + 1;
+
+    /** The queued tickets in priority order, and the per-type counters. */
+    static final class JobQueue {
+        private final TreeSet<Ticket<?>> jobs = new TreeSet<>(
+                Comparator.comparing((Ticket<?> t) -> t.type).thenComparingLong(t -> t.seq));
+        private final Map<JobType, long[]> counters = new EnumMap<>(JobType.class);
+        private long seq;
+
+        synchronized long nextSeq() {
+            return seq++;
+        }
+
+        synchronized void add(Ticket<?> t) {
+            jobs.add(t);
+            notifyAll();
+        }
+
+        synchronized boolean remove(Ticket<?> t) {
+            return jobs.remove(t);
+        }
+
+        synchronized int size() {
+            return jobs.size();
+        }
+
+        /**
+         * Remove and return the first job reader may run whose type is not in
+         * skip, waiting up to timeoutMs for one; null if there is none.
+         */
+        synchronized Ticket<?> poll(String reader, Set<JobType> skip, long timeoutMs) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (true) {
+                for (Iterator<Ticket<?>> it = jobs.iterator(); it.hasNext();) {
+                    Ticket<?> t = it.next();
+                    if ((t.affinity == null || t.affinity.equals(reader)) && !skip.contains(t.type)) {
+                        it.remove();
+                        return t;
+                    }
+                }
+                long left = deadline - System.nanoTime();
+                if (left <= 0)
+                    return null;
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+        }
+
+        /** Queued polls tied to reader with a lower priority than type. */
+        synchronized List<Ticket<?>> preemptible(String reader, JobType type) {
+            List<Ticket<?>> out = new ArrayList<>();
+            for (Ticket<?> t : jobs)
+                if (t.type.preemptible && t.type.compareTo(type) > 0 && reader.equals(t.affinity))
+                    out.add(t);
+            return out;
+        }
+
+        synchronized List<Ticket<?>> drain() {
+            List<Ticket<?>> out = new ArrayList<>(jobs);
+            jobs.clear();
+            return out;
+        }
+
+        synchronized void count(JobType type, Outcome outcome, long waitNanos) {
+            long[] c = counters.computeIfAbsent(type, k -> new long[MAX_WAIT + 1]);
+            c[outcome.ordinal()]++;
+            if (outcome == Outcome.TAKEN) {
+                c[WAIT] += waitNanos;
+                c[MAX_WAIT] = Math.max(c[MAX_WAIT], waitNanos);
+            }
+        }
+
+        synchronized List<QueueStats> stats() {
+            List<QueueStats> out = new ArrayList<>();
+            for (JobType type : JobType.values())
+                out.add(new QueueStats(type, counters.getOrDefault(type, new long[MAX_WAIT + 1]).clone()));
+            return out;
+        }
+    }
+
+    private final JobQueue queue = new JobQueue();
+    private final Map<String, Worker> workers = new LinkedHashMap<>(); // guarded by this
+    private final boolean followSession;
+    private long generation = -1; // guarded by this
+    private volatile boolean closed;
+
+    /** A pool over the readers {@link ReaderSession} knows, following plug and unplug. */
+    public ReaderPool() throws CardException {
+        this.followSession = true;
+        sync();
+    }
+
+    /** A pool over a fixed set of readers. */
+    public ReaderPool(List<? extends CardTerminal> terminals) {
+        this.followSession = false;
+        synchronized (this) {
+            for (CardTerminal t : terminals)
+                start(t);
+        }
+    }
+
+    /** The station's pool, created on first use. */
+    public static synchronized ReaderPool shared() throws CardException {
+        if (shared == null || shared.closed)
+            shared = new ReaderPool();
+        return shared;
+    }
+
+    /** Run job on the next card presented on any reader, without a timeout. */
+    public <T> Ticket<T> submit(JobType type, CardJob<T> job) throws CardException {
+        return submit(type, null, 0, job);
+    }
+
+    /**
+     * Run job on the next card presented on reader (any reader if null). If
+     * no reader has taken it after timeoutMs (0 = no limit) the ticket fails
+     * with a TimeoutException.
+     */
+    public <T> Ticket<T> submit(JobType type, String reader, long timeoutMs, CardJob<T> job) throws CardException {
+        if (closed)
+            throw new IllegalStateException("reader pool is closed");
+        if (followSession)
+            sync();
+        Ticket<T> t = new Ticket<>(Objects.requireNonNull(type), reader, Objects.requireNonNull(job), queue);
+        queue.count(type, Outcome.SUBMITTED, 0);
+        queue.add(t);
+        if (timeoutMs > 0)
+            CompletableFuture.delayedExecutor(timeoutMs, TimeUnit.MILLISECONDS).execute(
+                    () -> t.fail(new TimeoutException("Timed out waiting for card (ms=" + timeoutMs + ")"),
+                            Outcome.TIMED_OUT));
+        return t;
+    }
+
+    /** Write participant fields to the next card presented on any reader. */
+    public Ticket<SmartMifareWriter.WriteResult> submitWrite(String[] fields) throws CardException {
+        return submit(JobType.WRITE,
+                (channel, keys, terminal) -> SmartMifareWriter.writeParticipantOnChannel(channel, fields, keys));
+    }
+
+    /** Readers with a worker. */
+    public synchronized int readers() {
+        return workers.size();
+    }
+
+    /** Jobs waiting for a card. */
+    public int queued() {
+        return queue.size();
+    }
+
+    public synchronized List<ReaderStats> stats() {
+        List<ReaderStats> out = new ArrayList<>();
+        for (Worker w : workers.values())
+            out.add(w.stats());
+        return out;
+    }
+
+    /** Per job type: jobs submitted, taken, timed out, cancelled and preempted, and their queue wait. */
+    public List<QueueStats> queueStats() {
+        return queue.stats();
+    }
+
+    /** Stop the workers (each after its current job) and cancel queued jobs. */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            for (Worker w : workers.values())
+                w.running = false;
+            workers.clear();
+        }
+        for (Ticket<?> t : queue.drain())
+            t.cancel();
+    }
+
+    /** Match the workers to the readers the session lists now. */
+    private synchronized void sync() throws CardException {
+        long g = ReaderSession.generation();
+        List<CardTerminal> now = ReaderSession.terminals(); // may bump the generation on first use
+        if (g == generation && g == ReaderSession.generation())
+            return;
+        generation = ReaderSession.generation();
+        Set<String> names = new HashSet<>();
+        for (CardTerminal t : now) {
+            names.add(t.getName());
+            Worker w = workers.get(t.getName());
+            if (w == null || w.terminal != t) {
+                if (w != null)
+                    w.running = false;
+                start(t);
+            }
+        }
+        for (Iterator<Worker> it = workers.values().iterator(); it.hasNext();) {
+            Worker w = it.next();
+            if (!names.contains(w.terminal.getName())) {
+                w.running = false;
+                it.remove();
+            }
+        }
+    }
+
+    // caller holds this
+    private void start(CardTerminal terminal) {
+        Worker w = new Worker(terminal);
+        workers.put(terminal.getName(), w);
+        Thread th = new Thread(w, "nfc-reader " + terminal.getName());
+        th.setDaemon(true);
+        th.start();
+    }
+
+    private final class Worker implements Runnable {
+        final CardTerminal terminal;
+        final MifareKeyManager keys;
+        volatile boolean running = true;
+
+        // stats, guarded by this
+        private long jobs;
+        private long failed;
+        private long busyNanos;
+        private long firstStart;
+        private long lastEnd;
+
+        Worker(CardTerminal terminal) {
+            this.terminal = terminal;
+            this.keys = MifareKeyManager.forTerminal(terminal);
+            keys.invalidate(); // a reader new to the pool may have been replugged: load its keys again
+        }
+
+        @Override
+        public void run() {
+            String name = terminal.getName();
+            Set<JobType> served = EnumSet.noneOf(JobType.class); // job types run on the card now on the reader
+            while (running && !closed) {
+                try {
+                    if (served.isEmpty()) {
+                        if (!terminal.waitForCardPresent(POLL_MS))
+                            continue;
+                    } else if (terminal.waitForCardAbsent(LIFT_POLL_MS)) {
+                        served.clear();
+                        continue;
+                    }
+                    Ticket<?> t = queue.poll(name, served, served.isEmpty() ? POLL_MS : 0);
+                    if (t == null || t.isCancelled())
+                        continue; // no work: look at the card again
+                    if (!running) {
+                        queue.add(t);
+                        return;
+                    }
+                    Card card;
+                    try {
+                        card = terminal.connect("*");
+                    } catch (CardException ex) {
+                        queue.add(t); // card lifted again: the job keeps its place in line
+                        served.clear();
+                        continue;
+                    }
+                    try {
+                        if (t.take(name)) {
+                            for (Ticket<?> p : queue.preemptible(name, t.type))
+                                p.fail(new CancellationException("preempted by " + t.type), Outcome.PREEMPTED);
+                            runJob(t, ApduTrace.wrap(card.getBasicChannel()));
+                            served.add(t.type);
+                        }
+                    } finally {
+                        try {
+                            card.disconnect(false);
+                        } catch (Exception ignored) {
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    // reader unplugged or reset
+                    served.clear();
+                    ReaderSession.refresh();
+                    try {
+                        Thread.sleep(RETRY_MS);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private <T> void runJob(Ticket<T> t, CardChannel channel) {
+            long start = System.nanoTime();
+            boolean ok = false;
+            try {
+                T r = t.job.run(channel, keys, terminal);
+                ok = true;
+                t.result.complete(r);
+            } catch (Throwable ex) {
+                if (ex instanceof CardException)
+                    ReaderSession.refresh();
+                ApduTrace.dump(terminal.getName() + " " + t.type + " job failed: " + ex.getMessage());
+                t.result.completeExceptionally(ex);
+            } finally {
+                long end = System.nanoTime();
+                synchronized (this) {
+                    if (jobs == 0)
+                        firstStart = start;
+                    jobs++;
+                    if (!ok)
+                        failed++;
+                    busyNanos += end - start;
+                    lastEnd = end;
+                }
+            }
+        }
+
+        synchronized ReaderStats stats() {
+            return new ReaderStats(terminal.getName(), jobs, failed, busyNanos, jobs == 0 ? 0 : lastEnd - firstStart);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package nfc;
+
+import javax.smartcardio.*;
+import java.util.*;
+
+/**
+ * Long-lived handle on the PC/SC readers, shared by the NFC classes.
+ *
+ * The TerminalFactory and its CardTerminals are resolved once and the
+ * terminal list is cached, so a read, write or erase starts with a field
+ * read instead of a PC/SC context lookup and SCardListReaders. A daemon
+ * thread ("nfc-reader-watch") blocks in {@link CardTerminals#waitForChange}
+ * and lists the readers again whenever it returns (card or reader change)
+ * and at least every {@link #WATCH_MS}, which is how an unplugged or
+ * replugged reader is noticed. A reader that appears again has lost the
+ * keys loaded in its slots, so its {@link MifareKeyManager} is invalidated.
+ *
+ * If listing or waiting fails (PC/SC service restarted, reader removed
+ * under it) the factory and terminals are resolved again on the next use;
+ * operations that hit a CardException call {@link #refresh} so the next
+ * one does not reuse a terminal that has gone.
+ */
+public final class ReaderSession {
+
+    /** Longest time between two listings of the readers by the watcher. */
+    public static final long WATCH_MS = 2000;
+    private static final long RETRY_MS = 1000;
+
+    private static final Object lock = new Object();
+    private static TerminalFactory factory; // guarded by lock
+    private static CardTerminals cardTerminals; // guarded by lock
+    private static volatile List<CardTerminal> cached; // null = list again on next use
+    private static List<String> known; // reader names at the last listing, guarded by lock
+    private static volatile boolean suspect; // an operation failed since the last listing
+    private static volatile long generation;
+    private static Thread watcher; // guarded by lock
+
+    // metrics, guarded by lock
+    private static long lookups;
+    private static long reused;
+    private static long listings;
+    private static long reconnects;
+    private static long changes;
+    private static long errors;
+
+    private ReaderSession() {
+    }
+
+    /**
+     * The connected readers, from the cache when it is current. Never null;
+     * empty if there is no reader (an empty list is not cached, so a reader
+     * plugged in later is found on the next call).
+     */
+    public static List<CardTerminal> terminals() throws CardException {
+        synchronized (lock) {
+            lookups++;
+            startWatcher();
+            List<CardTerminal> list = cached;
+            if (list != null && !list.isEmpty()) {
+                reused++;
+                return list;
+            }
+            return relist();
+        }
+    }
+
+    /** The first reader, as the NFC classes use it. */
+    public static CardTerminal terminal() throws Exception {
+        List<CardTerminal> list = terminals();
+        if (list.isEmpty())
+            throw new Exception("No NFC reader detected");
+        return list.get(0);
+    }
+
+    /**
+     * A CardTerminals of its own from the session's factory, for a thread
+     * that calls waitForChange (which keeps state per object, so two
+     * waiters must not share one).
+     */
+    public static CardTerminals newCardTerminals() {
+        synchronized (lock) {
+            resolve();
+            return factory.terminals();
+        }
+    }
+
+    /** Changes whenever the set of readers changes or the session is re-resolved. */
+    public static long generation() {
+        return generation;
+    }
+
+    /**
+     * Called after a CardException: drop the cached list so the next
+     * {@link #terminals} lists the readers again, and treat the readers
+     * found then as reset (their key slots are loaded again). A reader
+     * replugged between two listings keeps its name, so this is what
+     * notices it.
+     */
+    public static void refresh() {
+        suspect = true;
+        cached = null;
+    }
+
+    /** Session counters since startup. */
+    public static final class Metrics {
+        /** Calls to {@link #terminals} / {@link #terminal}. */
+        public final long lookups;
+        /** Lookups answered from the cached list. */
+        public final long reused;
+        /** Times the readers were listed (by the watcher or a lookup). */
+        public final long listings;
+        /** Times the factory and terminals were resolved again after an error. */
+        public final long reconnects;
+        /** Times the set of readers changed (plug, unplug, replug). */
+        public final long changes;
+        /** PC/SC errors while listing or waiting. */
+        public final long errors;
+        public final long generation;
+        public final List<String> readers;
+
+        Metrics(long lookups, long reused, long listings, long reconnects, long changes, long errors,
+                long generation, List<String> readers) {
+            this.lookups = lookups;
+            this.reused = reused;
+            this.listings = listings;
+            this.reconnects = reconnects;
+            this.changes = changes;
+            this.errors = errors;
+            this.generation = generation;
+            this.readers = readers;
+        }
+
+        public double reuseRate() {
+            return lookups == 0 ? 0 : reused / (double) lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "lookups=%d reused=%d (%.1f%%) listings=%d reconnects=%d changes=%d errors=%d generation=%d readers=%s",
+                    lookups, reused, 100 * reuseRate(), listings, reconnects, changes, errors, generation, readers);
+        }
+    }
+
+    public static Metrics metrics() {
+        synchronized (lock) {
+            return new Metrics(lookups, reused, listings, reconnects, changes, errors, generation,
+                    known == null ? Collections.emptyList() : known);
+        }
+    }
+
+    // caller holds lock
+    private static List<CardTerminal> relist() throws CardException {
+        List<CardTerminal> list;
+        try {
+            list = resolve().list();
+        } catch (CardException | RuntimeException ex) {
+            errors++;
+            dropFactory();
+            throw ex instanceof CardException ? (CardException) ex : new CardException(ex.getMessage(), ex);
+        }
+        listings++;
+        update(list);
+        return list;
+    }
+
+    // caller holds lock
+    private static CardTerminals resolve() {
+        if (cardTerminals == null) {
+            if (factory == null) {
+                TerminalFactory def = TerminalFactory.getDefault();
+                if (generation > 0) { // resolving again: a fresh instance where the provider allows it
+                    reconnects++;
+                    try {
+                        factory = TerminalFactory.getInstance(def.getType(), null);
+                    } catch (Exception ex) {
+                        factory = def;
+                    }
+                } else {
+                    factory = def;
+                }
+            }
+            cardTerminals = factory.terminals();
+            generation++;
+        }
+        return cardTerminals;
+    }
+
+    // caller holds lock
+    private static void dropFactory() {
+        factory = null;
+        cardTerminals = null;
+        cached = null;
+    }
+
+    // caller holds lock
+    private static void update(List<CardTerminal> list) {
+        List<String> before = known;
+        List<String> now = names(list);
+        known = now;
+        cached = Collections.unmodifiableList(new ArrayList<>(list));
+        boolean reset = suspect;
+        suspect = false;
+        if (before != null && !before.equals(now)) {
+            changes++;
+            generation++;
+            System.err.println("ReaderSession: readers now " + now);
+        }
+        for (String name : now)
+            if (reset || (before != null && !before.contains(name)))
+                MifareKeyManager.forReader(name).invalidate(); // new or replugged: slots are empty
+    }
+
+    private static List<String> names(List<CardTerminal> list) {
+        List<String> out = new ArrayList<>();
+        for (CardTerminal t : list)
+            out.add(t.getName());
+        return out;
+    }
+
+    // caller holds lock
+    private static void startWatcher() {
+        if (watcher != null)
+            return;
+        watcher = new Thread(ReaderSession::watch, "nfc-reader-watch");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private static void watch() {
+        while (true) {
+            CardTerminals t;
+            synchronized (lock) {
+                t = cardTerminals;
+            }
+            try {
+                List<CardTerminal> seen = cached; // one read: refresh() may null it at any time
+                if (t == null || seen == null || seen.isEmpty()) {
+                    // nothing to wait on yet: look again shortly
+                    List<CardTerminal> now;
+                    synchronized (lock) {
+                        now = relist();
+                    }
+                    if (now.isEmpty())
+                        Thread.sleep(RETRY_MS);
+                    continue;
+                }
+                t.waitForChange(WATCH_MS);
+                synchronized (lock) {
+                    if (t == cardTerminals)
+                        relist();
+                }
+            } catch (InterruptedException ex) {
+                return;
+            } catch (Exception ex) {
+                // no PC/SC service, no readers to wait on, or the context went away
+                synchronized (lock) {
+                    if (t != null && t == cardTerminals) {
+                        errors++;
+                        dropFactory();
+                    }
+                }
+                try {
+                    Thread.sleep(RETRY_MS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -5,12 +5,22 @@ import java.util.*;
 
 public class SmartMifareEraser {
 
-    private static final byte[][] COMMON_KEYS = new byte[][] {
-            hex("FFFFFFFFFFFF"),
-            hex("000000000000"),
-    };
-
-    private static final int KEY_SLOT = 0x00;
+    public enum EraseMode {
+        /** Zero every data block of sectors 1..15 and clear the header. */
+        FULL,
+        /**
+         * Cards with a {@link CardLayout} header: replace it with an empty
+         * header (length 0), so readers see a blank card instead of probing
+         * for text, then zero the blocks it listed without reading them (a
+         * block that fails is read back and zeroed again if it still holds
+         * data). A card whose header is already empty is left alone.
+         * Cards without a header have every data block of sectors 1..15
+         * read (one READ BINARY per sector where the reader supports it)
+         * and zeroed only if it is not blank. Throws if the header cannot
+         * be replaced or a block that held data cannot be cleared.
+         */
+        FAST
+    }
 
     /**
      * Wait for a card to be presented (blocks indefinitely) and attempt to
@@ -23,20 +33,27 @@ public class SmartMifareEraser {
      * @throws Exception on fatal errors (no reader, card connect failure, etc.)
      */
     public static void eraseMemory() throws Exception {
-        TerminalFactory factory = TerminalFactory.getDefault();
-        List<CardTerminal> terminals = factory.terminals().list();
-        if (terminals == null || terminals.isEmpty()) {
-            throw new Exception("No NFC reader detected");
-        }
+        eraseMemory(EraseMode.FULL);
+    }
 
-        CardTerminal terminal = terminals.get(0);
+    public static void eraseMemory(EraseMode mode) throws Exception {
+        CardTerminal terminal = ReaderSession.terminal();
 
         // wait indefinitely for card to be presented
-        terminal.waitForCardPresent(0);
-        Card card = terminal.connect("*");
+        Card card;
         try {
-            CardChannel channel = card.getBasicChannel();
-            eraseOnChannel(channel);
+            terminal.waitForCardPresent(0);
+            card = terminal.connect("*");
+        } catch (CardException ex) {
+            ReaderSession.refresh();
+            throw ex;
+        }
+        try {
+            CardChannel channel = ApduTrace.wrap(card.getBasicChannel());
+            eraseOnChannel(channel, MifareKeyManager.forTerminal(terminal), mode);
+        } catch (Exception ex) {
+            ApduTrace.dump("erase failed: " + ex.getMessage());
+            throw ex;
         } finally {
             try {
                 card.disconnect(false);
@@ -54,70 +71,176 @@ public class SmartMifareEraser {
      * @throws Exception on unexpected errors
      */
     public static void eraseOnChannel(CardChannel channel) throws Exception {
+        eraseOnChannel(channel, MifareKeyManager.forReader(""));
+    }
+
+    /**
+     * As {@link #eraseOnChannel(CardChannel)}, authenticating each sector
+     * (1..15) once with the keys held by keys.
+     */
+    public static void eraseOnChannel(CardChannel channel, MifareKeyManager keys) throws Exception {
+        eraseOnChannel(channel, keys, EraseMode.FULL);
+    }
+
+    public static void eraseOnChannel(CardChannel channel, MifareKeyManager keys, EraseMode mode) throws Exception {
         if (channel == null)
             throw new IllegalArgumentException("channel is null");
+        // whoever held the card, it is nobody's once erased
+        ResponseAPDU uid = channel.transmit(new CommandAPDU(new byte[] { (byte) 0xFF, (byte) 0xCA, 0x00, 0x00, 0x00 }));
+        if (uid.getSW() == 0x9000 && uid.getData().length > 0) {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : uid.getData())
+                sb.append(String.format("%02X", b));
+            CardCache.invalidate(sb.toString());
+            ParticipantIndex.shared().remove(sb.toString());
+        }
+        if (mode == EraseMode.FAST)
+            eraseFast(channel, keys);
+        else
+            eraseFull(channel, keys);
+    }
+
+    private static void eraseFull(CardChannel channel, MifareKeyManager keys) {
         byte[] zero16 = new byte[16];
 
-        // iterate user blocks 4..63
-        for (int block = 4; block < 64; block++) {
-            if (isTrailerBlock(block))
-                continue;
+        // header first, so a card lifted half-way is not answered from the cache
+        byte[] header = keys.authenticate(channel, CardLayout.HEADER_BLOCK) != null
+                ? CardLayout.readBlock(channel, CardLayout.HEADER_BLOCK)
+                : null;
+        if (CardLayout.parseHeader(header) != null)
+            CardCache.invalidate(header);
 
-            boolean authed = false;
+        // iterate user sectors 1..15 (blocks 4..63)
+        for (int sector = 1; sector < 16; sector++) {
+            int first = sector * 4;
+            if (keys.authenticate(channel, first) == null)
+                continue;
 
-            for (byte[] candidate : COMMON_KEYS) {
-                boolean loaded = loadKey(channel, KEY_SLOT, candidate);
-                if (!loaded)
-                    continue;
-                if (authWithKeySlot(channel, block, (byte) 0x60, (byte) KEY_SLOT)) {
-                    authed = true;
-                    break;
-                }
-                if (authWithKeySlot(channel, block, (byte) 0x61, (byte) KEY_SLOT)) {
-                    authed = true;
-                    break;
+            for (int block = first; block < first + 3; block++) {
+                try {
+                    writeBlock(channel, block, zero16);
+                } catch (Exception ignored) {
                 }
             }
+        }
 
-            if (!authed)
-                continue;
-
+        // clear our CardLayout header in block 1; any other sector 0 data is kept
+        if (CardLayout.parseHeader(header) != null
+                && keys.authenticate(channel, CardLayout.HEADER_BLOCK) != null) {
             try {
-                writeBlock(channel, block, zero16);
+                writeBlock(channel, CardLayout.HEADER_BLOCK, zero16);
             } catch (Exception ignored) {
             }
         }
     }
 
-    // Load key into reader key slot (FF 82)
-    private static boolean loadKey(CardChannel channel, int keySlot, byte[] key) {
+    private static void eraseFast(CardChannel channel, MifareKeyManager keys) throws Exception {
+        byte[] zero16 = new byte[16];
+        byte[] header = null;
+        if (keys.authenticate(channel, CardLayout.HEADER_BLOCK) != null) {
+            header = CardLayout.readBlock(channel, CardLayout.HEADER_BLOCK);
+            // a header we cannot read is not the same as no header
+            if (header == null)
+                throw new Exception("Cannot read the card header");
+        }
+        CardLayout.Header h = CardLayout.parseHeader(header);
+
+        if (h == null) {
+            // no header (blank, or legacy text): read every data block, zero those holding data
+            Set<Integer> all = new TreeSet<>();
+            for (int block = 4; block < 64; block++) {
+                if (!isTrailerBlock(block))
+                    all.add(block);
+            }
+            Set<Integer> dirty = clearDirty(channel, keys, all, false);
+            if (!dirty.isEmpty())
+                throw new Exception("Erase incomplete: blocks " + dirty + " not cleared");
+            return;
+        }
+        if (h.length == 0)
+            return; // already blank: keep its header and stamp
+
+        CardCache.invalidate(header);
+        // empty header first: from here on the card reads as blank
         try {
-            byte[] apdu = new byte[11];
-            apdu[0] = (byte) 0xFF;
-            apdu[1] = (byte) 0x82;
-            apdu[2] = 0x00;
-            apdu[3] = (byte) keySlot;
-            apdu[4] = 0x06;
-            System.arraycopy(key, 0, apdu, 5, 6);
-            ResponseAPDU resp = channel.transmit(new CommandAPDU(apdu));
-            return resp.getSW() == 0x9000;
-        } catch (Exception e) {
-            return false;
+            writeBlock(channel, CardLayout.HEADER_BLOCK,
+                    CardLayout.header(CardLayout.ENCODING_UTF8, new byte[0], 0, CardLayout.nextStamp(h)));
+        } catch (Exception ex) {
+            throw new Exception("Cannot clear the card header: " + ex.getMessage(), ex);
         }
+        Set<Integer> failed = new TreeSet<>();
+        int authedSector = -1;
+        for (int block : h.blocks()) {
+            if (block / 4 != authedSector) {
+                if (keys.authenticate(channel, block) == null) {
+                    authedSector = -1;
+                    failed.add(block);
+                    continue;
+                }
+                authedSector = block / 4;
+            }
+            try {
+                writeBlock(channel, block, zero16);
+            } catch (Exception ex) {
+                failed.add(block);
+            }
+        }
+        // one more go at those: read them back and zero the ones still holding data
+        if (!failed.isEmpty())
+            failed = clearDirty(channel, keys, failed, true);
+        if (!failed.isEmpty())
+            throw new Exception("Erase incomplete: blocks " + failed + " not cleared");
     }
 
-    // Authenticate using key in a slot (FF 86 referencing key slot)
-    private static boolean authWithKeySlot(CardChannel channel, int blockNumber, byte keyType, byte keySlot) {
-        try {
-            byte[] apdu = new byte[] {
-                    (byte) 0xFF, (byte) 0x86, 0x00, 0x00, 0x05,
-                    0x01, 0x00, (byte) blockNumber, keyType, keySlot
-            };
-            ResponseAPDU authResp = channel.transmit(new CommandAPDU(apdu));
-            return authResp.getSW() == 0x9000;
-        } catch (Exception e) {
-            return false;
+    /**
+     * Read blocks (data blocks of sectors 1..15) sector by sector, one READ
+     * BINARY over each sector's span where the reader supports it, and zero
+     * those that are not blank. Returns the blocks left dirty: a failed write,
+     * or (with lockedIsDirty) a sector no key authenticates.
+     */
+    private static Set<Integer> clearDirty(CardChannel channel, MifareKeyManager keys, Set<Integer> blocks,
+            boolean lockedIsDirty) {
+        byte[] zero16 = new byte[16];
+        Set<Integer> dirty = new TreeSet<>();
+        boolean multiRead = true; // until the reader rejects a multi-block read
+        for (int sector = 1; sector < 16; sector++) {
+            List<Integer> todo = new ArrayList<>();
+            for (int block = sector * 4; block < sector * 4 + 3; block++) {
+                if (blocks.contains(block))
+                    todo.add(block);
+            }
+            if (todo.isEmpty())
+                continue;
+            int first = todo.get(0);
+            int count = todo.get(todo.size() - 1) - first + 1;
+            if (keys.authenticate(channel, first) == null) {
+                if (lockedIsDirty)
+                    dirty.addAll(todo);
+                continue;
+            }
+            byte[] span = multiRead && count > 1 ? CardLayout.readBlocks(channel, first, count) : null;
+            if (multiRead && count > 1 && span == null) {
+                multiRead = false;
+                if (keys.authenticate(channel, first) == null) {
+                    if (lockedIsDirty)
+                        dirty.addAll(todo);
+                    continue;
+                }
+            }
+            for (int block : todo) {
+                byte[] data = span != null
+                        ? Arrays.copyOfRange(span, (block - first) * 16, (block - first + 1) * 16)
+                        : CardLayout.readBlock(channel, block);
+                if (data != null && Arrays.equals(data, zero16))
+                    continue;
+                try {
+                    writeBlock(channel, block, zero16);
+                } catch (Exception ex) {
+                    dirty.add(block);
+                }
+            }
         }
+        return dirty;
     }
 
     // Write a 16-byte block (FF D6). Refuses trailer blocks.
@@ -147,13 +270,4 @@ public class SmartMifareEraser {
     private static boolean isTrailerBlock(int block) {
         return (block % 4) == 3;
     }
-
-    private static byte[] hex(String s) {
-        s = s.replaceAll("[^0-9A-Fa-f]", "");
-        int len = s.length() / 2;
-        byte[] out = new byte[len];
-        for (int i = 0; i < len; i++)
-            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
-        return out;
-    }
 }
@@ -3,14 +3,10 @@ package nfc;
 import javax.smartcardio.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 public class SmartMifareReader {
 
-    // Simple debounce map to avoid immediate duplicates when calling repeatedly
-    private static final ConcurrentHashMap<String, Long> lastSeen = new ConcurrentHashMap<>();
-    private static final long DEBOUNCE_MS = 500; // ignore duplicates within 500ms
-
     /**
      * Read UID with default 20s timeout. Returns UID (hex, upper-case, no spaces)
      * or null on timeout/error.
@@ -39,8 +35,7 @@ public class SmartMifareReader {
      */
     public static ReadResult readUIDWithData(long timeoutMs) {
         try {
-            TerminalFactory factory = TerminalFactory.getDefault();
-            List<CardTerminal> terminals = factory.terminals().list();
+            List<CardTerminal> terminals = ReaderSession.terminals();
             if (terminals == null || terminals.isEmpty()) {
                 System.err.println("SmartMifareReader: no NFC reader detected.");
                 return null;
@@ -64,35 +59,20 @@ public class SmartMifareReader {
             Card card = null;
             try {
                 card = terminal.connect("*");
-                CardChannel channel = card.getBasicChannel();
+                CardChannel channel = ApduTrace.wrap(card.getBasicChannel());
 
-                // UID
-                CommandAPDU getUidCmd = new CommandAPDU(new byte[] {
-                        (byte) 0xFF, (byte) 0xCA, 0x00, 0x00, 0x00
-                });
-                ResponseAPDU uidResp = channel.transmit(getUidCmd);
-                String uid = bytesToHex(uidResp.getData()).replace(" ", "");
+                String uid = readUidHex(channel);
 
                 if (uid == null || uid.isEmpty()) {
                     return null;
                 }
 
-                // Debounce: avoid same UID reported repeatedly in short succession
-                long now = System.currentTimeMillis();
-                Long last = lastSeen.get(uid);
-                if (last != null && (now - last) < DEBOUNCE_MS) {
-                    // treat as no new read — still return uid (caller can decide) or return null to
-                    // indicate "ignored".
-                    // We'll return uid here (so behavior matches a straightforward read); adjust if
-                    // you prefer ignoring.
+                // Debounce: a card still on the reader from the last read is not reported again
+                if (!CardDebounce.of(CardDebounce.Use.INFO).accept(uid))
                     return null;
-                }
-                lastSeen.put(uid, now);
 
-                // Try to probe readable data (best effort)
-                String readableData = probeReadableData(channel);
-
-                return new ReadResult(uid, readableData);
+                // Try to read the card's data (best effort)
+                return readCardData(uid, channel, MifareKeyManager.forTerminal(terminal));
 
             } finally {
                 try {
@@ -109,6 +89,8 @@ public class SmartMifareReader {
             }
         } catch (CardException ce) {
             System.err.println("SmartMifareReader CardException: " + ce.getMessage());
+            ReaderSession.refresh();
+            ApduTrace.dump("read failed: " + ce.getMessage());
             return null;
         } catch (Exception e) {
             System.err.println("SmartMifareReader unexpected error: " + e.getMessage());
@@ -121,10 +103,23 @@ public class SmartMifareReader {
     public static class ReadResult {
         public final String uid;
         public final String data; // any printable text extracted from the card (may be empty)
+        /** Participant fields in {@link ParticipantCodec#FIELD_NAMES} order ("" if absent). */
+        public final String[] fields;
 
         public ReadResult(String uid, String data) {
+            this(uid, data, ParticipantCodec.decodeCsv(data));
+        }
+
+        public ReadResult(String uid, String data, String[] fields) {
             this.uid = uid;
             this.data = data == null ? "" : data;
+            this.fields = fields;
+        }
+
+        /** Field by ParticipantsRecord column name, "" if absent. */
+        public String field(String name) {
+            int i = ParticipantCodec.FIELD_NAMES.indexOf(name);
+            return i < 0 || fields == null ? "" : fields[i];
         }
 
         @Override
@@ -133,14 +128,103 @@ public class SmartMifareReader {
         }
     }
 
-    private static String probeReadableData(CardChannel channel) {
+    /**
+     * UID and data of the card on terminal now (no waiting, no debounce),
+     * e.g. after a {@link CardEventStream} CARD_PRESENT. Returns null if the
+     * card has gone or cannot be read.
+     */
+    public static ReadResult readOnTerminal(CardTerminal terminal) {
+        Card card = null;
+        try {
+            card = terminal.connect("*");
+            return readOnChannel(ApduTrace.wrap(card.getBasicChannel()), MifareKeyManager.forTerminal(terminal));
+        } catch (CardException ce) {
+            return null;
+        } finally {
+            try {
+                if (card != null)
+                    card.disconnect(false);
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    /**
+     * UID and data of the card on an open channel, without waiting for the
+     * card or debouncing. Returns null if the UID cannot be read.
+     */
+    public static ReadResult readOnChannel(CardChannel channel, MifareKeyManager keys) throws CardException {
+        String uid = readUidHex(channel);
+        if (uid.isEmpty())
+            return null;
+        return readCardData(uid, channel, keys);
+    }
+
+    /**
+     * As {@link #readOnChannel(CardChannel, MifareKeyManager)}, but a card
+     * known gives fields for (e.g. {@link ParticipantIndex#get}) costs only
+     * the UID read; its data is read only when known returns null.
+     */
+    public static ReadResult readOnChannel(CardChannel channel, MifareKeyManager keys,
+            Function<String, String[]> known) throws CardException {
+        String uid = readUidHex(channel);
+        if (uid.isEmpty())
+            return null;
+        String[] fields = known.apply(uid);
+        if (fields != null)
+            return new ReadResult(uid, ParticipantCodec.toCsv(fields), fields);
+        return readCardData(uid, channel, keys);
+    }
+
+    private static String readUidHex(CardChannel channel) throws CardException {
+        CommandAPDU getUidCmd = new CommandAPDU(new byte[] {
+                (byte) 0xFF, (byte) 0xCA, 0x00, 0x00, 0x00
+        });
+        ResponseAPDU uidResp = channel.transmit(getUidCmd);
+        return bytesToHex(uidResp.getData()).replace(" ", "");
+    }
+
+    /**
+     * Card data via the {@link CardLayout} header: only the blocks that hold
+     * data are read, the CRC is checked, and binary payloads are decoded by
+     * {@link ParticipantCodec} (data is then the fields comma-joined, as on
+     * CSV cards). A card whose header is unchanged since it was last read
+     * here is answered from {@link CardCache}. Cards without a header are
+     * probed sector by sector. Data that fails verification yields empty
+     * fields.
+     */
+    private static ReadResult readCardData(String uid, CardChannel channel, MifareKeyManager keys) {
         try {
-            byte[][] commonKeys = new byte[][] {
-                    hex("FFFFFFFFFFFF"),
-                    hex("000000000000"),
-            };
+            byte[] header = keys.authenticate(channel, CardLayout.HEADER_BLOCK) != null
+                    ? CardLayout.readBlock(channel, CardLayout.HEADER_BLOCK)
+                    : null;
+            ReadResult cached = CardCache.get(uid, header);
+            if (cached != null)
+                return cached;
+            CardLayout.Payload p = CardLayout.read(channel, keys, header);
+            if (p != null) {
+                ReadResult r = toResult(uid, p);
+                CardCache.put(uid, header, r);
+                return r;
+            }
+        } catch (Exception e) {
+            System.err.println("SmartMifareReader: card data not readable: " + e.getMessage());
+            ApduTrace.dump("read failed: " + e.getMessage());
+            return new ReadResult(uid, "");
+        }
+        return new ReadResult(uid, probeReadableData(channel, keys));
+    }
 
-            int keySlot = 0x00;
+    /** The result a verified payload reads as. */
+    static ReadResult toResult(String uid, CardLayout.Payload p) {
+        if (p.header.encoding == CardLayout.ENCODING_UTF8)
+            return new ReadResult(uid, p.text());
+        String[] fields = p.fields();
+        return new ReadResult(uid, ParticipantCodec.toCsv(fields), fields);
+    }
+
+    private static String probeReadableData(CardChannel channel, MifareKeyManager keys) {
+        try {
             boolean anyAuth = false;
             StringBuilder readableData = new StringBuilder();
 
@@ -148,21 +232,9 @@ public class SmartMifareReader {
                 int firstBlockOfSector = sector * 4;
                 int probeBlock = (sector == 0) ? 1 : firstBlockOfSector;
 
-                AuthResult successfulAuth = null;
-
-                for (byte[] key : commonKeys) {
-                    if (!loadKey(channel, keySlot, key))
-                        continue;
-                    AuthResult ar = tryAuthAsAorB(channel, probeBlock, (byte) keySlot);
-                    if (ar.success) {
-                        successfulAuth = ar;
-                        anyAuth = true;
-                        break;
-                    }
-                }
-
-                if (successfulAuth == null)
+                if (keys.authenticate(channel, probeBlock) == null)
                     continue;
+                anyAuth = true;
 
                 for (int b = firstBlockOfSector; b < firstBlockOfSector + 4; b++) {
                     if (sector == 0 && b == 0)
@@ -171,11 +243,9 @@ public class SmartMifareReader {
                         continue; // skip trailer
                     byte[] data = readBlock(channel, b);
                     if (data != null) {
-                        String text = new String(data, StandardCharsets.UTF_8)
-                                .trim()
-                                .replaceAll("[^\\p{Print}]", "");
-                        if (!text.isEmpty())
-                            readableData.append(text).append(" ");
+                        // blocks are joined as they are: text written across them continues mid-word
+                        readableData.append(new String(data, StandardCharsets.UTF_8)
+                                .replaceAll("[^\\p{Print}]", ""));
                     }
                 }
             }
@@ -190,55 +260,6 @@ public class SmartMifareReader {
         }
     }
 
-    private static class AuthResult {
-        boolean success;
-        byte keyType;
-
-        AuthResult(boolean s, byte t) {
-            success = s;
-            keyType = t;
-        }
-    }
-
-    private static AuthResult tryAuthAsAorB(CardChannel channel, int blockNumber, byte keySlot) {
-        boolean aOk = authWithKeySlot(channel, blockNumber, (byte) 0x60, keySlot);
-        if (aOk)
-            return new AuthResult(true, (byte) 0x60);
-        boolean bOk = authWithKeySlot(channel, blockNumber, (byte) 0x61, keySlot);
-        if (bOk)
-            return new AuthResult(true, (byte) 0x61);
-        return new AuthResult(false, (byte) 0x00);
-    }
-
-    private static boolean loadKey(CardChannel channel, int keySlot, byte[] key) {
-        try {
-            byte[] apdu = new byte[11];
-            apdu[0] = (byte) 0xFF;
-            apdu[1] = (byte) 0x82;
-            apdu[2] = 0x00;
-            apdu[3] = (byte) keySlot;
-            apdu[4] = 0x06;
-            System.arraycopy(key, 0, apdu, 5, 6);
-            ResponseAPDU resp = channel.transmit(new CommandAPDU(apdu));
-            return resp.getSW() == 0x9000;
-        } catch (Exception e) {
-            return false;
-        }
-    }
-
-    private static boolean authWithKeySlot(CardChannel channel, int blockNumber, byte keyType, byte keySlot) {
-        try {
-            byte[] apdu = new byte[] {
-                    (byte) 0xFF, (byte) 0x86, 0x00, 0x00, 0x05,
-                    0x01, 0x00, (byte) blockNumber, keyType, keySlot
-            };
-            ResponseAPDU resp = channel.transmit(new CommandAPDU(apdu));
-            return resp.getSW() == 0x9000;
-        } catch (Exception e) {
-            return false;
-        }
-    }
-
     private static byte[] readBlock(CardChannel channel, int blockNumber) {
         try {
             byte[] apdu = new byte[] { (byte) 0xFF, (byte) 0xB0, 0x00, (byte) blockNumber, 0x10 };
@@ -251,14 +272,6 @@ public class SmartMifareReader {
         }
     }
 
-    private static byte[] hex(String s) {
-        s = s.replaceAll("[^0-9A-Fa-f]", "");
-        byte[] out = new byte[s.length() / 2];
-        for (int i = 0; i < out.length; i++)
-            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
-        return out;
-    }
-
     private static String bytesToHex(byte[] bytes) {
         if (bytes == null)
             return "";
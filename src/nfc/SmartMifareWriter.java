@@ -2,37 +2,77 @@ package nfc;
 
 import javax.smartcardio.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.time.Instant;
 import java.util.*;
 
 public class SmartMifareWriter {
 
-    private static final byte[][] COMMON_KEYS = new byte[][] {
-            hex("FFFFFFFFFFFF"),
-            hex("000000000000"),
-    };
-    private static final int KEY_SLOT = 0x00;
-
     public static final long DEFAULT_PRESENT_TIMEOUT_MS = 10_000L;
     public static final long DEFAULT_ABSENT_TIMEOUT_MS = 5_000L;
+    /** Station setting: one of per-block, per-sector, crc-only. */
+    public static final String VERIFY_POLICY_FILE = "verify.txt";
+
+    /**
+     * How written blocks are checked. In every mode a write APDU must return
+     * 9000 (the card acknowledged it) and the header block is read back after
+     * it is written. When a payload block fails, the new header is still
+     * written (best effort) before the exception is thrown, so every later
+     * read of the card fails the CRC check instead of returning mixed data.
+     */
+    public enum VerifyPolicy {
+        /** Read back each block right after writing it; 2 APDUs per block. */
+        PER_BLOCK,
+        /**
+         * Write all blocks of a sector, then read them back before leaving
+         * it, in one READ BINARY where the reader supports multi-block reads
+         * (otherwise one per block). A mismatch names the sector's blocks.
+         */
+        PER_SECTOR,
+        /**
+         * No read-back per block; 1 APDU per block written. Once the header
+         * is written the payload is read back in one pass (one READ BINARY
+         * per sector where the reader supports multi-block reads) and checked
+         * against the header CRC, so a block the card acknowledged but stored
+         * wrongly fails the write. Cards without a header (sector 0 not
+         * writable) fall back to PER_BLOCK, since there is no CRC to check.
+         */
+        CRC_ONLY;
+
+        static VerifyPolicy parse(String s) {
+            String k = s.trim().toUpperCase(Locale.ROOT).replace('-', '_');
+            return k.isEmpty() ? PER_BLOCK : valueOf(k);
+        }
+    }
+
+    private static volatile VerifyPolicy verifyPolicy = loadVerifyPolicy();
 
     public static class WriteResult {
         public final String uid;
+        /** Blocks written (and verified). */
         public final List<Integer> blocks;
+        /** Payload blocks that already held the new data and were left alone. */
+        public final List<Integer> unchangedBlocks;
         public final String textWritten;
         public final Instant timestamp;
 
         public WriteResult(String uid, List<Integer> blocks, String textWritten, Instant timestamp) {
+            this(uid, blocks, Collections.emptyList(), textWritten, timestamp);
+        }
+
+        public WriteResult(String uid, List<Integer> blocks, List<Integer> unchangedBlocks, String textWritten,
+                Instant timestamp) {
             this.uid = uid;
             this.blocks = Collections.unmodifiableList(new ArrayList<>(blocks));
+            this.unchangedBlocks = Collections.unmodifiableList(new ArrayList<>(unchangedBlocks));
             this.textWritten = textWritten;
             this.timestamp = timestamp;
         }
 
         @Override
         public String toString() {
-            return "WriteResult{uid=" + uid + ", blocks=" + blocks + ", textWritten=" + textWritten + ", timestamp="
-                    + timestamp + "}";
+            return "WriteResult{uid=" + uid + ", blocks=" + blocks + ", unchangedBlocks=" + unchangedBlocks
+                    + ", textWritten=" + textWritten + ", timestamp=" + timestamp + "}";
         }
     }
 
@@ -46,13 +86,65 @@ public class SmartMifareWriter {
         String trimmed = text.trim();
         if (trimmed.isEmpty())
             throw new IllegalArgumentException("text is empty");
+        return onCard(presentTimeoutMs, absentTimeoutMs, (channel, keys) -> writeOnChannel(channel, trimmed, keys));
+    }
+
+    /**
+     * Write participant fields ({@link ParticipantCodec#FIELD_NAMES} order)
+     * in the compact binary encoding.
+     */
+    public static WriteResult writeParticipant(String[] fields) throws Exception {
+        return writeParticipant(fields, DEFAULT_PRESENT_TIMEOUT_MS, DEFAULT_ABSENT_TIMEOUT_MS);
+    }
 
-        TerminalFactory factory = TerminalFactory.getDefault();
-        List<CardTerminal> terminals = factory.terminals().list();
-        if (terminals == null || terminals.isEmpty()) {
-            throw new Exception("No NFC reader detected");
+    public static WriteResult writeParticipant(String[] fields, long presentTimeoutMs, long absentTimeoutMs)
+            throws Exception {
+        if (fields == null || fields[ParticipantCodec.NAME].trim().isEmpty())
+            throw new IllegalArgumentException("participant name is empty");
+        return onCard(presentTimeoutMs, absentTimeoutMs,
+                (channel, keys) -> writeParticipantOnChannel(channel, fields, keys));
+    }
+
+    public static WriteResult writeParticipantOnChannel(CardChannel channel, String[] fields, MifareKeyManager keys)
+            throws Exception {
+        return writeParticipantOnChannel(channel, fields, keys, verifyPolicy);
+    }
+
+    public static WriteResult writeParticipantOnChannel(CardChannel channel, String[] fields, MifareKeyManager keys,
+            VerifyPolicy policy) throws Exception {
+        return writePayload(channel, ParticipantCodec.encode(fields), CardLayout.ENCODING_PARTICIPANT,
+                ParticipantCodec.toCsv(fields), keys, policy);
+    }
+
+    /** Policy used by writes that do not pass one (from verify.txt, else PER_BLOCK). */
+    public static VerifyPolicy getVerifyPolicy() {
+        return verifyPolicy;
+    }
+
+    public static void setVerifyPolicy(VerifyPolicy policy) {
+        verifyPolicy = Objects.requireNonNull(policy);
+    }
+
+    private static VerifyPolicy loadVerifyPolicy() {
+        try {
+            Path p = Paths.get(VERIFY_POLICY_FILE);
+            if (Files.exists(p))
+                return VerifyPolicy.parse(new String(Files.readAllBytes(p), StandardCharsets.UTF_8));
+        } catch (Exception ex) {
+            System.err.println("SmartMifareWriter: bad " + VERIFY_POLICY_FILE + " (" + ex.getMessage()
+                    + "), verifying every block");
         }
-        CardTerminal terminal = terminals.get(0);
+        return VerifyPolicy.PER_BLOCK;
+    }
+
+    private interface ChannelWrite {
+        WriteResult write(CardChannel channel, MifareKeyManager keys) throws Exception;
+    }
+
+    /** Wait for a card on the first reader, run op on it, then wait for removal. */
+    private static WriteResult onCard(long presentTimeoutMs, long absentTimeoutMs, ChannelWrite op)
+            throws Exception {
+        CardTerminal terminal = ReaderSession.terminal();
 
         // Wait for card present
         final long chunkMs = 500L;
@@ -61,7 +153,13 @@ public class SmartMifareWriter {
         while (System.currentTimeMillis() < deadline) {
             try {
                 present = terminal.waitForCardPresent((int) chunkMs);
-            } catch (CardException ignore) {
+            } catch (CardException ex) {
+                // reader unplugged or reset: wait a chunk, then take whatever reader the session has now
+                ReaderSession.refresh();
+                Thread.sleep(chunkMs);
+                List<CardTerminal> now = ReaderSession.terminals();
+                if (!now.isEmpty())
+                    terminal = now.get(0);
             }
             if (present)
                 break;
@@ -70,72 +168,13 @@ public class SmartMifareWriter {
             throw new Exception("Timed out waiting for card (ms=" + presentTimeoutMs + ")");
 
         Card card = null;
-        List<Integer> writtenBlocks = new ArrayList<>();
-        String uid = "";
         try {
             card = terminal.connect("*");
-            CardChannel channel = card.getBasicChannel();
-
-            // read UID
-            CommandAPDU uidCmd = new CommandAPDU(new byte[] { (byte) 0xFF, (byte) 0xCA, 0x00, 0x00, 0x00 });
-            ResponseAPDU rUid = channel.transmit(uidCmd);
-            uid = bytesToHex(rUid.getData()).replace(" ", "");
-            System.out.println("DEBUG: UID=" + uid + " SW=" + Integer.toHexString(rUid.getSW()));
-
-            // prepare chunks (16 bytes)
-            byte[] payload = trimmed.getBytes(StandardCharsets.UTF_8);
-            List<byte[]> chunks = chunkBytes(payload, 16);
-
-            // DISCOVERY PASS: find all blocks we can authenticate and write to 
-            // We record for each discovered block: block index and the keyType that worked
-            List<BlockAuth> writableBlocks = discoverWritableBlocks(channel);
-            System.out.println("DEBUG: discovered writable blocks count=" + writableBlocks.size());
-
-            // Check capacity
-            int needed = chunks.size();
-            if (writableBlocks.size() < needed) {
-                // helpful diagnostic
-                String msg = "Insufficient authenticated writable blocks: need " + needed + ", found "
-                        + writableBlocks.size() + ".";
-                // include a brief listing
-                StringBuilder sb = new StringBuilder(msg).append(" Blocks:");
-                for (BlockAuth ba : writableBlocks)
-                    sb.append(' ').append(ba.blockIndex);
-                throw new Exception(sb.toString());
-            }
-
-            // WRITE PASS: write chunks sequentially into discovered blocks
-            for (int i = 0; i < chunks.size(); i++) {
-                byte[] chunk = chunks.get(i);
-                BlockAuth target = writableBlocks.get(i);
-
-                // load the same key we discovered (we already ensured loadKey works in
-                // discovery, but load again to be safe)
-                boolean loaded = loadKey(channel, KEY_SLOT, target.keyBytes);
-                if (!loaded) {
-                    // if load fails unexpectedly, try to reload any other key that might work for
-                    // that block
-                    loaded = loadKey(channel, KEY_SLOT, target.keyBytes);
-                }
-                if (!loaded) {
-                    throw new Exception("Failed to load key into reader for block " + target.blockIndex);
-                }
-
-                // final auth using discovered key type
-                boolean finalAuth = authWithKeySlot(channel, target.blockIndex, target.keyType, (byte) KEY_SLOT);
-                if (!finalAuth) {
-                    throw new Exception("Final auth failed for block " + target.blockIndex);
-                }
-
-                // attempt write (writeBlock verifies after write)
-                writeBlock(channel, target.blockIndex, chunk);
-                writtenBlocks.add(target.blockIndex);
-                System.out.println("DEBUG: wrote chunk " + (i + 1) + " -> block " + target.blockIndex);
-            }
-
-            return new WriteResult(uid, writtenBlocks, trimmed, Instant.now());
-
+            return op.write(ApduTrace.wrap(card.getBasicChannel()), MifareKeyManager.forTerminal(terminal));
         } catch (Exception e) {
+            if (e instanceof CardException)
+                ReaderSession.refresh();
+            ApduTrace.dump("write failed: " + e.getMessage());
             throw new Exception("Write failed: " + e.getMessage(), e);
         } finally {
             if (card != null) {
@@ -156,93 +195,223 @@ public class SmartMifareWriter {
         }
     }
 
-    // --- Discovery helpers ---
-
-    private static class BlockAuth {
-        final int blockIndex;
-        final byte keyType; // 0x60 or 0x61
-        final byte[] keyBytes; // actual key bytes used (6 bytes)
-
-        BlockAuth(int idx, byte kt, byte[] kb) {
-            this.blockIndex = idx;
-            this.keyType = kt;
-            this.keyBytes = kb;
-        }
+    public static WriteResult writeOnChannel(CardChannel channel, String text) throws Exception {
+        return writeOnChannel(channel, text, MifareKeyManager.forReader(""));
     }
 
     /**
-     * Scan blocks 4..62 (skip trailers) and record blocks where we can:
-     * - load a candidate key into KEY_SLOT
-     * - authenticate as A or B (0x60/0x61) using that key slot
+     * Write text to the card on an open channel, sector by sector.
+     *
+     * MIFARE Classic authentication covers a whole sector, so each sector
+     * (1..15) is authenticated once, with the first key that works as A or B
+     * (keys stay loaded in the reader, see {@link MifareKeyManager}), and
+     * then up to three of its data blocks are written and verified (see
+     * {@link VerifyPolicy}) before moving on; sectors after the last chunk
+     * are never touched. A card found too small for the payload (too many
+     * sectors no key opens) is refused and rolled back before the header is
+     * written: the old record's blocks get their contents back and the other
+     * written blocks are zeroed.
      *
-     * Returns a list sorted by block index ascending.
+     * The {@link CardLayout} header (length, CRC, sectors used) goes to block
+     * 1 last, so an interrupted write fails the reader's CRC check instead of
+     * returning mixed data. If sector 0 cannot be authenticated the card is
+     * left without a header and readers fall back to probing for text, so a
+     * participant is then written as CSV text instead of the binary codec.
+     *
+     * Re-issuing a card usually changes a field or two, so the current
+     * header is read first: blocks it says hold payload are read under the
+     * sector's authentication and only those that differ from the new data
+     * are written and verified (one read instead of a write and a read-back).
+     * If the length changed, everything after the first difference has
+     * shifted and is written without comparing. Blank and legacy cards have
+     * no header and are written in full. An unchanged header is not
+     * rewritten. Blocks the old header listed that the new payload does not
+     * use are zeroed, so a shorter record does not carry the old one's tail.
      */
-    private static List<BlockAuth> discoverWritableBlocks(CardChannel channel) {
-        List<BlockAuth> out = new ArrayList<>();
-        for (int block = 4; block < 64; block++) {
-            if (isTrailerBlock(block))
-                continue;
-
-            boolean found = false;
-            for (byte[] key : COMMON_KEYS) {
-                boolean loaded = loadKey(channel, KEY_SLOT, key);
-                System.out.println(
-                        "DEBUG: discover loadKey block=" + block + " key=" + bytesToHex(key) + " -> " + loaded);
-                if (!loaded)
-                    continue;
+    public static WriteResult writeOnChannel(CardChannel channel, String text, MifareKeyManager keys)
+            throws Exception {
+        return writeOnChannel(channel, text, keys, verifyPolicy);
+    }
+
+    public static WriteResult writeOnChannel(CardChannel channel, String text, MifareKeyManager keys,
+            VerifyPolicy policy) throws Exception {
+        return writePayload(channel, text.getBytes(StandardCharsets.UTF_8), CardLayout.ENCODING_UTF8, text, keys,
+                policy);
+    }
+
+    private static WriteResult writePayload(CardChannel channel, byte[] payload, int encoding, String text,
+            MifareKeyManager keys, VerifyPolicy policy) throws Exception {
+        // read UID
+        CommandAPDU uidCmd = new CommandAPDU(new byte[] { (byte) 0xFF, (byte) 0xCA, 0x00, 0x00, 0x00 });
+        ResponseAPDU rUid = channel.transmit(uidCmd);
+        String uid = bytesToHex(rUid.getData()).replace(" ", "");
+        CardCache.invalidate(uid);
+
+        // current layout: its payload blocks are compared before writing
+        byte[] oldHeader = null;
+        CardLayout.Header old = null;
+        Set<Integer> oldBlocks = Collections.emptySet();
+        boolean resized = false;
+        boolean headerWritable = keys.authenticate(channel, CardLayout.HEADER_BLOCK) != null;
+        if (!headerWritable && encoding != CardLayout.ENCODING_UTF8) {
+            // without a header readers probe for text: binary would read as garbage, so write the CSV
+            System.err.println("SmartMifareWriter: sector 0 not writable; writing participant as CSV text");
+            payload = text.getBytes(StandardCharsets.UTF_8);
+            encoding = CardLayout.ENCODING_UTF8;
+        }
+
+        if (payload.length > CardLayout.MAX_PAYLOAD)
+            throw new Exception("Text too long for card: " + payload.length + " bytes (max "
+                    + CardLayout.MAX_PAYLOAD + ")");
+
+        // prepare chunks (16 bytes)
+        List<byte[]> chunks = chunkBytes(payload, 16);
+
+        if (headerWritable) {
+            oldHeader = readBlock(channel, CardLayout.HEADER_BLOCK);
+            old = CardLayout.parseHeader(oldHeader);
+            if (old != null) {
+                oldBlocks = new HashSet<>(old.blocks());
+                resized = old.length != payload.length;
+            }
+        }
+        if (policy == VerifyPolicy.CRC_ONLY && !headerWritable)
+            policy = VerifyPolicy.PER_BLOCK;
+        boolean multiRead = true; // until the reader rejects a multi-block read
 
-                // try auth A
-                if (authWithKeySlot(channel, block, (byte) 0x60, (byte) KEY_SLOT)) {
-                    out.add(new BlockAuth(block, (byte) 0x60, key));
-                    found = true;
+        List<Integer> writtenBlocks = new ArrayList<>();
+        List<Integer> unchangedBlocks = new ArrayList<>();
+        List<Integer> skippedSectors = new ArrayList<>();
+        Set<Integer> oldRecord = oldBlocks; // oldBlocks stops comparing; this keeps what to put back
+        Map<Integer, byte[]> before = new HashMap<>(); // old record blocks overwritten, as they were
+        boolean shortCard = false;
+        int sectorMask = 0;
+        int next = 0;
+        try {
+            for (int sector = 1; sector < 16 && next < chunks.size(); sector++) {
+                // the sectors left cannot hold the rest: the card is too small
+                if ((16 - sector) * 3 < chunks.size() - next)
                     break;
+                int first = sector * 4;
+
+                // one auth per sector, held for its reads, writes and verification
+                if (keys.authenticate(channel, first) == null) {
+                    skippedSectors.add(sector);
+                    continue;
                 }
-                // try auth B
-                if (authWithKeySlot(channel, block, (byte) 0x61, (byte) KEY_SLOT)) {
-                    out.add(new BlockAuth(block, (byte) 0x61, key));
-                    found = true;
-                    break;
+
+                // the old record's blocks in this sector, fetched once to compare (and to roll back)
+                List<Integer> fetch = new ArrayList<>();
+                for (int block = first; block < first + 3 && next + block - first < chunks.size(); block++) {
+                    if (oldRecord.contains(block))
+                        fetch.add(block);
                 }
+                Map<Integer, byte[]> current = new TreeMap<>();
+                if (!fetch.isEmpty())
+                    multiRead = readSector(channel, keys, sector, fetch, current, multiRead);
+
+                // write (and verify) the data blocks of the sector that differ
+                sectorMask |= 1 << sector;
+                Map<Integer, byte[]> sectorWrites = new TreeMap<>();
+                for (int block = first; block < first + 3 && next < chunks.size(); block++) {
+                    byte[] chunk = chunks.get(next++);
+                    byte[] was = current.containsKey(block) ? current.get(block)
+                            : oldRecord.contains(block) ? readBlock(channel, block) : null;
+                    if (oldBlocks.contains(block) && Arrays.equals(chunk, was)) {
+                        unchangedBlocks.add(block);
+                        continue;
+                    }
+                    // a length change shifts every later byte: stop comparing
+                    if (resized)
+                        oldBlocks = Collections.emptySet();
+                    if (was != null)
+                        before.put(block, was);
+                    writeBlock(channel, block, chunk, policy == VerifyPolicy.PER_BLOCK);
+                    writtenBlocks.add(block);
+                    sectorWrites.put(block, chunk);
+                }
+                if (policy == VerifyPolicy.PER_SECTOR && !sectorWrites.isEmpty())
+                    multiRead = verifySector(channel, keys, sector, sectorWrites, multiRead);
+            }
+            if (next < chunks.size()) {
+                shortCard = true;
+                throw new Exception("Insufficient authenticated writable blocks: need " + chunks.size()
+                        + ", have at most " + (15 - skippedSectors.size()) * 3 + ". Sectors no key authenticates: "
+                        + skippedSectors);
             }
-            if (!found) {
-                // block not writable with common keys - skip
+        } catch (Exception ex) {
+            if (shortCard) {
+                // header untouched: put the blocks back so the old one still describes the card
+                rollBack(channel, keys, writtenBlocks, before);
+                throw ex;
             }
+            // leave the new header behind: its CRC fails on the bad data, where
+            // a blank card without one would make readers probe for text
+            if (headerWritable) {
+                try {
+                    if (keys.authenticate(channel, CardLayout.HEADER_BLOCK) != null)
+                        writeBlock(channel, CardLayout.HEADER_BLOCK,
+                                CardLayout.header(encoding, payload, sectorMask, CardLayout.nextStamp(old)), false);
+                } catch (Exception ignored) {
+                }
+            }
+            throw ex;
         }
-        // list is naturally in ascending block order; return as-is
-        return out;
-    }
 
-    // --- Internal helper classes & methods (from your prior code) ---
+        boolean payloadWritten = !writtenBlocks.isEmpty();
 
-    private static boolean loadKey(CardChannel c, int slot, byte[] key) {
-        try {
-            byte[] apdu = new byte[11];
-            apdu[0] = (byte) 0xFF;
-            apdu[1] = (byte) 0x82;
-            apdu[2] = 0x00;
-            apdu[3] = (byte) slot;
-            apdu[4] = 0x06;
-            System.arraycopy(key, 0, apdu, 5, 6);
-            ResponseAPDU r = c.transmit(new CommandAPDU(apdu));
-            System.out.println("DEBUG: LOAD KEY SW=" + Integer.toHexString(r.getSW()));
-            return r.getSW() == 0x9000;
-        } catch (Exception e) {
-            return false;
+        // blocks of the old record the new one does not use: clear its tail (best effort)
+        if (old != null) {
+            Set<Integer> used = new HashSet<>(CardLayout.dataBlocks(sectorMask, chunks.size()));
+            int authedSector = -1;
+            for (int block : old.blocks()) {
+                if (used.contains(block))
+                    continue;
+                try {
+                    if (block / 4 != authedSector) {
+                        authedSector = -1;
+                        if (keys.authenticate(channel, block) == null)
+                            throw new Exception("cannot authenticate sector " + block / 4);
+                        authedSector = block / 4;
+                    }
+                    writeBlock(channel, block, new byte[16], false);
+                    writtenBlocks.add(block);
+                } catch (Exception ex) {
+                    System.err.println("SmartMifareWriter: old data in block " + block + " not cleared: "
+                            + ex.getMessage());
+                }
+            }
         }
-    }
 
-    private static boolean authWithKeySlot(CardChannel c, int b, byte type, byte slot) {
-        try {
-            byte[] apdu = new byte[] { (byte) 0xFF, (byte) 0x86, 0x00, 0x00, 0x05, 0x01, 0x00, (byte) b, type, slot };
-            ResponseAPDU r = c.transmit(new CommandAPDU(apdu));
-            System.out.println("DEBUG: AUTH SW for block " + b + " -> " + Integer.toHexString(r.getSW()));
-            return r.getSW() == 0x9000;
-        } catch (Exception e) {
-            return false;
+        // header last: it commits the write; a new stamp only if something in it changed
+        byte[] header = CardLayout.header(encoding, payload, sectorMask, old == null ? 0 : old.stamp);
+        if (!Arrays.equals(header, oldHeader))
+            header = CardLayout.header(encoding, payload, sectorMask, CardLayout.nextStamp(old));
+        if (!headerWritable) {
+            System.err.println("SmartMifareWriter: sector 0 not writable; card written without header");
+        } else if (!Arrays.equals(header, oldHeader)) {
+            if (keys.authenticate(channel, CardLayout.HEADER_BLOCK) == null)
+                throw new Exception("Cannot authenticate sector 0 to write the card header");
+            writeBlock(channel, CardLayout.HEADER_BLOCK, header, true);
+            writtenBlocks.add(CardLayout.HEADER_BLOCK);
         }
+        if (policy == VerifyPolicy.CRC_ONLY && payloadWritten) {
+            try {
+                CardLayout.read(channel, keys, header, multiRead);
+            } catch (Exception ex) {
+                throw new Exception("Write verification failed - " + ex.getMessage(), ex);
+            }
+        }
+        // every payload block was read back or compared: the next read here can skip them
+        if (headerWritable)
+            CardCache.put(uid, header, SmartMifareReader.toResult(uid.replace(":", ""),
+                    new CardLayout.Payload(CardLayout.parseHeader(header), payload)));
+        return new WriteResult(uid, writtenBlocks, unchangedBlocks, text, Instant.now());
     }
 
-    private static void writeBlock(CardChannel c, int b, byte[] data) throws Exception {
+    // --- Internal helper classes & methods (from your prior code) ---
+
+    private static void writeBlock(CardChannel c, int b, byte[] data, boolean verify) throws Exception {
         if (isTrailerBlock(b))
             throw new Exception("Refusing to write to trailer block " + b);
         if (data.length != 16)
@@ -257,23 +426,105 @@ public class SmartMifareWriter {
         System.arraycopy(data, 0, apdu, 5, 16);
 
         ResponseAPDU r = c.transmit(new CommandAPDU(apdu));
-        System.out.println("DEBUG: WRITE SW for block " + b + " -> " + Integer.toHexString(r.getSW()));
         if (r.getSW() != 0x9000) {
             throw new Exception("Write failed SW=" + Integer.toHexString(r.getSW()));
         }
+        if (!verify)
+            return;
 
-        byte[] verify = readBlock(c, b);
-        if (verify == null)
+        byte[] readBack = readBlock(c, b);
+        if (readBack == null)
             throw new Exception("Write verification failed - couldn't read back block " + b);
-        if (!Arrays.equals(data, verify))
+        if (!Arrays.equals(data, readBack))
             throw new Exception("Write verification failed - data mismatch in block " + b);
     }
 
+    /**
+     * Undo the writes to a card found too small: each written block of the
+     * old record gets its old contents back, every other one is zeroed (it
+     * was outside the record, or the card had no header, blank or legacy
+     * text). Best effort: a block that cannot be restored is logged.
+     */
+    private static void rollBack(CardChannel c, MifareKeyManager keys, List<Integer> written,
+            Map<Integer, byte[]> before) {
+        int authedSector = -1;
+        for (int block : written) {
+            try {
+                if (block / 4 != authedSector) {
+                    authedSector = -1;
+                    if (keys.authenticate(c, block) == null)
+                        throw new Exception("cannot authenticate sector " + block / 4);
+                    authedSector = block / 4;
+                }
+                writeBlock(c, block, before.getOrDefault(block, new byte[16]), false);
+            } catch (Exception ex) {
+                System.err.println("SmartMifareWriter: block " + block + " not rolled back: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Fetch the current contents of blocks (ascending, one authenticated
+     * sector) into out with a single READ BINARY over their span. A reader
+     * that rejects that is authenticated again and false is returned: out
+     * stays empty, the caller reads block by block (only as long as it still
+     * compares), and later sectors skip the attempt.
+     */
+    private static boolean readSector(CardChannel c, MifareKeyManager keys, int sector, List<Integer> blocks,
+            Map<Integer, byte[]> out, boolean multiRead) throws Exception {
+        int first = blocks.get(0);
+        int count = blocks.get(blocks.size() - 1) - first + 1;
+        if (!multiRead || count < 2)
+            return multiRead;
+        byte[] span = CardLayout.readBlocks(c, first, count);
+        if (span == null) {
+            if (keys.authenticate(c, first) == null)
+                throw new Exception("Cannot authenticate sector " + sector + " again (card moved?)");
+            return false;
+        }
+        for (int b : blocks)
+            out.put(b, Arrays.copyOfRange(span, (b - first) * 16, (b - first + 1) * 16));
+        return true;
+    }
+
+    /**
+     * Read back the blocks written in one (still authenticated) sector and
+     * compare. With multiRead the span from the first to the last written
+     * block is fetched by a single READ BINARY; a reader that rejects that is
+     * read block by block (after authenticating again, as some readers drop
+     * the authentication on an error), and false is returned so later sectors
+     * skip the attempt.
+     */
+    private static boolean verifySector(CardChannel c, MifareKeyManager keys, int sector,
+            Map<Integer, byte[]> written, boolean multiRead) throws Exception {
+        int first = Collections.min(written.keySet());
+        int count = Collections.max(written.keySet()) - first + 1;
+        byte[] span = null;
+        if (multiRead && count > 1) {
+            span = CardLayout.readBlocks(c, first, count);
+            multiRead = span != null;
+            if (span == null && keys.authenticate(c, first) == null)
+                throw new Exception("Write verification failed - cannot authenticate sector " + sector);
+        }
+        List<Integer> bad = new ArrayList<>();
+        for (Map.Entry<Integer, byte[]> e : written.entrySet()) {
+            int b = e.getKey();
+            byte[] got = span != null ? Arrays.copyOfRange(span, (b - first) * 16, (b - first + 1) * 16)
+                    : readBlock(c, b);
+            if (got == null)
+                throw new Exception("Write verification failed - couldn't read back block " + b);
+            if (!Arrays.equals(e.getValue(), got))
+                bad.add(b);
+        }
+        if (!bad.isEmpty())
+            throw new Exception("Write verification failed - data mismatch in sector " + sector + " blocks " + bad);
+        return multiRead;
+    }
+
     private static byte[] readBlock(CardChannel c, int b) {
         try {
             byte[] cmd = new byte[] { (byte) 0xFF, (byte) 0xB0, 0x00, (byte) b, 0x10 };
             ResponseAPDU r = c.transmit(new CommandAPDU(cmd));
-            System.out.println("DEBUG: READ SW for block " + b + " -> " + Integer.toHexString(r.getSW()));
             if (r.getSW() == 0x9000) {
                 return r.getData();
             }
@@ -287,15 +538,6 @@ public class SmartMifareWriter {
         return (b % 4) == 3;
     }
 
-    private static byte[] hex(String s) {
-        s = s.replaceAll("[^0-9A-Fa-f]", "");
-        int len = s.length() / 2;
-        byte[] out = new byte[len];
-        for (int i = 0; i < len; i++)
-            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
-        return out;
-    }
-
     private static List<byte[]> chunkBytes(byte[] src, int size) {
         List<byte[]> out = new ArrayList<>();
         for (int i = 0; i < src.length; i += size) {
@@ -0,0 +1,213 @@
+package nfc.sim;
+
+import javax.smartcardio.*;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.*;
+
+/**
+ * In-process PC/SC stand-in: a javax.smartcardio provider whose terminals
+ * are {@link SimTerminal}s holding {@link SimCard}s, so the NFC classes run
+ * unchanged without a physical reader.
+ *
+ * <pre>
+ * SimTerminal reader = MifareSimulator.install().addTerminal("ACS ACR122U 0");
+ * reader.setLatency(12, TimeUnit.MILLISECONDS);
+ * reader.insert(new SimCard());
+ * SmartMifareWriter.writeText("hello");   // goes to the simulated card
+ * </pre>
+ *
+ * {@link #install} makes the simulator the default TerminalFactory type and
+ * must run before anything calls TerminalFactory.getDefault(), which is
+ * fixed on first use. {@link #factory} works at any time.
+ */
+public final class MifareSimulator {
+
+    public static final String TYPE = "MifareSim";
+    private static final String PROVIDER = "MifareSimulator";
+    private static final String DEFAULT_TYPE_PROPERTY = "javax.smartcardio.TerminalFactory.DefaultType";
+
+    private static final MifareSimulator INSTANCE = new MifareSimulator();
+
+    private final List<SimTerminal> terminals = new ArrayList<>();
+    private final Object changeLock = new Object();
+    private long changes;
+
+    private MifareSimulator() {
+    }
+
+    /**
+     * Register the provider and make it the default TerminalFactory type.
+     *
+     * @throws IllegalStateException if TerminalFactory.getDefault() was
+     *                               already initialised with another type
+     */
+    public static synchronized MifareSimulator install() {
+        if (Security.getProvider(PROVIDER) == null)
+            Security.insertProviderAt(new SimProvider(), 1);
+        System.setProperty(DEFAULT_TYPE_PROPERTY, TYPE);
+        if (!TYPE.equals(TerminalFactory.getDefault().getType()))
+            throw new IllegalStateException("TerminalFactory.getDefault() was initialised before the simulator");
+        return INSTANCE;
+    }
+
+    /** A TerminalFactory over the simulated terminals, without touching the default. */
+    public static TerminalFactory factory() {
+        try {
+            return TerminalFactory.getInstance(TYPE, null, new SimProvider());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static MifareSimulator get() {
+        return INSTANCE;
+    }
+
+    public SimTerminal addTerminal(String name) {
+        return addTerminal(new SimTerminal(name));
+    }
+
+    public SimTerminal addTerminal(SimTerminal t) {
+        t.setUnplugged(false);
+        synchronized (terminals) {
+            terminals.add(t);
+        }
+        changed();
+        return t;
+    }
+
+    /**
+     * Unplug a reader: it disappears from the terminal list, loses its keys
+     * and fails with CardException if still used.
+     */
+    public void removeTerminal(SimTerminal t) {
+        t.remove();
+        t.clearKeySlots();
+        t.setUnplugged(true);
+        synchronized (terminals) {
+            terminals.remove(t);
+        }
+        changed();
+    }
+
+    public List<SimTerminal> terminals() {
+        synchronized (terminals) {
+            return new ArrayList<>(terminals);
+        }
+    }
+
+    static void changed() {
+        synchronized (INSTANCE.changeLock) {
+            INSTANCE.changes++;
+            INSTANCE.changeLock.notifyAll();
+        }
+    }
+
+    private static final class SimProvider extends Provider {
+        private static final long serialVersionUID = 1L;
+
+        SimProvider() {
+            super(PROVIDER, "1.0", "Simulated MIFARE Classic 1K PC/SC readers");
+            put("TerminalFactory." + TYPE, SimFactorySpi.class.getName());
+        }
+    }
+
+    /** Instantiated reflectively by TerminalFactory. */
+    public static final class SimFactorySpi extends TerminalFactorySpi {
+        public SimFactorySpi(Object params) {
+        }
+
+        @Override
+        protected CardTerminals engineTerminals() {
+            return new SimTerminals();
+        }
+    }
+
+    private static final class SimTerminals extends CardTerminals {
+        // {insertions, removals} per terminal before and after the last waitForChange
+        private Map<SimTerminal, long[]> before = new HashMap<>();
+        private Map<SimTerminal, long[]> after = new HashMap<>();
+        private long seenChanges = -1;
+
+        @Override
+        public synchronized List<CardTerminal> list(State state) throws CardException {
+            List<CardTerminal> out = new ArrayList<>();
+            for (SimTerminal t : INSTANCE.terminals()) {
+                boolean match;
+                switch (state) {
+                    case CARD_PRESENT:
+                        match = t.isCardPresent();
+                        break;
+                    case CARD_ABSENT:
+                        match = !t.isCardPresent();
+                        break;
+                    case CARD_INSERTION:
+                        match = counts(after, t)[0] > counts(before, t)[0];
+                        break;
+                    case CARD_REMOVAL:
+                        match = counts(after, t)[1] > counts(before, t)[1];
+                        break;
+                    default:
+                        match = true;
+                }
+                if (match)
+                    out.add(t);
+            }
+            return Collections.unmodifiableList(out);
+        }
+
+        /**
+         * Blocks until a card is inserted or removed (or a terminal added or
+         * removed) after the previous call; the first call always waits.
+         */
+        @Override
+        public boolean waitForChange(long timeout) throws CardException {
+            if (timeout < 0)
+                throw new IllegalArgumentException("timeout < 0");
+            long since;
+            synchronized (this) {
+                if (seenChanges < 0)
+                    snapshot();
+                since = seenChanges;
+            }
+            boolean changed = true;
+            long deadline = System.currentTimeMillis() + timeout;
+            synchronized (INSTANCE.changeLock) {
+                while (INSTANCE.changes == since) {
+                    long left = timeout == 0 ? 0 : deadline - System.currentTimeMillis();
+                    if (timeout != 0 && left <= 0) {
+                        changed = false;
+                        break;
+                    }
+                    try {
+                        INSTANCE.changeLock.wait(left);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CardException("interrupted");
+                    }
+                }
+            }
+            synchronized (this) {
+                before = after;
+                snapshot();
+            }
+            return changed;
+        }
+
+        // caller holds this
+        private void snapshot() {
+            synchronized (INSTANCE.changeLock) {
+                seenChanges = INSTANCE.changes;
+            }
+            after = new HashMap<>();
+            for (SimTerminal t : INSTANCE.terminals())
+                after.put(t, new long[] { t.insertions(), t.removals() });
+        }
+
+        private static long[] counts(Map<SimTerminal, long[]> m, SimTerminal t) {
+            return m.getOrDefault(t, new long[] { 0, 0 });
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package nfc.sim;
+
+import javax.smartcardio.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import nfc.CardCache;
+import nfc.CardDebounce;
+import nfc.MifareKeyManager;
+import nfc.ReaderSession;
+import nfc.SmartMifareEraser;
+import nfc.SmartMifareReader;
+import nfc.SmartMifareWriter;
+
+/**
+ * Per-operation benchmark of the NFC layer against a simulated reader:
+ * SmartMifareWriter.writeText, SmartMifareReader.readUIDWithData and
+ * SmartMifareEraser.eraseMemory (full and fast), for payloads of 1 to 45
+ * blocks and three key configurations (key A FFFFFFFFFFFF, key A
+ * 000000000000, key B only), plus writeText under each verify policy.
+ *
+ * The public entry points run unchanged through TerminalFactory.getDefault()
+ * with cards tapped automatically (a new card per operation, no tap delay),
+ * so the times are the reader's share of a tap. Each APDU costs a latency
+ * per instruction; the default profile is roughly an ACR122U (UID 4 ms,
+ * load key 2 ms, auth 6 ms, read 6 ms, write 12 ms), or one flat value.
+ *
+ * Prints APDUs per operation (total and by instruction), wall-clock
+ * mean / p50 / p95 / max and cards per minute, then the
+ * {@link ReaderSession} and {@link CardCache} counters. The cache is cleared
+ * after each case's fixtures are written, so reads go to the card; only the
+ * separately labelled "repeat tap" case is answered from the cache.
+ *
+ * CLI:
+ * java -cp "out;lib/*" nfc.sim.NfcBenchmark [cardsPerCase] [flatLatencyMs]
+ */
+public class NfcBenchmark {
+
+    private static final String[] INS_NAMES = new String[256];
+    static {
+        INS_NAMES[0xCA] = "uid";
+        INS_NAMES[0x82] = "load";
+        INS_NAMES[0x86] = "auth";
+        INS_NAMES[0xB0] = "read";
+        INS_NAMES[0xD6] = "write";
+    }
+
+    enum Keys {
+        KEY_A_FF, KEY_A_00, KEY_B_ONLY
+    }
+
+    public static void main(String[] args) throws Exception {
+        int cards = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        long flatMs = args.length > 1 ? Long.parseLong(args[1]) : -1;
+
+        MifareSimulator sim = MifareSimulator.install();
+        SimTerminal reader = sim.addTerminal("Simulated ACR122U 0"); // first terminal: the one the NFC classes use
+        SimTerminal prep = sim.addTerminal("Simulated prep reader"); // zero latency, writes fixtures
+        if (flatMs >= 0) {
+            reader.setLatency(flatMs, TimeUnit.MILLISECONDS);
+            System.out.println("Latency: " + flatMs + " ms per APDU");
+        } else {
+            reader.setLatency(0xCA, 4, TimeUnit.MILLISECONDS);
+            reader.setLatency(0x82, 2, TimeUnit.MILLISECONDS);
+            reader.setLatency(0x86, 6, TimeUnit.MILLISECONDS);
+            reader.setLatency(0xB0, 6, TimeUnit.MILLISECONDS);
+            reader.setLatency(0xD6, 12, TimeUnit.MILLISECONDS);
+            System.out.println("Latency: uid 4, load 2, auth 6, read 6, write 12 ms");
+        }
+        System.out.printf("%-34s %-11s %6s  %-40s %8s %8s %8s %8s %9s%n", "operation", "keys", "apdus",
+                "by instruction", "mean ms", "p50 ms", "p95 ms", "max ms", "cards/min");
+
+        int[] sizes = { 1, 3, 7, 15, 30, 45 };
+        for (Keys keys : Keys.values()) {
+            for (int blocks : sizes) {
+                String text = text(blocks);
+                run(reader, "writeText " + blocks + " blocks", keys, cards,
+                        () -> blank(keys), SmartMifareWriter::writeText, text);
+                run(reader, "readUIDWithData " + blocks + " blocks", keys, cards,
+                        () -> written(prep, keys, text),
+                        t -> Objects.requireNonNull(SmartMifareReader.readUIDWithData(1000), "no card read"), text);
+                run(reader, "eraseMemory FULL " + blocks + " blocks", keys, cards,
+                        () -> written(prep, keys, text),
+                        t -> SmartMifareEraser.eraseMemory(SmartMifareEraser.EraseMode.FULL), text);
+                run(reader, "eraseMemory FAST " + blocks + " blocks", keys, cards,
+                        () -> written(prep, keys, text),
+                        t -> SmartMifareEraser.eraseMemory(SmartMifareEraser.EraseMode.FAST), text);
+            }
+        }
+
+        // the same card tapped again (past the debounce): answered from CardCache after the first read
+        SimCard repeat = written(prep, Keys.KEY_A_FF, text(7));
+        run(reader, "readUIDWithData 7 blocks repeat tap", Keys.KEY_A_FF, cards, () -> repeat, t -> {
+            CardDebounce.of(CardDebounce.Use.INFO).clear();
+            Objects.requireNonNull(SmartMifareReader.readUIDWithData(1000), "no card read");
+        }, text(7));
+
+        SmartMifareWriter.VerifyPolicy saved = SmartMifareWriter.getVerifyPolicy();
+        for (boolean multiRead : new boolean[] { false, true }) {
+            reader.setMultiBlockRead(multiRead);
+            for (SmartMifareWriter.VerifyPolicy p : SmartMifareWriter.VerifyPolicy.values()) {
+                SmartMifareWriter.setVerifyPolicy(p);
+                run(reader, "writeText 7 blocks " + p + (multiRead ? " multi" : ""), Keys.KEY_A_FF, cards,
+                        () -> blank(Keys.KEY_A_FF), SmartMifareWriter::writeText, text(7));
+            }
+        }
+        SmartMifareWriter.setVerifyPolicy(saved);
+        reader.setMultiBlockRead(false);
+        System.out.println("Reader session: " + ReaderSession.metrics());
+        System.out.println("Card cache: " + CardCache.stats());
+    }
+
+    interface Op {
+        void run(String text) throws Exception;
+    }
+
+    static void run(SimTerminal reader, String name, Keys keys, int cards, Supplier<SimCard> card, Op op,
+            String text) throws Exception {
+        // fixtures first, so their APDUs are not counted
+        List<SimCard> queue = new ArrayList<>();
+        for (int i = 0; i < cards + 2; i++)
+            queue.add(card.get());
+        CardCache.clear(); // writing the fixtures cached them: reads must go to the card
+        Iterator<SimCard> next = queue.iterator();
+        reader.remove();
+        reader.setAutoTap(next::next, 0);
+
+        for (int i = 0; i < 2; i++) { // warm-up
+            op.run(text);
+            reader.remove();
+        }
+        reader.resetCounts();
+        long[] nanos = new long[cards];
+        for (int i = 0; i < cards; i++) {
+            long t0 = System.nanoTime();
+            op.run(text);
+            nanos[i] = System.nanoTime() - t0;
+            reader.remove(); // not every operation waits for the card to be lifted
+        }
+        reader.setAutoTap(null, 0);
+        report(name, keys, cards, nanos, reader.apduCount(), reader.apduCounts());
+    }
+
+    static void report(String name, Keys keys, int cards, long[] nanos, long apdus, Map<Integer, Long> byIns) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        double mean = Arrays.stream(nanos).average().orElse(0) / 1e6;
+        StringBuilder ins = new StringBuilder();
+        for (Map.Entry<Integer, Long> e : byIns.entrySet()) {
+            String n = INS_NAMES[e.getKey()] == null ? String.format("%02X", e.getKey()) : INS_NAMES[e.getKey()];
+            ins.append(String.format("%s %.1f ", n, e.getValue() / (double) cards));
+        }
+        System.out.printf("%-34s %-11s %6.1f  %-40s %8.1f %8.1f %8.1f %8.1f %9.0f%n", name, keys,
+                apdus / (double) cards, ins.toString().trim(), mean, pct(sorted, 50), pct(sorted, 95),
+                sorted[sorted.length - 1] / 1e6, mean > 0 ? 60_000 / mean : 0);
+    }
+
+    static double pct(long[] sorted, int p) {
+        int i = (int) Math.ceil(sorted.length * p / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))] / 1e6;
+    }
+
+    /** ASCII text filling exactly blocks blocks. */
+    static String text(int blocks) {
+        StringBuilder sb = new StringBuilder();
+        String row = "Participant Name,BSG1234567,scout,District 12,p@example.org,9876543210,Assam,";
+        while (sb.length() < blocks * 16)
+            sb.append(row);
+        return sb.substring(0, blocks * 16);
+    }
+
+    static SimCard blank(Keys keys) {
+        SimCard c = new SimCard();
+        if (keys == Keys.KEY_A_FF)
+            return c;
+        byte[] zero = new byte[6];
+        for (int s = 0; s < 16; s++) {
+            if (keys == Keys.KEY_A_00)
+                c.setTrailer(s, zero, SimCard.TRANSPORT_ACCESS, zero);
+            else // data and trailer only through key B (condition 011), key A unknown
+                c.setTrailer(s, new byte[] { 1, 2, 3, 4, 5, 6 }, SimCard.accessBits(3, 3, 3, 3, 0x69),
+                        SimCard.TRANSPORT_KEY);
+        }
+        return c;
+    }
+
+    /** A card already carrying text, written through the zero-latency prep reader. */
+    static SimCard written(SimTerminal prep, Keys keys, String text) {
+        SimCard c = blank(keys);
+        prep.insert(c);
+        try {
+            Card card = prep.connect("*");
+            try {
+                SmartMifareWriter.writeOnChannel(card.getBasicChannel(), text, MifareKeyManager.forTerminal(prep));
+            } finally {
+                card.disconnect(false);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("could not prepare card: " + e.getMessage(), e);
+        } finally {
+            prep.remove();
+        }
+        return c;
+    }
+}
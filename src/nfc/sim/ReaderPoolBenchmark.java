@@ -0,0 +1,78 @@
+package nfc.sim;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import nfc.ParticipantCodec;
+import nfc.ReaderPool;
+import nfc.SmartMifareWriter;
+
+/**
+ * Batch-write throughput of {@link ReaderPool} with 1, 2 and 4 simulated
+ * readers: a queue of participant rows is submitted and each reader's
+ * worker writes the next row to whatever card is put on it.
+ *
+ * Readers use the ACR122U-like latency profile of {@link NfcBenchmark}.
+ * Each card is put down tapDelayMs after the previous one on the same
+ * reader was lifted (the operator's hand), so 0 measures the readers alone.
+ *
+ * Prints total cards per minute and the per-reader stats.
+ *
+ * CLI:
+ * java -cp "out;lib/*" nfc.sim.ReaderPoolBenchmark [cards] [tapDelayMs]
+ */
+public class ReaderPoolBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int cards = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        long tapMs = args.length > 1 ? Long.parseLong(args[1]) : 300;
+        System.out.println("Cards: " + cards + ", tap delay " + tapMs + " ms");
+
+        String[] fields = new String[ParticipantCodec.FIELD_NAMES.size()];
+        String[] values = { "Participant Name", "BSG1234567", "scout", "District 12", "p@example.org", "9876543210",
+                "Assam", "Member", "Unit 7", "scout", "2010-05-01", "15" };
+        System.arraycopy(values, 0, fields, 0, fields.length);
+
+        double single = 0;
+        for (int n : new int[] { 1, 2, 4 }) {
+            List<SimTerminal> readers = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                SimTerminal r = new SimTerminal("Simulated ACR122U " + i);
+                r.setLatency(0xCA, 4, TimeUnit.MILLISECONDS);
+                r.setLatency(0x82, 2, TimeUnit.MILLISECONDS);
+                r.setLatency(0x86, 6, TimeUnit.MILLISECONDS);
+                r.setLatency(0xB0, 6, TimeUnit.MILLISECONDS);
+                r.setLatency(0xD6, 12, TimeUnit.MILLISECONDS);
+                r.setAutoTap(SimCard::new, tapMs);
+                readers.add(r);
+            }
+            try (ReaderPool pool = new ReaderPool(readers)) {
+                // warm-up: one card per reader
+                run(pool, fields, n);
+                long t0 = System.nanoTime();
+                run(pool, fields, cards);
+                double secs = (System.nanoTime() - t0) / 1e9;
+                double perMin = cards * 60 / secs;
+                if (n == 1)
+                    single = perMin;
+                System.out.printf("%d reader(s): %d cards in %.2f s = %.0f cards/min (x%.2f)%n", n, cards, secs,
+                        perMin, perMin / single);
+                for (ReaderPool.ReaderStats s : pool.stats())
+                    System.out.println("  " + s);
+                for (ReaderPool.QueueStats s : pool.queueStats())
+                    if (s.submitted > 0)
+                        System.out.println("  " + s);
+            }
+            for (SimTerminal r : readers)
+                r.setAutoTap(null, 0);
+        }
+    }
+
+    static void run(ReaderPool pool, String[] fields, int cards) throws Exception {
+        List<ReaderPool.Ticket<SmartMifareWriter.WriteResult>> tickets = new ArrayList<>();
+        for (int i = 0; i < cards; i++)
+            tickets.add(pool.submitWrite(fields));
+        for (ReaderPool.Ticket<SmartMifareWriter.WriteResult> t : tickets)
+            t.result().get();
+    }
+}
@@ -0,0 +1,192 @@
+package nfc.sim;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Memory model of a MIFARE Classic 1K card: 16 sectors of 4 blocks, the
+ * last block of each being the sector trailer (key A, access bits, general
+ * purpose byte, key B).
+ *
+ * Access is enforced the way the card does it: the access bits of a sector
+ * give each block a condition C1C2C3 that decides whether key A and/or key
+ * B may read or write it, key A never reads back (zeros), and key B cannot
+ * authenticate while the trailer lets it be read. Block 0 (manufacturer
+ * data) is read-only. Trailer writes with inconsistent access bits are
+ * refused rather than bricking the sector.
+ *
+ * New cards carry transport configuration: both keys FFFFFFFFFFFF and
+ * access bits FF 07 80 (key A reads and writes everything, key B is
+ * readable and so unusable).
+ */
+public final class SimCard {
+
+    public static final int BLOCKS = 64;
+    public static final int BLOCK_SIZE = 16;
+    public static final byte KEY_A = 0x60;
+    public static final byte KEY_B = 0x61;
+
+    public static final byte[] TRANSPORT_KEY = { -1, -1, -1, -1, -1, -1 };
+    /** Access bytes 6..9 of a transport trailer (conditions 000/000/000/001, GPB 0x69). */
+    public static final byte[] TRANSPORT_ACCESS = { (byte) 0xFF, 0x07, (byte) 0x80, 0x69 };
+
+    private final byte[] uid;
+    private final byte[][] mem = new byte[BLOCKS][];
+
+    public SimCard() {
+        this(randomUid());
+    }
+
+    public SimCard(byte[] uid) {
+        if (uid == null || (uid.length != 4 && uid.length != 7))
+            throw new IllegalArgumentException("UID must be 4 or 7 bytes");
+        this.uid = uid.clone();
+        for (int b = 0; b < BLOCKS; b++)
+            mem[b] = new byte[BLOCK_SIZE];
+        System.arraycopy(uid, 0, mem[0], 0, uid.length);
+        if (uid.length == 4)
+            mem[0][4] = (byte) (uid[0] ^ uid[1] ^ uid[2] ^ uid[3]); // BCC
+        mem[0][5] = 0x08; // SAK of a 1K card
+        for (int s = 0; s < 16; s++)
+            setTrailer(s, TRANSPORT_KEY, TRANSPORT_ACCESS, TRANSPORT_KEY);
+    }
+
+    public static byte[] randomUid() {
+        byte[] u = new byte[4];
+        ThreadLocalRandom.current().nextBytes(u);
+        return u;
+    }
+
+    public byte[] uid() {
+        return uid.clone();
+    }
+
+    /** Raw block contents, ignoring access rules (for tests). */
+    public synchronized byte[] block(int block) {
+        return mem[block].clone();
+    }
+
+    /** Set raw block contents, ignoring access rules (for tests). */
+    public synchronized void setBlock(int block, byte[] data) {
+        if (data.length != BLOCK_SIZE)
+            throw new IllegalArgumentException("block must be 16 bytes");
+        mem[block] = data.clone();
+    }
+
+    /** Configure a sector trailer directly, as a card personaliser would. */
+    public synchronized void setTrailer(int sector, byte[] keyA, byte[] access, byte[] keyB) {
+        if (!validAccess(access))
+            throw new IllegalArgumentException("inconsistent access bits for sector " + sector);
+        byte[] t = new byte[BLOCK_SIZE];
+        System.arraycopy(keyA, 0, t, 0, 6);
+        System.arraycopy(access, 0, t, 6, 4);
+        System.arraycopy(keyB, 0, t, 10, 6);
+        mem[sector * 4 + 3] = t;
+    }
+
+    /**
+     * Access bytes 6..9 for the given C1C2C3 conditions (each 0..7, written
+     * as the three bits C1 C2 C3) of blocks 0, 1, 2 and the trailer.
+     */
+    public static byte[] accessBits(int b0, int b1, int b2, int trailer, int gpb) {
+        int[] c = { b0, b1, b2, trailer };
+        int c1 = 0, c2 = 0, c3 = 0;
+        for (int i = 0; i < 4; i++) {
+            c1 |= ((c[i] >> 2) & 1) << i;
+            c2 |= ((c[i] >> 1) & 1) << i;
+            c3 |= (c[i] & 1) << i;
+        }
+        return new byte[] { (byte) ((~c2 & 0xF) << 4 | (~c1 & 0xF)), (byte) (c1 << 4 | (~c3 & 0xF)),
+                (byte) (c3 << 4 | c2), (byte) gpb };
+    }
+
+    // ---------------- card operations (used by SimTerminal) ----------------
+
+    /** Three-bit access condition C1C2C3 of block (0..3) of a sector. */
+    synchronized int condition(int sector, int blockInSector) {
+        byte[] t = mem[sector * 4 + 3];
+        int c1 = (t[7] >> (4 + blockInSector)) & 1;
+        int c2 = (t[8] >> blockInSector) & 1;
+        int c3 = (t[8] >> (4 + blockInSector)) & 1;
+        return c1 << 2 | c2 << 1 | c3;
+    }
+
+    synchronized boolean authenticate(int sector, byte keyType, byte[] key) {
+        byte[] t = mem[sector * 4 + 3];
+        if (keyType == KEY_A)
+            return Arrays.equals(key, Arrays.copyOfRange(t, 0, 6));
+        if (keyType == KEY_B)
+            return !keyBReadable(condition(sector, 3)) && Arrays.equals(key, Arrays.copyOfRange(t, 10, 16));
+        return false;
+    }
+
+    /** Block contents as the card returns them, or null if access is denied. */
+    synchronized byte[] read(int block, byte keyType) {
+        int sector = block / 4, inSector = block % 4;
+        int cond = condition(sector, inSector);
+        if (inSector != 3)
+            return allowed(DATA_READ[cond], keyType) ? mem[block].clone() : null;
+
+        byte[] t = mem[block];
+        byte[] out = new byte[BLOCK_SIZE]; // key A always reads as zeros
+        if (allowed(TRAILER_ACCESS_READ[cond], keyType))
+            System.arraycopy(t, 6, out, 6, 4);
+        if (allowed(TRAILER_KEYB_READ[cond], keyType))
+            System.arraycopy(t, 10, out, 10, 6);
+        return out;
+    }
+
+    /** Store a block if the access conditions allow it. */
+    synchronized boolean write(int block, byte[] data, byte keyType) {
+        if (block == 0)
+            return false;
+        int sector = block / 4, inSector = block % 4;
+        int cond = condition(sector, inSector);
+        if (inSector != 3) {
+            if (!allowed(DATA_WRITE[cond], keyType))
+                return false;
+            mem[block] = data.clone();
+            return true;
+        }
+
+        byte[] t = mem[block];
+        byte[] access = Arrays.copyOfRange(data, 6, 10);
+        if (!validAccess(access))
+            return false;
+        if (!Arrays.equals(Arrays.copyOfRange(data, 0, 6), Arrays.copyOfRange(t, 0, 6))
+                && !allowed(TRAILER_KEYA_WRITE[cond], keyType))
+            return false;
+        if (!Arrays.equals(access, Arrays.copyOfRange(t, 6, 10)) && !allowed(TRAILER_ACCESS_WRITE[cond], keyType))
+            return false;
+        if (!Arrays.equals(Arrays.copyOfRange(data, 10, 16), Arrays.copyOfRange(t, 10, 16))
+                && !allowed(TRAILER_KEYB_WRITE[cond], keyType))
+            return false;
+        mem[block] = data.clone();
+        return true;
+    }
+
+    // Permission tables indexed by condition C1C2C3: bit 1 = key A, bit 2 = key B.
+    private static final int A = 1, B = 2, AB = 3, NEVER = 0;
+    private static final int[] DATA_READ = { AB, AB, AB, B, AB, B, AB, NEVER };
+    private static final int[] DATA_WRITE = { AB, NEVER, NEVER, B, B, NEVER, B, NEVER };
+    private static final int[] TRAILER_KEYA_WRITE = { A, A, NEVER, B, B, NEVER, NEVER, NEVER };
+    private static final int[] TRAILER_ACCESS_READ = { A, A, A, AB, AB, AB, AB, AB };
+    private static final int[] TRAILER_ACCESS_WRITE = { NEVER, A, NEVER, B, NEVER, B, NEVER, NEVER };
+    private static final int[] TRAILER_KEYB_READ = { A, A, A, NEVER, NEVER, NEVER, NEVER, NEVER };
+    private static final int[] TRAILER_KEYB_WRITE = { A, A, NEVER, B, B, NEVER, NEVER, NEVER };
+
+    private static boolean keyBReadable(int trailerCondition) {
+        return TRAILER_KEYB_READ[trailerCondition] != NEVER;
+    }
+
+    private static boolean allowed(int rule, byte keyType) {
+        return (rule & (keyType == KEY_A ? A : B)) != 0;
+    }
+
+    /** Access bytes carry every bit twice (once inverted); anything else bricks a real sector. */
+    private static boolean validAccess(byte[] a) {
+        int b6 = a[0] & 0xFF, b7 = a[1] & 0xFF, b8 = a[2] & 0xFF;
+        int c1 = b7 >> 4, c2 = b8 & 0xF, c3 = b8 >> 4;
+        return (~b6 & 0xF) == c1 && ((~b6 >> 4) & 0xF) == c2 && (~b7 & 0xF) == c3;
+    }
+}
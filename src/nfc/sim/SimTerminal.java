@@ -0,0 +1,523 @@
+package nfc.sim;
+
+import javax.smartcardio.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * A simulated PC/SC reader (ACR122U style) holding at most one
+ * {@link SimCard}.
+ *
+ * It answers the pseudo-APDUs the NFC classes send: FF CA (UID), FF 82
+ * (load key into a volatile slot; slots survive from card to card), FF 86
+ * (authenticate a sector with a slot, key A or B), FF B0 (read block; with
+ * {@link #setMultiBlockRead} also 2-3 blocks of one sector) and FF D6
+ * (write block). Reads and writes outside the authenticated sector, or not
+ * allowed by the sector's access bits, return 63 00 as a reader does.
+ *
+ * Cards are placed and taken away with {@link #insert} and {@link #remove},
+ * or automatically with {@link #setAutoTap}: a wait for a card then inserts
+ * the next card from the supplier (a fresh card per tap, or the same one)
+ * once the tap delay has passed since the first wait, and a wait for
+ * absence lifts it.
+ *
+ * Connections are shared as in PC/SC shared mode: several may be open on
+ * one card and the authenticated sector belongs to the card, not to a
+ * connection; it is reset when the last one disconnects.
+ *
+ * Each APDU costs the configured latency (per instruction if set), spent
+ * outside the reader lock. Faults are injected with {@link #failNext},
+ * {@link #corruptNextWrite}, {@link #removeAfter} and {@link #setFailureRate}.
+ */
+public final class SimTerminal extends CardTerminal {
+
+    public static final int DEFAULT_SLOTS = 2;
+    private static final byte[] ATR = hex("3B8F8001804F0CA000000306030001000000006A");
+
+    private final String name;
+    private final byte[][] slots;
+
+    // card state, guarded by this
+    private SimCard card;
+    private final Set<SimConnection> connections = new HashSet<>(); // shared mode: several handles per card
+    private int authSector = -1;
+    private byte authType;
+    private long insertions;
+    private long removals;
+    private boolean unplugged;
+
+    // options
+    private volatile long latencyNanos;
+    private final Map<Integer, Long> latencyByIns = new HashMap<>();
+    private volatile boolean multiBlockRead;
+    private volatile Supplier<SimCard> autoTap;
+    private volatile long tapDelayMs;
+    private long tapDue; // nanoTime the next auto-tap lands, 0 = not yet waited for; guarded by this
+
+    // faults, guarded by this
+    private final Map<Integer, int[]> failNext = new HashMap<>(); // ins -> {sw, remaining}
+    private int corruptWrites;
+    private int removeAfter = -1;
+    private double failureRate;
+    private Random random = new Random(1);
+
+    // counters, guarded by this
+    private final Map<Integer, Long> apdusByIns = new TreeMap<>();
+    private long apdus;
+
+    public SimTerminal(String name) {
+        this(name, DEFAULT_SLOTS);
+    }
+
+    public SimTerminal(String name, int keySlots) {
+        this.name = name;
+        this.slots = new byte[keySlots][];
+    }
+
+    // ---------------- configuration ----------------
+
+    /** Latency added to every APDU. */
+    public void setLatency(long duration, TimeUnit unit) {
+        latencyNanos = unit.toNanos(duration);
+    }
+
+    /** Latency for one instruction (0xB0, 0xD6, ...), overriding the default. */
+    public synchronized void setLatency(int ins, long duration, TimeUnit unit) {
+        latencyByIns.put(ins & 0xFF, unit.toNanos(duration));
+    }
+
+    /** Let FF B0 read up to three blocks of one sector (Le 0x20 / 0x30). */
+    public void setMultiBlockRead(boolean on) {
+        multiBlockRead = on;
+    }
+
+    /**
+     * Tap cards automatically: waiting for a card inserts cards.get() after
+     * tapDelayMs, waiting for absence removes it. null turns it off.
+     */
+    public void setAutoTap(Supplier<SimCard> cards, long tapDelayMs) {
+        this.tapDelayMs = tapDelayMs;
+        this.autoTap = cards;
+    }
+
+    // ---------------- card events ----------------
+
+    public synchronized void insert(SimCard c) {
+        if (card != null)
+            throw new IllegalStateException("a card is already on " + name);
+        card = Objects.requireNonNull(c);
+        tapDue = 0;
+        insertions++;
+        resetSession();
+        notifyAll();
+        MifareSimulator.changed();
+    }
+
+    /** Take the card away; open connections fail from now on. */
+    public synchronized SimCard remove() {
+        SimCard c = card;
+        if (c == null)
+            return null;
+        card = null;
+        removals++;
+        resetSession();
+        connections.clear();
+        notifyAll();
+        MifareSimulator.changed();
+        return c;
+    }
+
+    public synchronized SimCard card() {
+        return card;
+    }
+
+    /** Plugged out of (or back into) the simulator; an unplugged reader fails every call. */
+    synchronized void setUnplugged(boolean u) {
+        unplugged = u;
+        notifyAll();
+    }
+
+    private synchronized void checkPlugged() throws CardException {
+        if (unplugged)
+            throw new CardException("Reader " + name + " is not connected");
+    }
+
+    synchronized long insertions() {
+        return insertions;
+    }
+
+    synchronized long removals() {
+        return removals;
+    }
+
+    // ---------------- faults ----------------
+
+    /** The next times APDUs with instruction ins answer sw instead. */
+    public synchronized void failNext(int ins, int sw, int times) {
+        failNext.put(ins & 0xFF, new int[] { sw, times });
+    }
+
+    /** The next writes are acknowledged but store the data with a bit flipped. */
+    public synchronized void corruptNextWrite(int writes) {
+        corruptWrites = writes;
+    }
+
+    /** Remove the card after this many more APDUs (as if lifted mid-operation). */
+    public synchronized void removeAfter(int apdus) {
+        removeAfter = apdus;
+    }
+
+    /** Answer a random fraction of APDUs with 63 00. */
+    public synchronized void setFailureRate(double rate, long seed) {
+        failureRate = rate;
+        random = new Random(seed);
+    }
+
+    public synchronized void clearFaults() {
+        failNext.clear();
+        corruptWrites = 0;
+        removeAfter = -1;
+        failureRate = 0;
+    }
+
+    // ---------------- counters ----------------
+
+    public synchronized long apduCount() {
+        return apdus;
+    }
+
+    /** APDUs sent, by instruction byte. */
+    public synchronized Map<Integer, Long> apduCounts() {
+        return new TreeMap<>(apdusByIns);
+    }
+
+    public synchronized void resetCounts() {
+        apdus = 0;
+        apdusByIns.clear();
+    }
+
+    /** Forget the loaded keys, as when the reader is unplugged. */
+    public synchronized void clearKeySlots() {
+        Arrays.fill(slots, null);
+    }
+
+    // ---------------- CardTerminal ----------------
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public synchronized Card connect(String protocol) throws CardException {
+        checkPlugged();
+        if (card == null)
+            throw new CardNotPresentException("No card present on " + name);
+        if (!"*".equals(protocol) && !"T=1".equalsIgnoreCase(protocol) && !"T=0".equalsIgnoreCase(protocol))
+            throw new IllegalArgumentException("Unsupported protocol " + protocol);
+        if (connections.isEmpty())
+            resetSession();
+        SimConnection c = new SimConnection(card);
+        connections.add(c);
+        return c;
+    }
+
+    @Override
+    public synchronized boolean isCardPresent() {
+        return card != null;
+    }
+
+    @Override
+    public boolean waitForCardPresent(long timeout) throws CardException {
+        if (timeout < 0)
+            throw new IllegalArgumentException("timeout < 0");
+        checkPlugged();
+        Supplier<SimCard> tap = autoTap;
+        if (tap != null && !isCardPresent()) {
+            // the tap lands tapDelayMs after the first wait, however the wait is split up
+            long due;
+            synchronized (this) {
+                if (tapDue == 0)
+                    tapDue = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(tapDelayMs);
+                due = tapDue;
+            }
+            long left = due - System.nanoTime();
+            if (timeout != 0 && left > TimeUnit.MILLISECONDS.toNanos(timeout)) {
+                sleep(TimeUnit.MILLISECONDS.toNanos(timeout));
+                return isCardPresent();
+            }
+            sleep(left);
+            synchronized (this) {
+                if (card == null)
+                    insert(tap.get());
+            }
+            return true;
+        }
+        return await(true, timeout);
+    }
+
+    @Override
+    public boolean waitForCardAbsent(long timeout) throws CardException {
+        if (timeout < 0)
+            throw new IllegalArgumentException("timeout < 0");
+        checkPlugged();
+        if (autoTap != null) {
+            remove();
+            return true;
+        }
+        return await(false, timeout);
+    }
+
+    private synchronized boolean await(boolean present, long timeout) throws CardException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while ((card != null) != present) {
+            checkPlugged();
+            long left = timeout == 0 ? 0 : deadline - System.currentTimeMillis();
+            if (timeout != 0 && left <= 0)
+                return false;
+            try {
+                wait(left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CardException("interrupted");
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "SimTerminal[" + name + "]";
+    }
+
+    // ---------------- APDU processing ----------------
+
+    private void resetSession() {
+        authSector = -1;
+    }
+
+    private ResponseAPDU transmit(SimConnection from, byte[] apdu) throws CardException {
+        int ins = apdu.length > 1 ? apdu[1] & 0xFF : 0;
+        long lat;
+        synchronized (this) {
+            lat = latencyByIns.getOrDefault(ins, latencyNanos);
+        }
+        sleep(lat);
+
+        synchronized (this) {
+            if (from.disconnected)
+                throw new IllegalStateException("Card has been disconnected");
+            checkPlugged();
+            if (!connections.contains(from) || card == null)
+                throw new CardException("Card removed");
+            apdus++;
+            apdusByIns.merge(ins, 1L, Long::sum);
+
+            if (removeAfter == 0) {
+                removeAfter = -1;
+                remove();
+                throw new CardException("Card removed");
+            }
+            if (removeAfter > 0)
+                removeAfter--;
+            int[] f = failNext.get(ins);
+            if (f != null && f[1] > 0) {
+                if (--f[1] == 0)
+                    failNext.remove(ins);
+                return sw(f[0]);
+            }
+            if (failureRate > 0 && random.nextDouble() < failureRate)
+                return sw(0x6300);
+            return process(apdu);
+        }
+    }
+
+    private ResponseAPDU process(byte[] a) {
+        if (a.length < 4 || (a[0] & 0xFF) != 0xFF)
+            return sw(0x6E00);
+        int ins = a[1] & 0xFF;
+        switch (ins) {
+            case 0xCA: {
+                byte[] uid = card.uid();
+                return data(uid);
+            }
+            case 0x82: {
+                int slot = a[3] & 0xFF;
+                if (a.length < 11 || (a[4] & 0xFF) != 6)
+                    return sw(0x6700);
+                if (slot >= slots.length)
+                    return sw(0x6300);
+                slots[slot] = Arrays.copyOfRange(a, 5, 11);
+                return sw(0x9000);
+            }
+            case 0x86: {
+                if (a.length < 10 || (a[4] & 0xFF) != 5)
+                    return sw(0x6700);
+                int block = a[7] & 0xFF;
+                byte type = a[8];
+                int slot = a[9] & 0xFF;
+                authSector = -1;
+                if (block >= SimCard.BLOCKS || slot >= slots.length || slots[slot] == null)
+                    return sw(0x6300);
+                if (!card.authenticate(block / 4, type, slots[slot]))
+                    return sw(0x6300);
+                authSector = block / 4;
+                authType = type;
+                return sw(0x9000);
+            }
+            case 0xB0: {
+                int block = a[3] & 0xFF;
+                int le = a.length > 4 ? a[4] & 0xFF : 16;
+                int n = le == 0 ? 1 : le / 16;
+                if (le % 16 != 0 || n < 1 || n > 3 || (n > 1 && !multiBlockRead))
+                    return sw(0x6700);
+                if (block + n - 1 >= SimCard.BLOCKS || (block + n - 1) / 4 != block / 4 || block / 4 != authSector)
+                    return sw(0x6300);
+                byte[] out = new byte[16 * n];
+                for (int i = 0; i < n; i++) {
+                    byte[] d = card.read(block + i, authType);
+                    if (d == null)
+                        return sw(0x6300);
+                    System.arraycopy(d, 0, out, 16 * i, 16);
+                }
+                return data(out);
+            }
+            case 0xD6: {
+                int block = a[3] & 0xFF;
+                if (a.length < 21 || (a[4] & 0xFF) != 16)
+                    return sw(0x6700);
+                if (block >= SimCard.BLOCKS || block / 4 != authSector)
+                    return sw(0x6300);
+                byte[] d = Arrays.copyOfRange(a, 5, 21);
+                if (corruptWrites > 0 && block % 4 != 3) {
+                    corruptWrites--;
+                    d[0] ^= 1;
+                }
+                return sw(card.write(block, d, authType) ? 0x9000 : 0x6300);
+            }
+            default:
+                return sw(0x6A81);
+        }
+    }
+
+    private static ResponseAPDU sw(int sw) {
+        return new ResponseAPDU(new byte[] { (byte) (sw >> 8), (byte) sw });
+    }
+
+    private static ResponseAPDU data(byte[] d) {
+        byte[] r = Arrays.copyOf(d, d.length + 2);
+        r[d.length] = (byte) 0x90;
+        return new ResponseAPDU(r);
+    }
+
+    private static void sleep(long nanos) {
+        long end = System.nanoTime() + nanos;
+        for (long left = nanos; left > 0; left = end - System.nanoTime())
+            LockSupport.parkNanos(left);
+    }
+
+    private static byte[] hex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++)
+            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        return out;
+    }
+
+    /** A connection to the card on this terminal. */
+    private final class SimConnection extends Card {
+        private final SimCard connected;
+        private final SimChannel channel = new SimChannel(this);
+        private volatile boolean disconnected;
+
+        SimConnection(SimCard connected) {
+            this.connected = connected;
+        }
+
+        @Override
+        public ATR getATR() {
+            return new ATR(ATR);
+        }
+
+        @Override
+        public String getProtocol() {
+            return "T=1";
+        }
+
+        @Override
+        public CardChannel getBasicChannel() {
+            return channel;
+        }
+
+        @Override
+        public CardChannel openLogicalChannel() throws CardException {
+            throw new CardException("Logical channels are not supported");
+        }
+
+        @Override
+        public void beginExclusive() {
+        }
+
+        @Override
+        public void endExclusive() {
+        }
+
+        @Override
+        public byte[] transmitControlCommand(int controlCode, byte[] command) throws CardException {
+            throw new CardException("Control commands are not supported");
+        }
+
+        @Override
+        public void disconnect(boolean reset) {
+            disconnected = true;
+            synchronized (SimTerminal.this) {
+                if (connections.remove(this) && connections.isEmpty())
+                    resetSession();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "SimCard[" + name + ", uid=" + Arrays.toString(connected.uid()) + "]";
+        }
+    }
+
+    private final class SimChannel extends CardChannel {
+        private final SimConnection card;
+
+        SimChannel(SimConnection card) {
+            this.card = card;
+        }
+
+        @Override
+        public Card getCard() {
+            return card;
+        }
+
+        @Override
+        public int getChannelNumber() {
+            return 0;
+        }
+
+        @Override
+        public ResponseAPDU transmit(CommandAPDU command) throws CardException {
+            return SimTerminal.this.transmit(card, command.getBytes());
+        }
+
+        @Override
+        public int transmit(ByteBuffer command, ByteBuffer response) throws CardException {
+            byte[] a = new byte[command.remaining()];
+            command.get(a);
+            byte[] r = SimTerminal.this.transmit(card, a).getBytes();
+            response.put(r);
+            return r.length;
+        }
+
+        @Override
+        public void close() throws CardException {
+            throw new IllegalStateException("Cannot close the basic channel");
+        }
+    }
+}
@@ -13,6 +13,11 @@ import javafx.scene.layout.GridPane;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.util.Pair;
+import db.AccessDb;
+import nfc.CardDebounce;
+import nfc.NfcService;
+import nfc.ParticipantIndex;
+import nfc.ReaderPool;
 import nfc.SmartMifareReader;
 
 import java.nio.file.Files;
@@ -23,14 +28,31 @@ import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.function.BiConsumer;
 
 /**
  * AttendancePage: reads NFC card and displays UID, Name, Time, Date, Location
  * in a table sized to occupy available space.
+ *
+ * In {@link Mode#UID} (the default) only the card's UID is read and the
+ * participant is looked up in {@link ParticipantIndex}; the card's data is
+ * read only for cards the index does not know. attendance-mode.txt in the
+ * working directory set to CARD reads every card in full.
  */
 public class AttendancePage {
 
+    public static final String MODE_FILE = "attendance-mode.txt";
+    /** Reload the participant index in the background when it is older than this. */
+    static final long INDEX_RELOAD_MS = 60_000;
+
+    public enum Mode {
+        /** UID, then the participant index; the card's data only on a miss. */
+        UID,
+        /** The card's data every time. */
+        CARD
+    }
+
     /**
      * Create the attendance UI. Caller can set it into the scene via
      * setContent(AttendancePage.create()).
@@ -58,11 +80,18 @@ public class AttendancePage {
 
         root.getChildren().add(status);
 
+        Mode mode = mode();
+        if (mode == Mode.UID && ParticipantIndex.shared().age() > INDEX_RELOAD_MS)
+            AccessDb.loadParticipantIndexAsync();
+
         // Start background thread to read NFC card and update UI
         new Thread(() -> {
-            // blocking read (10s timeout)
-            SmartMifareReader.ReadResult rr = SmartMifareReader.readUIDWithData(10_000);
+            // blocking read (10s timeout) of a card tapped on any reader
+            SmartMifareReader.ReadResult rr = readAnyReader(mode, 10_000);
             String uid = (rr == null) ? "" : rr.uid;
+            // a second tap of the same card within the attendance window is shown, not counted again
+            boolean repeat = rr != null && rr.uid != null && !rr.uid.isEmpty()
+                    && !CardDebounce.of(CardDebounce.Use.ATTENDANCE).accept(rr.uid);
 
             LocalDate nowDate = LocalDate.now();
             LocalTime nowTime = LocalTime.now();
@@ -179,7 +208,7 @@ public class AttendancePage {
                 sp.setMaxSize(Double.MAX_VALUE, Double.MAX_VALUE);
 
                 // Header label
-                Label header = new Label("Attendance Entry");
+                Label header = new Label(repeat ? "Attendance Entry (already marked)" : "Attendance Entry");
                 header.setStyle("""
                             -fx-font-weight: bold;
                             -fx-text-fill: #1565C0;
@@ -242,9 +271,49 @@ public class AttendancePage {
         return root;
     }
 
-    // Try to extract name from rr.data (CSV first, then key:value/key=value)
+    /** The station's mode from {@link #MODE_FILE}, {@link Mode#UID} if absent or unreadable. */
+    static Mode mode() {
+        try {
+            Path p = Paths.get(MODE_FILE);
+            if (Files.exists(p))
+                return Mode.valueOf(Files.readString(p).trim().toUpperCase(Locale.ROOT));
+        } catch (Exception ex) {
+            System.err.println("AttendancePage: bad " + MODE_FILE + " (" + ex.getMessage() + "), using UID");
+        }
+        return Mode.UID;
+    }
+
+    /** The next card tapped on any attached reader, or null on timeout / error. */
+    private static SmartMifareReader.ReadResult readAnyReader(Mode mode, long timeoutMs) {
+        try {
+            ParticipantIndex index = ParticipantIndex.shared();
+            ReaderPool.Ticket<SmartMifareReader.ReadResult> ticket = NfcService
+                    .attendanceRead(mode == Mode.UID ? index::get : null, timeoutMs);
+            // not taken: withdrawn here or timed out in the queue (a reader may have taken it just now)
+            if (!ticket.awaitTaken(timeoutMs) && (ticket.cancel() || ticket.reader() == null))
+                return null;
+            SmartMifareReader.ReadResult rr = NfcService.await(ticket);
+            // a card read in full because the index missed it: known from now on
+            if (mode == Mode.UID && rr != null && !rr.field("FullName").isEmpty())
+                index.put(rr.uid, rr.fields);
+            return rr;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception ex) {
+            System.err.println("AttendancePage: read failed: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    // Try to extract name from rr.fields, then rr.data (key:value/key=value)
     private static String extractName(SmartMifareReader.ReadResult rr) {
-        if (rr == null || rr.data == null || rr.data.trim().isEmpty())
+        if (rr == null)
+            return "";
+        String decoded = rr.field("FullName");
+        if (!decoded.isEmpty())
+            return decoded;
+        if (rr.data == null || rr.data.trim().isEmpty())
             return "";
         String data = rr.data.trim();
 
@@ -1,6 +1,9 @@
 package ui;
 
 import db.AccessDb;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.*;
@@ -8,13 +11,17 @@ import javafx.scene.layout.*;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.stage.Window;
+import javafx.util.Duration;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Styled dialog that asks for State and Excel Category, then fetches matching
  * rows.
+ * A COUNT(*) preview of the matching rows is refreshed (debounced, off the UI
+ * thread) as the filters change.
  * OK is enabled when:
  * - state is non-empty OR
  * - category is non-empty OR
@@ -37,8 +44,13 @@ public final class BatchFilterDialog {
         }
     }
 
-    /** Show the dialog and fetch rows. Returns null if cancelled or none found. */
-    public static List<Map<String, String>> showAndFetch(Window owner) {
+    /**
+     * Show the dialog, then open a paged batch (count + first page) in the
+     * background behind a cancellable progress dialog. onReady is called on the
+     * JavaFX thread with the rows; it is not called if the user cancels, the
+     * fetch fails or nothing matches.
+     */
+    public static void showAndFetch(Window owner, Consumer<BatchRows> onReady) {
         Dialog<Result> dlg = new Dialog<>();
         dlg.setTitle("Batch Filter");
         if (owner != null)
@@ -74,6 +86,10 @@ public final class BatchFilterDialog {
         grid.add(categoryField, 1, 1);
         grid.add(onlyF, 1, 2);
 
+        Label countLbl = new Label("Matching rows: …");
+        countLbl.setStyle("-fx-text-fill:#424242;");
+        grid.add(countLbl, 1, 3);
+
         VBox box = new VBox(12, title, grid);
         box.setAlignment(Pos.CENTER_LEFT);
         box.setPadding(new Insets(12));
@@ -87,6 +103,37 @@ public final class BatchFilterDialog {
                         .and(categoryField.textProperty().isEmpty())
                         .and(onlyF.selectedProperty().not()));
 
+        // COUNT(*) preview: debounce keystrokes, run the query on a worker thread
+        // and drop results that arrive after a newer query was started
+        AtomicInteger generation = new AtomicInteger();
+        PauseTransition debounce = new PauseTransition(Duration.millis(350));
+        debounce.setOnFinished(ev -> {
+            int gen = generation.incrementAndGet();
+            String st = opt(stateField.getText());
+            String cat = opt(categoryField.getText());
+            boolean f = onlyF.isSelected();
+            countLbl.setText("Matching rows: counting…");
+            Thread th = new Thread(() -> {
+                String text;
+                try {
+                    text = "Matching rows: " + AccessDb.countParticipantsByStateAndCategory(st, cat, f);
+                } catch (Exception ex) {
+                    text = "Matching rows: (count failed: " + ex.getMessage() + ")";
+                }
+                final String shown = text;
+                Platform.runLater(() -> {
+                    if (gen == generation.get())
+                        countLbl.setText(shown);
+                });
+            }, "batch-count-thread");
+            th.setDaemon(true);
+            th.start();
+        });
+        stateField.textProperty().addListener((o, a, b) -> debounce.playFromStart());
+        categoryField.textProperty().addListener((o, a, b) -> debounce.playFromStart());
+        onlyF.selectedProperty().addListener((o, a, b) -> debounce.playFromStart());
+        debounce.playFromStart();
+
         dlg.setResultConverter(bt -> {
             if (bt == ButtonType.OK) {
                 return new Result(
@@ -99,27 +146,67 @@ public final class BatchFilterDialog {
 
         Optional<Result> res = dlg.showAndWait();
         if (res.isEmpty())
-            return null;
+            return;
 
         Result r = res.get();
-        try {
-            // AccessDb should implement LIKE & case-insensitivity internally
-            List<Map<String, String>> rows = AccessDb.fetchParticipantsByStateAndCategory(
-                    r.state, r.category, r.onlyStatusF);
 
+        // Open the batch (count + first page) on a background task; UCanAccess can
+        // take seconds to open and scan the DB, which must not block the UI thread.
+        Task<BatchRows> fetch = new Task<>() {
+            @Override
+            protected BatchRows call() throws Exception {
+                // AccessDb should implement LIKE & case-insensitivity internally
+                return BatchRows.open(r.state, r.category, r.onlyStatusF, BatchRows.DEFAULT_PAGE_SIZE);
+            }
+        };
+
+        Dialog<ButtonType> progress = new Dialog<>();
+        progress.setTitle("Batch Filter");
+        if (owner != null)
+            progress.initOwner(owner);
+        progress.getDialogPane().getButtonTypes().add(ButtonType.CANCEL);
+        ProgressIndicator spinner = new ProgressIndicator();
+        spinner.setPrefSize(36, 36);
+        Label loadingLbl = new Label("Loading matching participants…");
+        loadingLbl.setStyle(labelStyle);
+        HBox loadingBox = new HBox(14, spinner, loadingLbl);
+        loadingBox.setAlignment(Pos.CENTER_LEFT);
+        loadingBox.setPadding(new Insets(12));
+        progress.getDialogPane().setContent(loadingBox);
+
+        // closing the dialog any other way than task completion means "cancel"
+        boolean[] finished = new boolean[1];
+        progress.setOnHidden(ev -> {
+            if (!finished[0])
+                fetch.cancel();
+        });
+
+        fetch.setOnSucceeded(ev -> {
+            finished[0] = true;
+            progress.close();
+            BatchRows rows = fetch.getValue();
             if (rows == null || rows.isEmpty()) {
                 Alert a = new Alert(Alert.AlertType.INFORMATION, "No matching records.", ButtonType.OK);
                 a.setHeaderText(null);
                 a.showAndWait();
-                return null;
+                return;
             }
-            return rows;
-        } catch (Exception ex) {
-            Alert a = new Alert(Alert.AlertType.ERROR, "DB fetch failed: " + ex.getMessage(), ButtonType.OK);
+            onReady.accept(rows);
+        });
+        fetch.setOnFailed(ev -> {
+            finished[0] = true;
+            progress.close();
+            Throwable ex = fetch.getException();
+            Alert a = new Alert(Alert.AlertType.ERROR,
+                    "DB fetch failed: " + (ex == null ? "unknown error" : ex.getMessage()), ButtonType.OK);
             a.setHeaderText(null);
             a.showAndWait();
-            return null;
-        }
+        });
+
+        Thread th = new Thread(fetch, "batch-fetch-thread");
+        th.setDaemon(true);
+        th.start();
+        progress.show();
     }
 
     private static String opt(String s) {
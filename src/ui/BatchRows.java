@@ -0,0 +1,203 @@
+package ui;
+
+import db.AccessDb;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import javafx.concurrent.Task;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Rows for the batch screen, loaded one keyset page at a time from
+ * ParticipantsRecord.
+ *
+ * The first page is fetched up front (see {@link #open}); the remaining pages
+ * are streamed in by a background task started with {@link #startLoading()},
+ * so the operator can start on the first row while the rest arrive. All
+ * public methods must be called on the JavaFX thread, except {@link #open}.
+ */
+public final class BatchRows {
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    private final String state;
+    private final String category;
+    private final boolean onlyStatusF;
+    private final int pageSize;
+    private final int total;
+
+    private final List<Map<String, String>> loaded = new ArrayList<>();
+    private Long lastKey;
+    private boolean moreOnServer;
+
+    private Task<Void> loader;
+    private String loadError;
+    private final List<Runnable> waiters = new ArrayList<>();
+    private final ReadOnlyDoubleWrapper progress = new ReadOnlyDoubleWrapper(1.0);
+    private final ReadOnlyBooleanWrapper loading = new ReadOnlyBooleanWrapper(false);
+
+    private BatchRows(String state, String category, boolean onlyStatusF, int pageSize, int total) {
+        this.state = state;
+        this.category = category;
+        this.onlyStatusF = onlyStatusF;
+        this.pageSize = pageSize;
+        this.total = total;
+    }
+
+    /** Wrap an already materialised list (no paging). */
+    public static BatchRows of(List<Map<String, String>> rows) {
+        List<Map<String, String>> src = rows == null ? Collections.emptyList() : rows;
+        BatchRows b = new BatchRows(null, null, false, Math.max(1, src.size()), src.size());
+        b.loaded.addAll(src);
+        return b;
+    }
+
+    /**
+     * Count matching rows and fetch the first page. Blocking: do not call on
+     * the JavaFX thread.
+     */
+    public static BatchRows open(String state, String category, boolean onlyStatusF, int pageSize)
+            throws SQLException {
+        int count = AccessDb.countParticipantsByStateAndCategory(state, category, onlyStatusF);
+        BatchRows b = new BatchRows(state, category, onlyStatusF, pageSize, count);
+        if (count > 0) {
+            AccessDb.ParticipantPage first = AccessDb.fetchParticipantsPage(state, category, onlyStatusF, null,
+                    pageSize);
+            b.loaded.addAll(first.rows);
+            b.lastKey = first.lastKey;
+            b.moreOnServer = first.hasMore;
+        }
+        b.progress.set(b.moreOnServer ? (double) b.loaded.size() / Math.max(1, count) : 1.0);
+        return b;
+    }
+
+    /** Row count reported by COUNT(*) when the batch was opened. */
+    public int total() {
+        return Math.max(total, loaded.size());
+    }
+
+    public int loadedCount() {
+        return loaded.size();
+    }
+
+    public boolean isEmpty() {
+        return loaded.isEmpty() && isEnd(0);
+    }
+
+    public boolean isLoaded(int index) {
+        return index >= 0 && index < loaded.size();
+    }
+
+    /** True if no row exists at index, now or after further pages arrive. */
+    public boolean isEnd(int index) {
+        return index >= loaded.size() && !moreOnServer;
+    }
+
+    public Map<String, String> get(int index) {
+        return loaded.get(index);
+    }
+
+    /** Fraction of the counted rows loaded so far (1.0 when done). */
+    public ReadOnlyDoubleProperty progressProperty() {
+        return progress.getReadOnlyProperty();
+    }
+
+    /** True while the background loader is streaming pages. */
+    public ReadOnlyBooleanProperty loadingProperty() {
+        return loading.getReadOnlyProperty();
+    }
+
+    /**
+     * Stream the remaining pages in on a background task. Each page is appended
+     * on the JavaFX thread as soon as it arrives. No-op if everything is
+     * already loaded or a loader is running.
+     */
+    public void startLoading() {
+        if (loader != null || !moreOnServer)
+            return;
+        final Long startKey = lastKey;
+        loader = new Task<>() {
+            @Override
+            protected Void call() throws Exception {
+                Long after = startKey;
+                boolean more = true;
+                while (more && !isCancelled()) {
+                    AccessDb.ParticipantPage page = AccessDb.fetchParticipantsPage(state, category, onlyStatusF,
+                            after, pageSize);
+                    if (isCancelled())
+                        break;
+                    after = page.lastKey;
+                    more = page.hasMore;
+                    Platform.runLater(() -> appendPage(page));
+                }
+                return null;
+            }
+        };
+        loader.setOnSucceeded(e -> finishLoading(null));
+        loader.setOnFailed(e -> {
+            Throwable ex = loader.getException();
+            finishLoading(ex == null ? "unknown error" : ex.getMessage());
+        });
+        loader.setOnCancelled(e -> finishLoading(null));
+        loading.set(true);
+
+        Thread th = new Thread(loader, "batch-loader-thread");
+        th.setDaemon(true);
+        th.start();
+    }
+
+    /**
+     * Stop streaming further pages. Rows already loaded stay available; the
+     * batch simply ends after them.
+     */
+    public void cancelLoading() {
+        if (loader != null && loader.isRunning())
+            loader.cancel();
+    }
+
+    /**
+     * Run onReady on the JavaFX thread once the row at index is loaded (or it is
+     * known not to exist). onError receives the loader's failure message.
+     */
+    public void whenLoaded(int index, Runnable onReady, Consumer<String> onError) {
+        if (isLoaded(index) || isEnd(index)) {
+            if (!isLoaded(index) && loadError != null && onError != null)
+                onError.accept(loadError);
+            else
+                onReady.run();
+            return;
+        }
+        startLoading();
+        waiters.add(() -> whenLoaded(index, onReady, onError));
+    }
+
+    private void appendPage(AccessDb.ParticipantPage page) {
+        if (!moreOnServer)
+            return; // cancelled while this page was in flight
+        loaded.addAll(page.rows);
+        lastKey = page.lastKey;
+        moreOnServer = page.hasMore;
+        progress.set(moreOnServer ? (double) loaded.size() / Math.max(1, total) : 1.0);
+        fireWaiters();
+    }
+
+    private void finishLoading(String error) {
+        // pages queued by runLater before completion have already been appended
+        loadError = error;
+        moreOnServer = false;
+        loading.set(false);
+        progress.set(1.0);
+        fireWaiters();
+    }
+
+    private void fireWaiters() {
+        List<Runnable> ready = new ArrayList<>(waiters);
+        waiters.clear();
+        ready.forEach(Runnable::run);
+    }
+}
@@ -1,9 +1,12 @@
 package ui;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 import db.AccessDb;
+import db.ParticipantImporter;
+import nfc.NfcService;
+import nfc.ParticipantCodec;
+import nfc.ReaderPool;
 import nfc.SmartMifareReader;
 import nfc.SmartMifareWriter;
 import javafx.application.Platform;
@@ -17,6 +20,8 @@ import javafx.scene.layout.*;
 import javafx.scene.text.Text;
 import javafx.util.Duration;
 import javafx.scene.Node;
+import javafx.stage.FileChooser;
+import java.io.File;
 
 public class Dashboard extends BorderPane {
 
@@ -29,6 +34,7 @@ public class Dashboard extends BorderPane {
         Button infoBtn = new Button("Information");
         Button batchBtn = new Button("Batch (Filter)");
         Button reportBtn = new Button("Report");
+        Button importBtn = new Button("Import CSV");
 
         // --- Common Button Style ---
         String btnStyle = """
@@ -53,23 +59,26 @@ public class Dashboard extends BorderPane {
                     -fx-effect: dropshadow(gaussian, rgba(0,0,0,0.3), 6, 0, 0, 2);
                 """;
 
-        for (Button btn : new Button[] { attendanceBtn, entryFormBtn, batchBtn, reportBtn, infoBtn }) {
+        for (Button btn : new Button[] { attendanceBtn, entryFormBtn, batchBtn, importBtn, reportBtn, infoBtn }) {
             btn.setStyle(btnStyle);
             btn.setOnMouseEntered(e -> btn.setStyle(hoverStyle));
             btn.setOnMouseExited(e -> btn.setStyle(btnStyle));
         }
 
         // --- Navbar Layout ---
-        HBox navBar = new HBox(20, attendanceBtn, entryFormBtn, batchBtn, reportBtn, infoBtn);
+        HBox navBar = new HBox(20, attendanceBtn, entryFormBtn, batchBtn, importBtn, reportBtn, infoBtn);
         navBar.setPadding(new Insets(15, 20, 15, 20));
         navBar.setStyle(
                 "-fx-background-color: linear-gradient(to bottom, #1565c0, #0d47a1); -fx-alignment: center; -fx-effect: dropshadow(gaussian, rgba(0,0,0,0.2), 8, 0, 0, 2);");
 
-        for (Button btn : new Button[] { attendanceBtn, entryFormBtn, batchBtn, reportBtn, infoBtn }) {
+        for (Button btn : new Button[] { attendanceBtn, entryFormBtn, batchBtn, importBtn, reportBtn, infoBtn }) {
             HBox.setHgrow(btn, Priority.ALWAYS);
             btn.setMaxWidth(Double.MAX_VALUE);
         }
 
+        // load the issued cards by UID for UID-only attendance
+        AccessDb.loadParticipantIndexAsync();
+
         // --- Default Content ---
         contentArea.setPadding(new Insets(20));
         setContent("Welcome to Attendance System");
@@ -86,19 +95,14 @@ public class Dashboard extends BorderPane {
                 new Thread(() -> {
                     long dbId = -1;
                     try {
-                        // Build NFC payload
-                        String textToWrite = formData.get("__CSV__");
-                        if (textToWrite == null) {
-                            textToWrite = formData.values().stream()
-                                    .map(v -> v == null ? "" : v.trim())
-                                    .collect(Collectors.joining(","));
-                        }
+                        // Build NFC payload (binary participant fields)
+                        String[] cardFields = ParticipantCodec.fromMap(formData);
 
-                        // Guard: ensure pollers pause while writing
-                        EntryForm.setNfcBusy(true);
+                        // Queued ahead of any auto-fill or attendance reads
                         String cardUid = null;
                         try {
-                            SmartMifareWriter.WriteResult result = SmartMifareWriter.writeText(textToWrite);
+                            SmartMifareWriter.WriteResult result = NfcService.await(
+                                    NfcService.write(cardFields, SmartMifareWriter.DEFAULT_PRESENT_TIMEOUT_MS));
                             if (result != null)
                                 cardUid = result.uid;
                         } catch (Exception nfcEx) {
@@ -122,8 +126,6 @@ public class Dashboard extends BorderPane {
                             if (!proceed[0]) {
                                 return;
                             }
-                        } finally {
-                            EntryForm.setNfcBusy(false);
                         }
 
                         // Insert into DB (also updates ParticipantsRecord)
@@ -182,15 +184,11 @@ public class Dashboard extends BorderPane {
             setContent(new StackPane(waitLbl));
 
             new Thread(() -> {
-                // Pause pollers while doing a blocking read
-                EntryForm.setNfcBusy(true);
                 SmartMifareReader.ReadResult rr = null;
                 try {
-                    rr = SmartMifareReader.readUIDWithData(10_000);
+                    rr = NfcService.await(NfcService.readInfo(10_000));
                 } catch (Exception ex) {
                     // ignore here, show message below
-                } finally {
-                    EntryForm.setNfcBusy(false);
                 }
 
                 SmartMifareReader.ReadResult finalRR = rr;
@@ -242,63 +240,132 @@ public class Dashboard extends BorderPane {
         });
 
         // NEW: Batch (Filter)
-        batchBtn.setOnAction(e -> {
-            List<Map<String, String>> rows = BatchFilterDialog.showAndFetch(
-                    this.getScene() == null ? null : this.getScene().getWindow());
-            if (rows == null || rows.isEmpty())
-                return;
+        batchBtn.setOnAction(e -> BatchFilterDialog.showAndFetch(
+                this.getScene() == null ? null : this.getScene().getWindow(),
+                this::showBatch));
 
-            Parent batch = EntryForm.createBatch((formData, done) -> {
-                new Thread(() -> {
-                    try {
-                        String textToWrite = formData.get("__CSV__");
-                        if (textToWrite == null) {
-                            textToWrite = formData.values().stream()
-                                    .map(v -> v == null ? "" : v.trim())
-                                    .collect(Collectors.joining(","));
-                        }
+        importBtn.setOnAction(e -> importParticipants());
 
-                        String cardUid = null;
-                        EntryForm.setNfcBusy(true);
-                        try {
-                            SmartMifareWriter.WriteResult wr = SmartMifareWriter.writeText(textToWrite);
-                            if (wr != null)
-                                cardUid = wr.uid;
-                        } catch (Exception nfcEx) {
-                            System.err.println("[WARN] NFC write failed: " + nfcEx.getMessage());
-                        } finally {
-                            EntryForm.setNfcBusy(false);
-                        }
+        reportBtn.setOnAction(e -> setContent("📊 Report Page"));
+    }
 
-                        try {
-                            AccessDb.insertAttendee(formData, cardUid);
-                        } catch (Exception dbEx) {
-                            Platform.runLater(() -> {
-                                Alert alert = new Alert(Alert.AlertType.ERROR,
-                                        "DB insert failed: " + dbEx.getMessage(), ButtonType.OK);
-                                alert.setHeaderText(null);
-                                alert.showAndWait();
-                            });
+    // --- Import CSV: bulk-load a participant roster into ParticipantsRecord ---
+    private void importParticipants() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Import participants CSV");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV files", "*.csv"));
+        File file = chooser.showOpenDialog(this.getScene() == null ? null : this.getScene().getWindow());
+        if (file == null)
+            return;
+
+        // append new participants, or sync the table with an updated master roster
+        ButtonType append = new ButtonType("Add new rows");
+        ButtonType sync = new ButtonType("Sync roster");
+        Alert ask = new Alert(Alert.AlertType.CONFIRMATION,
+                "Add new rows: insert every row; BSGUIDs already in the table are rejected.\n"
+                        + "Sync roster: insert new and update changed rows by BSGUID; "
+                        + "participants who already have a card are left untouched.",
+                append, sync, ButtonType.CANCEL);
+        ask.setHeaderText("Import " + file.getName());
+        ButtonType choice = ask.showAndWait().orElse(ButtonType.CANCEL);
+        if (choice == ButtonType.CANCEL)
+            return;
+        ParticipantImporter.Mode mode = choice == sync ? ParticipantImporter.Mode.SYNC
+                : ParticipantImporter.Mode.APPEND;
+
+        Label status = new Label("Importing " + file.getName() + " ...");
+        status.setStyle("-fx-font-size: 16px;");
+        setContent(new VBox(10, status));
+
+        new Thread(() -> {
+            try {
+                ParticipantImporter.Result r = new ParticipantImporter(file.toPath(), mode, 1,
+                        n -> Platform.runLater(() -> status.setText("Processed " + n + " rows ..."))).run();
+                Platform.runLater(() -> {
+                    status.setText(r.toString());
+                    StringBuilder msg = new StringBuilder()
+                            .append("Rows read: ").append(r.rowsRead)
+                            .append("\nInserted: ").append(r.inserted);
+                    if (mode == ParticipantImporter.Mode.SYNC)
+                        msg.append("\nUpdated: ").append(r.updated)
+                                .append("\nUnchanged: ").append(r.unchanged)
+                                .append("\nSkipped (card issued): ").append(r.locked);
+                    msg.append(String.format("\nTook %.1fs (%.0f rows/s written)", r.elapsedMs / 1000.0, r.rowsPerSec()))
+                            .append("\nRejected: ").append(r.rejected);
+                    for (String reject : r.rejects.subList(0, Math.min(10, r.rejects.size())))
+                        msg.append("\n  ").append(reject);
+                    if (r.rejected > 10)
+                        msg.append("\n  ...");
+                    Alert alert = new Alert(r.rejected == 0 ? Alert.AlertType.INFORMATION
+                            : Alert.AlertType.WARNING, msg.toString(), ButtonType.OK);
+                    alert.setHeaderText("Import finished");
+                    alert.showAndWait();
+                });
+            } catch (Exception ex) {
+                Platform.runLater(() -> {
+                    status.setText("Import failed: " + ex.getMessage());
+                    Alert alert = new Alert(Alert.AlertType.ERROR,
+                            "Import failed: " + ex.getMessage(), ButtonType.OK);
+                    alert.setHeaderText(null);
+                    alert.showAndWait();
+                });
+            }
+        }, "import-thread").start();
+    }
+
+    // --- Batch screen: write each fetched row to a card, then insert into DB ---
+    private void showBatch(BatchRows rows) {
+        Parent batch = EntryForm.createBatch((formData, done) -> {
+            new Thread(() -> {
+                boolean released = false;
+                try {
+                    String[] cardFields = ParticipantCodec.fromMap(formData);
+
+                    // The row goes to whichever reader gets a card first. Once a reader has
+                    // taken it the operator can move on, so several readers write at once.
+                    String cardUid = null;
+                    try {
+                        ReaderPool.Ticket<SmartMifareWriter.WriteResult> ticket = NfcService.write(cardFields,
+                                SmartMifareWriter.DEFAULT_PRESENT_TIMEOUT_MS);
+                        // not taken in time: the ticket has timed out and await rethrows that
+                        if (ticket.awaitTaken(SmartMifareWriter.DEFAULT_PRESENT_TIMEOUT_MS)) {
+                            if (done != null)
+                                done.run();
+                            released = true;
                         }
-                    } finally {
-                        if (done != null)
-                            done.run();
+                        SmartMifareWriter.WriteResult wr = NfcService.await(ticket);
+                        if (wr != null)
+                            cardUid = wr.uid;
+                    } catch (Exception nfcEx) {
+                        System.err.println("[WARN] NFC write failed: " + nfcEx.getMessage());
                     }
-                }, "batch-filter-thread").start();
-            }, rows);
 
-            setContent(batch);
-        });
+                    try {
+                        AccessDb.insertAttendee(formData, cardUid);
+                    } catch (Exception dbEx) {
+                        Platform.runLater(() -> {
+                            Alert alert = new Alert(Alert.AlertType.ERROR,
+                                    "DB insert failed: " + dbEx.getMessage(), ButtonType.OK);
+                            alert.setHeaderText(null);
+                            alert.showAndWait();
+                        });
+                    }
+                } finally {
+                    if (done != null && !released)
+                        done.run();
+                }
+            }, "batch-filter-thread").start();
+        }, rows);
 
-        reportBtn.setOnAction(e -> setContent("📊 Report Page"));
+        setContent(batch);
     }
 
     // --- Helper Method for Page Switching with Animation ---
     private void setContent(Node node) {
-        // stop any NFC poller from previous view
+        // stop any NFC auto-fill from previous view
         if (!contentArea.getChildren().isEmpty()) {
             Node prev = contentArea.getChildren().get(0);
-            EntryForm.stopNfcPolling(prev);
+            EntryForm.stopNfcAutoFill(prev);
         }
 
         contentArea.getChildren().setAll(node);
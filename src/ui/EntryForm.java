@@ -12,28 +12,21 @@ import javafx.scene.layout.*;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.stage.Window;
+import nfc.CardDebounce;
+import nfc.CardEventStream;
+import nfc.NfcService;
+import nfc.ReaderPool;
 import nfc.SmartMifareReader;
 import nfc.SmartMifareEraser;
+import nfc.SmartMifareWriter;
 
 import java.time.LocalDate;
 import java.util.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 
 public class EntryForm {
 
-    // --- Global NFC busy flag so only one NFC operation runs at a time
-    // (read/write) ---
-    private static final AtomicBoolean NFC_BUSY = new AtomicBoolean(false);
-
-    public static void setNfcBusy(boolean b) {
-        NFC_BUSY.set(b);
-    }
-
     /**
      * Note: onSave is a BiConsumer where the second parameter is a Runnable `done`
      * that the caller MUST run (on any thread) when the save/write operation
@@ -302,8 +295,8 @@ public class EntryForm {
 
                 Thread th = new Thread(() -> {
                     try {
-                        setNfcBusy(true);
-                        nfc.SmartMifareEraser.eraseMemory();
+                        NfcService.await(NfcService.erase(SmartMifareEraser.EraseMode.FAST,
+                                SmartMifareWriter.DEFAULT_PRESENT_TIMEOUT_MS));
                         Platform.runLater(() -> {
                             status.setStyle("-fx-text-fill:#27AE60;");
                             status.setText("✅ Erase complete.");
@@ -315,7 +308,6 @@ public class EntryForm {
                             status.setText("❌ Erase failed: " + msg);
                         });
                     } finally {
-                        setNfcBusy(false);
                         Platform.runLater(() -> {
                             saveBtn.setDisable(false);
                             clearBtn.setDisable(false);
@@ -330,18 +322,15 @@ public class EntryForm {
 
         fontSizeBinding.getValue();
 
-        // Start NFC auto-fill (false = don't overwrite existing fields; 1000ms poll)
-        ScheduledExecutorService svc = startNfcAutoFill(root,
+        // Start NFC auto-fill (false = don't overwrite existing fields)
+        CardEventStream.Subscription autoFill = startNfcAutoFill(root,
                 fullName, bsguid, participationType,
                 bsgDistrict, email, phoneNumber,
                 bsgState, memberTyp, unitNam,
                 rank_or_section, dateOfBirth, age,
-                false, // overwriteAlways
-                1000);
-        // expose poller on the root so Dashboard can stop it when switching screens
-        if (svc != null) {
-            root.getProperties().put("nfc-poller", svc);
-        }
+                false); // overwriteAlways
+        // expose it on the root so Dashboard can stop it when switching screens
+        root.getProperties().put("nfc-autofill", autoFill);
 
         return root;
     }
@@ -363,47 +352,55 @@ public class EntryForm {
     }
 
     // ---------------- NFC auto-fill helpers ----------------
-    private static ScheduledExecutorService startNfcAutoFill(
+    /**
+     * Fill the form from cards tapped on any reader. Driven by
+     * {@link CardEventStream}: nothing runs until a card arrives, then its
+     * data is read by an {@link NfcService#autofillRead} job on the reader it
+     * arrived on. A write, erase or info read wanting that card comes first
+     * and drops the read. Close the returned subscription to stop (queued
+     * reads are cancelled).
+     */
+    private static CardEventStream.Subscription startNfcAutoFill(
             Parent root,
             TextField fullName, TextField bsguid, ComboBox<String> participationType,
             TextField bsgDistrict, TextField email, TextField phoneNumber,
             TextField bsgState, TextField memberTyp, TextField unitNam,
             ComboBox<String> rank_or_section, DatePicker dateOfBirth, TextField age,
-            boolean overwriteAlways, long pollIntervalMs) {
-
-        ScheduledExecutorService svc = Executors.newSingleThreadScheduledExecutor(r -> {
-            Thread t = new Thread(r, "nfc-poller");
-            t.setDaemon(true);
-            return t;
-        });
-
-        AtomicReference<String> lastUid = new AtomicReference<>("");
+            boolean overwriteAlways) {
 
-        Runnable task = () -> {
-            try {
-                // if someone else is using NFC (write/erase/info), don't poll now
-                if (NFC_BUSY.get())
-                    return;
+        Set<ReaderPool.Ticket<?>> pending = ConcurrentHashMap.newKeySet();
 
-                SmartMifareReader.ReadResult rr = SmartMifareReader.readUIDWithData(1500);
-                if (rr == null || rr.uid == null || rr.uid.isEmpty())
-                    return;
+        CardEventStream.Subscription events = CardEventStream.subscribe(ev -> {
+            if (ev.type != CardEventStream.Type.CARD_PRESENT)
+                return;
 
-                String uid = rr.uid;
-                String data = rr.data == null ? "" : rr.data.trim();
+            // debounce: the same card put down again shortly after is not read again
+            CardDebounce debounce = CardDebounce.of(CardDebounce.Use.AUTOFILL);
+            if (!debounce.accept(ev.uid))
+                return;
 
-                // debounce: ignore if same UID processed recently
-                if (uid.equals(lastUid.get()))
+            // queued behind writes, erases and info reads; dropped if one of them takes the card
+            ReaderPool.Ticket<SmartMifareReader.ReadResult> ticket;
+            try {
+                ticket = NfcService.autofillRead(ev);
+            } catch (Exception ex) {
+                debounce.forget(ev.uid);
+                ex.printStackTrace();
+                return;
+            }
+            pending.add(ticket);
+            ticket.result().whenComplete((rr, err) -> {
+                pending.remove(ticket);
+                if (err != null || rr == null || rr.uid == null || rr.uid.isEmpty()) {
+                    debounce.forget(ev.uid); // not read: the next tap should try again
                     return;
-                lastUid.set(uid);
+                }
 
-                if (data.isEmpty())
+                // decoded fields: binary cards, or legacy CSV text split by the reader
+                String[] parts = rr.fields;
+                if (parts == null || Arrays.stream(parts).allMatch(String::isEmpty))
                     return;
 
-                String[] parts = Arrays.stream(data.split(",", -1))
-                        .map(String::trim)
-                        .toArray(String[]::new);
-
                 Platform.runLater(() -> {
                     try {
                         int i = 0;
@@ -438,24 +435,24 @@ public class EntryForm {
                         ex.printStackTrace();
                     }
                 });
-
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
+            });
+        });
+        CardEventStream.Subscription handle = () -> {
+            events.close();
+            for (ReaderPool.Ticket<?> t : pending)
+                t.cancel();
         };
 
-        svc.scheduleWithFixedDelay(task, 0, Math.max(200, pollIntervalMs), TimeUnit.MILLISECONDS);
-
         // shutdown when window closes (safety)
         root.sceneProperty().addListener((obs, oldScene, newScene) -> {
             if (newScene != null) {
                 Window w = newScene.getWindow();
                 if (w != null) {
-                    w.setOnHidden(evt -> svc.shutdownNow());
+                    w.setOnHidden(evt -> handle.close());
                 } else {
                     newScene.windowProperty().addListener((o, oldW, newW) -> {
                         if (newW != null)
-                            newW.setOnHidden(e -> svc.shutdownNow());
+                            newW.setOnHidden(e -> handle.close());
                     });
                 }
             }
@@ -464,21 +461,19 @@ public class EntryForm {
         // also stop when this node is removed from scene graph
         root.parentProperty().addListener((o, oldP, newP) -> {
             if (newP == null) {
-                svc.shutdownNow();
+                handle.close();
             }
         });
 
-        return svc;
+        return handle;
     }
 
-    public static void stopNfcPolling(Node root) {
+    public static void stopNfcAutoFill(Node root) {
         if (root == null)
             return;
-        Object svc = root.getProperties().get("nfc-poller");
-        if (svc instanceof ScheduledExecutorService s) {
-            s.shutdownNow();
-            root.getProperties().remove("nfc-poller");
-        }
+        Object sub = root.getProperties().remove("nfc-autofill");
+        if (sub instanceof CardEventStream.Subscription s)
+            s.close();
     }
 
     private static void setFieldFromCsv(TextField tf, String[] parts, int idx, boolean overwriteAlways) {
@@ -510,6 +505,15 @@ public class EntryForm {
     // ---------- Batch UI ----------
     public static Parent createBatch(BiConsumer<Map<String, String>, Runnable> onSave,
             List<Map<String, String>> batchRows) {
+        return createBatch(onSave, BatchRows.of(batchRows));
+    }
+
+    /**
+     * Batch UI over a paged row source: the screen opens on the first page and
+     * further pages are fetched as the cursor advances.
+     */
+    public static Parent createBatch(BiConsumer<Map<String, String>, Runnable> onSave,
+            BatchRows batchRows) {
         BorderPane root = new BorderPane();
         root.setPadding(new Insets(14));
         root.setStyle("-fx-background-color: linear-gradient(to bottom, #ffffff, #f7f9fb);");
@@ -562,17 +566,31 @@ public class EntryForm {
         Label status = new Label();
         status.setWrapText(true);
 
+        // background page loading: rows keep streaming in while the operator works
+        ProgressBar loadBar = new ProgressBar();
+        loadBar.setPrefWidth(160);
+        loadBar.progressProperty().bind(batchRows.progressProperty());
+        Label loadLbl = new Label();
+        loadLbl.setStyle("-fx-font-size:12; -fx-text-fill:#616161;");
+        Button cancelLoadBtn = new Button("Cancel loading");
+        HBox loadBox = new HBox(10, loadBar, loadLbl, cancelLoadBtn);
+        loadBox.setAlignment(Pos.CENTER_LEFT);
+        loadBox.visibleProperty().bind(batchRows.loadingProperty());
+        loadBox.managedProperty().bind(loadBox.visibleProperty());
+        batchRows.progressProperty().addListener((o, a, b) -> loadLbl
+                .setText("Loaded " + batchRows.loadedCount() + " / " + batchRows.total()));
+        cancelLoadBtn.setOnAction(evt -> batchRows.cancelLoading());
+
         Button writeNextBtn = new Button("Write & Next");
         Button skipBtn = new Button("Skip / Next");
         Button stopBtn = new Button("Stop Batch");
         HBox controls = new HBox(10, writeNextBtn, skipBtn, stopBtn);
         controls.setAlignment(Pos.CENTER_RIGHT);
 
-        VBox center = new VBox(12, header, columns, status, controls);
+        VBox center = new VBox(12, header, columns, status, loadBox, controls);
         center.setPadding(new Insets(10));
         root.setCenter(center);
 
-        final int total = batchRows == null ? 0 : batchRows.size();
         final int[] index = new int[] { 0 };
         final boolean[] running = new boolean[] { true };
 
@@ -589,7 +607,7 @@ public class EntryForm {
         };
 
         Runnable fillCurrent = () -> {
-            if (index[0] < 0 || index[0] >= total) {
+            if (index[0] < 0 || !batchRows.isLoaded(index[0])) {
                 fullName.clear();
                 bsguid.clear();
                 participationType.setValue(null);
@@ -644,22 +662,46 @@ public class EntryForm {
                 dateOfBirth.setValue(null);
             }
             age.setText(pick.apply(cur, "age"));
-            status.setText("Record " + (index[0] + 1) + " / " + total);
+            status.setText("Record " + (index[0] + 1) + " / " + batchRows.total());
         };
 
-        if (total == 0) {
+        // move to index[0]: fill the form once its page is loaded, then run next
+        java.util.function.Consumer<Runnable> showCurrent = next -> {
+            if (!batchRows.isLoaded(index[0]) && !batchRows.isEnd(index[0])) {
+                writeNextBtn.setDisable(true);
+                skipBtn.setDisable(true);
+                status.setText("Loading record " + (index[0] + 1) + " / " + batchRows.total() + "...");
+            }
+            batchRows.whenLoaded(index[0], () -> {
+                fillCurrent.run();
+                next.run();
+            }, err -> {
+                status.setText("Failed to load more rows: " + err);
+                writeNextBtn.setDisable(true);
+                skipBtn.setDisable(true);
+            });
+        };
+
+        if (batchRows.isEmpty()) {
             status.setText("No rows found.");
             writeNextBtn.setDisable(true);
             skipBtn.setDisable(true);
             stopBtn.setDisable(true);
         } else {
             fillCurrent.run();
+            batchRows.startLoading();
         }
 
+        // stop streaming pages when this screen is removed from the scene graph
+        root.parentProperty().addListener((o, oldP, newP) -> {
+            if (newP == null)
+                batchRows.cancelLoading();
+        });
+
         writeNextBtn.setOnAction(evt -> {
             if (!running[0])
                 return;
-            if (index[0] < 0 || index[0] >= total) {
+            if (index[0] < 0 || !batchRows.isLoaded(index[0])) {
                 status.setText("No more rows.");
                 return;
             }
@@ -707,23 +749,25 @@ public class EntryForm {
             writeNextBtn.setDisable(true);
             skipBtn.setDisable(true);
             stopBtn.setDisable(true);
-            status.setText("Writing record " + (index[0] + 1) + " / " + total + " — present card now...");
+            status.setText("Writing record " + (index[0] + 1) + " / " + batchRows.total()
+                    + " — present card now...");
 
             Runnable done = () -> Platform.runLater(() -> {
                 index[0]++;
-                if (!running[0] || index[0] >= total) {
-                    status.setText("Batch finished. Processed " + Math.min(total, index[0]) + " rows.");
-                    writeNextBtn.setDisable(true);
-                    skipBtn.setDisable(true);
-                    stopBtn.setDisable(true);
-                } else {
-                    fillCurrent.run();
-                    writeNextBtn.setDisable(false);
-                    skipBtn.setDisable(false);
-                    stopBtn.setDisable(false);
-                    status.setText("Ready for record " + (index[0] + 1) + " / " + total
-                            + ". Present card and click Write & Next.");
-                }
+                showCurrent.accept(() -> {
+                    if (!running[0] || batchRows.isEnd(index[0])) {
+                        status.setText("Batch finished. Processed " + index[0] + " rows.");
+                        writeNextBtn.setDisable(true);
+                        skipBtn.setDisable(true);
+                        stopBtn.setDisable(true);
+                    } else {
+                        writeNextBtn.setDisable(false);
+                        skipBtn.setDisable(false);
+                        stopBtn.setDisable(false);
+                        status.setText("Ready for record " + (index[0] + 1) + " / " + batchRows.total()
+                                + ". Present card and click Write & Next.");
+                    }
+                });
             });
 
             try {
@@ -746,35 +790,36 @@ public class EntryForm {
             if (!running[0])
                 return;
             index[0]++;
-            if (index[0] >= total) {
-                status.setText("Reached end of batch.");
-                writeNextBtn.setDisable(true);
-                skipBtn.setDisable(true);
-            } else {
-                fillCurrent.run();
-                status.setText("Skipped. Now at " + (index[0] + 1) + " / " + total);
-            }
+            showCurrent.accept(() -> {
+                if (batchRows.isEnd(index[0])) {
+                    status.setText("Reached end of batch.");
+                    writeNextBtn.setDisable(true);
+                    skipBtn.setDisable(true);
+                } else {
+                    writeNextBtn.setDisable(false);
+                    skipBtn.setDisable(false);
+                    status.setText("Skipped. Now at " + (index[0] + 1) + " / " + batchRows.total());
+                }
+            });
         });
 
         stopBtn.setOnAction(evt -> {
             running[0] = false;
+            batchRows.cancelLoading();
             status.setText("Batch stopped by user. Processed " + index[0] + " rows.");
             writeNextBtn.setDisable(true);
             skipBtn.setDisable(true);
             stopBtn.setDisable(true);
         });
 
-        // optional NFC auto-fill during batch (guarded by NFC_BUSY)
-        ScheduledExecutorService svc = startNfcAutoFill(root,
+        // optional NFC auto-fill during batch (yields to the batch writes)
+        CardEventStream.Subscription autoFill = startNfcAutoFill(root,
                 fullName, bsguid, participationType,
                 bsgDistrict, email, phoneNumber,
                 bsgState, memberTyp, unitNam,
                 rank_or_section, dateOfBirth, age,
-                false,
-                1200);
-        if (svc != null) {
-            root.getProperties().put("nfc-poller", svc);
-        }
+                false);
+        root.getProperties().put("nfc-autofill", autoFill);
 
         return root;
     }
@@ -0,0 +1,177 @@
+package util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Throughput benchmark (MB/s) for CsvReader against the previous line-based
+ * parser (BufferedReader.readLine + per-char StringBuilder split), for a
+ * three-column CsvProjection, and for ParallelCsvReader at 1/2/4/8 threads.
+ *
+ * Generates a synthetic participant CSV, then runs warm-up and measured
+ * passes of each parser over it and prints the best and median MB/s.
+ *
+ * CLI:
+ * javac -cp "lib/*;src" -d out src/util/*.java
+ * java -cp "out;lib/*" util.CsvBenchmark [sizeMB] [iterations]
+ */
+public class CsvBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path file = Files.createTempFile("csvbench", ".csv");
+        file.toFile().deleteOnExit();
+        long bytes = generate(file, sizeMb * 1024L * 1024L);
+        System.out.printf("Generated %s (%.1f MB)%n", file, bytes / 1048576.0);
+
+        run("line parser (previous)", file, bytes, iterations, CsvBenchmark::parseLineBased);
+        run("CsvReader state machine", file, bytes, iterations, CsvBenchmark::parseStateMachine);
+        run("CsvReader projection (3)", file, bytes, iterations, CsvBenchmark::parseProjected);
+
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+        for (int threads : new int[] { 1, 2, 4, 8 }) {
+            run("ParallelCsvReader x" + threads, file, bytes, iterations, f -> parseParallel(f, threads));
+        }
+    }
+
+    interface Parser {
+        long parse(Path file) throws IOException;
+    }
+
+    static void run(String name, Path file, long bytes, int iterations, Parser p) throws IOException {
+        // warm-up
+        for (int i = 0; i < 2; i++)
+            p.parse(file);
+
+        double[] mbps = new double[iterations];
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            long t0 = System.nanoTime();
+            sink += p.parse(file);
+            long t1 = System.nanoTime();
+            mbps[i] = (bytes / 1048576.0) / ((t1 - t0) / 1e9);
+        }
+        Arrays.sort(mbps);
+        System.out.printf("%-28s best %8.1f MB/s   median %8.1f MB/s   (checksum %d)%n",
+                name, mbps[iterations - 1], mbps[iterations / 2], sink);
+    }
+
+    /** Returns total field length so the JIT cannot drop the work. */
+    static long parseStateMachine(Path file) throws IOException {
+        long n = 0;
+        try (CsvReader r = CsvReader.open(file)) {
+            while (r.next()) {
+                for (int c = 0; c < r.size(); c++)
+                    n += r.get(c).length();
+            }
+        }
+        return n;
+    }
+
+    static long parseProjected(Path file) throws IOException {
+        long n = 0;
+        try (CsvProjection p = CsvReader.open(file).project("FullName", "bsgState", "bsgDistrict")) {
+            p.intern("bsgState", "bsgDistrict");
+            while (p.next()) {
+                for (int c = 0; c < 3; c++)
+                    n += p.get(c).length();
+            }
+        }
+        return n;
+    }
+
+    static long parseParallel(Path file, int threads) throws IOException {
+        long n = 0;
+        try (CsvRows r = CsvReader.parallel(file, threads)) {
+            while (r.next()) {
+                for (int c = 0; c < r.size(); c++)
+                    n += r.get(c).length();
+            }
+        }
+        return n;
+    }
+
+    static long parseLineBased(Path file) throws IOException {
+        long n = 0;
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            List<String> fields = new ArrayList<>();
+            StringBuilder cur = new StringBuilder();
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                parseCsvLine(line, fields, cur);
+                for (String f : fields)
+                    n += f.trim().length();
+            }
+        }
+        return n;
+    }
+
+    // the line parser CsvReader used before the state machine
+    private static void parseCsvLine(String line, List<String> out, StringBuilder cur) {
+        out.clear();
+        cur.setLength(0);
+        boolean inQuote = false;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (ch == '"') {
+                if (inQuote && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    cur.append('"');
+                    i++;
+                } else {
+                    inQuote = !inQuote;
+                }
+            } else if (ch == ',' && !inQuote) {
+                out.add(cur.toString());
+                cur.setLength(0);
+            } else {
+                cur.append(ch);
+            }
+        }
+        out.add(cur.toString());
+    }
+
+    /** Write participant-like rows until the file reaches targetBytes. */
+    static long generate(Path file, long targetBytes) throws IOException {
+        String[] states = { "Assam", "Bihar", "Kerala", "Punjab", "Uttar Pradesh", "West Bengal" };
+        String[] types = { "guide", "scout", "ranger" };
+        Random rnd = new Random(42);
+        long written = 0;
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            String header = "FullName,BSGUID,ParticipationType,bsgDistrict,Email,phoneNumber,bsgState,"
+                    + "memberType,unitName,rank_or_section,dateOfBirth,age\n";
+            w.write(header);
+            written += header.length();
+            StringBuilder sb = new StringBuilder(256);
+            for (long i = 0; written < targetBytes; i++) {
+                sb.setLength(0);
+                String type = types[rnd.nextInt(types.length)];
+                sb.append("Participant ").append(i).append(',')
+                        .append("BSG").append(100000 + i).append(',')
+                        .append(type).append(',')
+                        .append("District ").append(rnd.nextInt(700)).append(',')
+                        .append("p").append(i).append("@example.org").append(',')
+                        .append(9000000000L + rnd.nextInt(99999999)).append(',')
+                        .append(states[rnd.nextInt(states.length)]).append(',')
+                        .append("Member").append(',');
+                // every tenth unit name is quoted with a comma and an embedded newline
+                if (i % 10 == 0)
+                    sb.append("\"Unit ").append(i % 500).append(", Ward 3\nBlock \"\"B\"\"\"");
+                else
+                    sb.append("Unit ").append(i % 500);
+                sb.append(',').append(type).append(',')
+                        .append(2005 + rnd.nextInt(10)).append("-0").append(1 + rnd.nextInt(9))
+                        .append("-1").append(rnd.nextInt(9)).append(',')
+                        .append(10 + rnd.nextInt(8)).append('\n');
+                w.append(sb);
+                written += sb.length();
+            }
+        }
+        return written;
+    }
+}
@@ -0,0 +1,165 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Column projection over a {@link CsvRows} cursor: the caller names the
+ * columns it needs, their indexes are resolved once against the header, and
+ * only those values are materialized per row.
+ *
+ * <pre>
+ * try (CsvProjection p = CsvReader.open(path).project("FullName", "bsgState")) {
+ *     p.intern("bsgState");
+ *     while (p.next()) {
+ *         String name = p.get(0);
+ *         String state = p.get("bsgState");
+ *     }
+ * }
+ * </pre>
+ *
+ * Columns missing from the file read as "". Values of columns passed to
+ * {@link #intern} are deduplicated through a per-column {@link StringInterner},
+ * so repeated categorical values (state, district, category) share one
+ * instance. {@link #row()} snapshots the current row as a {@link Row}, a
+ * values array plus a reference to the shared column names.
+ */
+public final class CsvProjection implements Closeable {
+
+    /** Immutable view of one projected row. */
+    public static final class Row {
+        private final Columns columns;
+        private final String[] values;
+
+        Row(Columns columns, String[] values) {
+            this.columns = columns;
+            this.values = values;
+        }
+
+        public List<String> columns() {
+            return columns.list;
+        }
+
+        public int size() {
+            return values.length;
+        }
+
+        public String get(int i) {
+            return values[i];
+        }
+
+        /** Value of a projected column, or null if it was not projected. */
+        public String get(String column) {
+            Integer i = columns.index.get(column);
+            return i == null ? null : values[i];
+        }
+
+        public Map<String, String> toMap() {
+            Map<String, String> map = new LinkedHashMap<>();
+            for (int i = 0; i < values.length; i++)
+                map.put(columns.names[i], values[i]);
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return toMap().toString();
+        }
+    }
+
+    /** Column names shared by every Row of a projection. */
+    private static final class Columns {
+        final String[] names;
+        final List<String> list;
+        final Map<String, Integer> index = new HashMap<>();
+
+        Columns(String[] names) {
+            this.names = names;
+            this.list = Collections.unmodifiableList(Arrays.asList(names));
+            for (int i = 0; i < names.length; i++)
+                index.putIfAbsent(names[i], i);
+        }
+    }
+
+    private final CsvRows src;
+    private final Columns columns;
+    private final int[] sourceIndex; // projected column -> source column, -1 if absent
+    private final StringInterner[] interners;
+    private final String[] values;
+    private boolean started;
+
+    public CsvProjection(CsvRows src, List<String> columns) {
+        this.src = src;
+        this.columns = new Columns(columns.toArray(new String[0]));
+        this.sourceIndex = new int[columns.size()];
+        this.interners = new StringInterner[columns.size()];
+        this.values = new String[columns.size()];
+        for (int i = 0; i < sourceIndex.length; i++)
+            sourceIndex[i] = src.indexOf(columns.get(i));
+        if (src instanceof ParallelCsvReader)
+            ((ParallelCsvReader) src).retainColumns(sourceIndex);
+    }
+
+    /** Deduplicate the values of these projected columns. Call before next(). */
+    public CsvProjection intern(String... column) {
+        for (String c : column) {
+            Integer i = columns.index.get(c);
+            if (i == null)
+                throw new IllegalArgumentException("Column not in projection: " + c);
+            if (interners[i] == null)
+                interners[i] = new StringInterner();
+        }
+        return this;
+    }
+
+    public List<String> columns() {
+        return columns.list;
+    }
+
+    /** True if the projected column exists in the file's header. */
+    public boolean has(String column) {
+        Integer i = columns.index.get(column);
+        return i != null && sourceIndex[i] >= 0;
+    }
+
+    public boolean next() throws IOException {
+        started = true;
+        if (!src.next())
+            return false;
+        for (int i = 0; i < values.length; i++) {
+            int c = sourceIndex[i];
+            if (c < 0)
+                values[i] = "";
+            else
+                values[i] = interners[i] == null ? src.get(c) : src.get(c, interners[i]);
+        }
+        return true;
+    }
+
+    /** See {@link CsvRows#rowNumber()}. */
+    public long rowNumber() {
+        return src.rowNumber();
+    }
+
+    public String get(int i) {
+        return values[i];
+    }
+
+    public String get(String column) {
+        Integer i = columns.index.get(column);
+        return i == null ? "" : values[i];
+    }
+
+    /** Snapshot of the current row. */
+    public Row row() {
+        if (!started)
+            throw new IllegalStateException("next() has not been called");
+        return new Row(columns, values.clone());
+    }
+
+    @Override
+    public void close() throws IOException {
+        src.close();
+    }
+}
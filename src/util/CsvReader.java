@@ -6,68 +6,321 @@ import java.nio.file.*;
 import java.util.*;
 
 /**
- * Simple CSV reader that supports quoted fields (") and commas inside quotes.
+ * Simple CSV reader that supports quoted fields (") with delimiters, doubled
+ * quotes ("") and line breaks inside quotes.
  * First non-empty row is treated as header (column names).
+ *
+ * Rows are streamed: the input is scanned once, char by char, by a small state
+ * machine that copies each record into a reusable char buffer and records
+ * field boundaries as offsets, so memory stays flat regardless of file size.
+ * LF, CRLF and CR all end a record (outside quotes); a leading UTF-8 BOM is
+ * skipped; the delimiter is configurable (default ',').
+ *
+ * <pre>
+ * try (CsvReader r = CsvReader.open(path)) {
+ *     while (r.next()) {
+ *         String name = r.get("FullName");
+ *     }
+ * }
+ * </pre>
+ *
+ * The row accessors return values for the current row only; copy them if they
+ * must outlive the next call to {@link #next()}.
+ *
+ * To read only some columns, see {@link #project(String...)}; for very large
+ * files see {@link #parallel(Path, int)}.
  */
-public class CsvReader {
+public class CsvReader implements CsvRows {
 
-    public static List<Map<String, String>> readCsvAsMaps(Path csvFile) throws IOException {
-        List<String> lines = Files.readAllLines(csvFile, StandardCharsets.UTF_8);
-        List<String> nonEmpty = new ArrayList<>();
-        for (String L : lines) {
-            if (L != null && !L.trim().isEmpty())
-                nonEmpty.add(L);
-        }
-        if (nonEmpty.isEmpty())
-            return Collections.emptyList();
+    public static final char DEFAULT_DELIMITER = ',';
 
-        List<String> headers = parseCsvLine(nonEmpty.get(0));
-        List<Map<String, String>> rows = new ArrayList<>();
-        for (int i = 1; i < nonEmpty.size(); i++) {
-            List<String> fields = parseCsvLine(nonEmpty.get(i));
-            Map<String, String> map = new LinkedHashMap<>();
-            for (int c = 0; c < headers.size(); c++) {
-                String key = headers.get(c).trim();
-                String val = c < fields.size() ? fields.get(c) : "";
-                map.put(key, val == null ? "" : val.trim());
+    /** Callback for {@link #forEachRow}. */
+    public interface RowHandler {
+        void row(CsvReader row) throws IOException;
+    }
+
+    private final Reader in;
+    private final char delim;
+    private final List<String> headers;
+    private final Map<String, Integer> headerIndex = new HashMap<>();
+
+    // input buffer
+    private final char[] buf = new char[64 * 1024];
+    private int pos;
+    private int lim;
+    private boolean skipLf; // previous record ended on CR; swallow a following LF
+
+    // reusable per-record state: chars of all fields back to back + boundaries
+    private char[] row = new char[1024];
+    private int rowLen;
+    private int[] starts = new int[32];
+    private int[] ends = new int[32];
+    private int nFields;
+    private long rowNumber;
+
+    public CsvReader(Reader reader) throws IOException {
+        this(reader, DEFAULT_DELIMITER);
+    }
+
+    public CsvReader(Reader reader, char delimiter) throws IOException {
+        this(reader, delimiter, true);
+    }
+
+    /**
+     * hasHeader=false parses every record as data (used for the chunks of a
+     * parallel read, whose header was read separately).
+     */
+    CsvReader(Reader reader, char delimiter, boolean hasHeader) throws IOException {
+        if (delimiter == '"' || delimiter == '\r' || delimiter == '\n')
+            throw new IllegalArgumentException("Invalid delimiter: " + (int) delimiter);
+        this.in = reader;
+        this.delim = delimiter;
+
+        // skip BOM
+        if (fill() && buf[pos] == '\uFEFF')
+            pos++;
+
+        List<String> h = new ArrayList<>();
+        while (hasHeader && readRecord()) {
+            if (!isBlankRecord()) {
+                for (int c = 0; c < nFields; c++)
+                    h.add(get(c));
+                break;
             }
-            // optional: skip rows that are all empty
-            boolean allBlank = true;
-            for (String v : map.values())
-                if (v != null && !v.trim().isEmpty()) {
-                    allBlank = false;
-                    break;
-                }
-            if (!allBlank)
-                rows.add(map);
         }
+        for (int c = 0; c < h.size(); c++)
+            headerIndex.put(h.get(c), c);
+        this.headers = Collections.unmodifiableList(h);
+    }
+
+    /** Open a UTF-8 CSV file for streaming. */
+    public static CsvReader open(Path csvFile) throws IOException {
+        return open(csvFile, DEFAULT_DELIMITER);
+    }
+
+    /** Open a UTF-8 file with the given delimiter (e.g. ';' or '\t'). */
+    public static CsvReader open(Path csvFile, char delimiter) throws IOException {
+        return new CsvReader(Files.newBufferedReader(csvFile, StandardCharsets.UTF_8), delimiter);
+    }
+
+    /**
+     * Open csvFile for a parallel read: the file is memory-mapped, split at
+     * record boundaries and parsed in chunks on threads worker threads, with
+     * rows handed out in file order.
+     */
+    public static ParallelCsvReader parallel(Path csvFile, int threads) throws IOException {
+        return new ParallelCsvReader(csvFile, DEFAULT_DELIMITER, threads);
+    }
+
+    /** Stream every data row of csvFile through handler. */
+    public static void forEachRow(Path csvFile, RowHandler handler) throws IOException {
+        try (CsvReader r = open(csvFile)) {
+            while (r.next())
+                handler.row(r);
+        }
+    }
+
+    public static List<Map<String, String>> readCsvAsMaps(Path csvFile) throws IOException {
+        List<Map<String, String>> rows = new ArrayList<>();
+        forEachRow(csvFile, r -> rows.add(r.toMap()));
         return rows;
     }
 
-    private static List<String> parseCsvLine(String line) {
-        List<String> out = new ArrayList<>();
-        if (line == null)
-            return out;
-        StringBuilder cur = new StringBuilder();
-        boolean inQuote = false;
-        for (int i = 0; i < line.length(); i++) {
-            char ch = line.charAt(i);
-            if (ch == '"') {
-                if (inQuote && i + 1 < line.length() && line.charAt(i + 1) == '"') {
-                    // escaped quote -> add one quote and skip next
-                    cur.append('"');
-                    i++;
-                } else {
-                    inQuote = !inQuote;
+    @Override
+    public List<String> header() {
+        return headers;
+    }
+
+    @Override
+    public int indexOf(String column) {
+        Integer i = headerIndex.get(column);
+        return i == null ? -1 : i;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        while (readRecord()) {
+            rowNumber++;
+            if (!isBlankRecord())
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public long rowNumber() {
+        return rowNumber;
+    }
+
+    @Override
+    public int size() {
+        return nFields;
+    }
+
+    @Override
+    public String get(int c) {
+        return get(c, null);
+    }
+
+    /** Looks the value up straight from the row buffer: no copy on a hit. */
+    @Override
+    public String get(int c, StringInterner interner) {
+        if (c < 0 || c >= nFields)
+            return "";
+        int s = starts[c];
+        int e = ends[c];
+        while (s < e && row[s] <= ' ')
+            s++;
+        while (e > s && row[e - 1] <= ' ')
+            e--;
+        if (s == e)
+            return "";
+        return interner == null ? new String(row, s, e - s) : interner.intern(row, s, e - s);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // ---------------- state machine ----------------
+
+    private static final int FIELD = 0; // unquoted text
+    private static final int QUOTED = 1; // inside "..."
+    private static final int QUOTE = 2; // saw " while QUOTED: "" or end of quote
+
+    /**
+     * Read one record into row/starts/ends. Quotes toggle quoting anywhere in a
+     * field (a"b,c"d reads as ab,cd), matching the previous line parser.
+     * Returns false at end of input with nothing read.
+     */
+    private boolean readRecord() throws IOException {
+        rowLen = 0;
+        nFields = 0;
+        int fieldStart = 0;
+        int state = FIELD;
+        boolean any = false;
+
+        while (true) {
+            if (pos >= lim && !fill()) {
+                if (!any && state == FIELD)
+                    return false;
+                endField(fieldStart);
+                return true;
+            }
+            if (skipLf) {
+                skipLf = false;
+                if (buf[pos] == '\n') {
+                    pos++;
+                    continue;
+                }
+            }
+            any = true;
+
+            if (state == QUOTED) {
+                // copy a run of ordinary quoted chars (including line breaks) at once
+                int p = pos;
+                while (p < lim && buf[p] != '"')
+                    p++;
+                append(pos, p);
+                pos = p;
+                if (pos < lim) {
+                    pos++;
+                    state = QUOTE;
                 }
-            } else if (ch == ',' && !inQuote) {
-                out.add(cur.toString());
-                cur.setLength(0);
+                continue;
+            }
+
+            char ch = buf[pos];
+            if (state == QUOTE) {
+                if (ch == '"') {
+                    pos++;
+                    appendChar('"'); // escaped quote
+                    state = QUOTED;
+                    continue;
+                }
+                state = FIELD; // closing quote; reprocess ch as unquoted
+            }
+
+            // FIELD: copy a run of ordinary chars at once
+            int p = pos;
+            while (p < lim) {
+                char c = buf[p];
+                if (c == delim || c == '"' || c == '\n' || c == '\r')
+                    break;
+                p++;
+            }
+            append(pos, p);
+            pos = p;
+            if (pos >= lim)
+                continue;
+
+            ch = buf[pos++];
+            if (ch == delim) {
+                endField(fieldStart);
+                fieldStart = rowLen;
+            } else if (ch == '"') {
+                state = QUOTED;
             } else {
-                cur.append(ch);
+                // '\n' or '\r' ends the record
+                if (ch == '\r')
+                    skipLf = true;
+                endField(fieldStart);
+                return true;
             }
         }
-        out.add(cur.toString());
-        return out;
+    }
+
+    private boolean isBlankRecord() {
+        for (int i = 0; i < rowLen; i++) {
+            if (row[i] > ' ')
+                return false;
+        }
+        return true;
+    }
+
+    private boolean fill() throws IOException {
+        if (pos < lim)
+            return true;
+        int n;
+        do {
+            n = in.read(buf, 0, buf.length);
+        } while (n == 0);
+        if (n < 0) {
+            pos = lim = 0;
+            return false;
+        }
+        pos = 0;
+        lim = n;
+        return true;
+    }
+
+    private void append(int from, int to) {
+        int n = to - from;
+        if (n <= 0)
+            return;
+        ensureRow(n);
+        System.arraycopy(buf, from, row, rowLen, n);
+        rowLen += n;
+    }
+
+    private void appendChar(char c) {
+        ensureRow(1);
+        row[rowLen++] = c;
+    }
+
+    private void ensureRow(int extra) {
+        if (rowLen + extra > row.length)
+            row = Arrays.copyOf(row, Math.max(row.length * 2, rowLen + extra));
+    }
+
+    private void endField(int fieldStart) {
+        if (nFields == starts.length) {
+            starts = Arrays.copyOf(starts, nFields * 2);
+            ends = Arrays.copyOf(ends, nFields * 2);
+        }
+        starts[nFields] = fieldStart;
+        ends[nFields] = rowLen;
+        nFields++;
     }
 }
@@ -0,0 +1,68 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Streaming cursor over the data rows of a CSV file with a header row.
+ * Implemented by {@link CsvReader} (single thread) and
+ * {@link ParallelCsvReader} (chunked, multi-threaded).
+ *
+ * Values are trimmed; blank lines and rows whose fields are all blank are
+ * skipped. Accessors refer to the current row only.
+ */
+public interface CsvRows extends Closeable {
+
+    /** Header names (trimmed), empty if the file has no non-empty line. */
+    List<String> header();
+
+    /** Column index for a header name, or -1. */
+    int indexOf(String column);
+
+    /** Advance to the next data row. Returns false at end of input. */
+    boolean next() throws IOException;
+
+    /**
+     * 1-based record number of the current row in the file, counting skipped
+     * blank rows but not the header.
+     */
+    long rowNumber();
+
+    /** Number of fields in the current row. */
+    int size();
+
+    /** Trimmed value of column c in the current row ("" if absent). */
+    String get(int c);
+
+    /** Like {@link #get(int)}, deduplicated through interner. */
+    default String get(int c, StringInterner interner) {
+        return interner.intern(get(c));
+    }
+
+    /** Trimmed value of the named column in the current row ("" if absent). */
+    default String get(String column) {
+        return get(indexOf(column));
+    }
+
+    /** Copy the current row into a header-keyed map. */
+    default Map<String, String> toMap() {
+        List<String> headers = header();
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int c = 0; c < headers.size(); c++)
+            map.put(headers.get(c), get(c));
+        return map;
+    }
+
+    /**
+     * Read only the named columns from here on; see {@link CsvProjection}.
+     * Closing the projection closes this reader.
+     */
+    default CsvProjection project(String... columns) {
+        return new CsvProjection(this, Arrays.asList(columns));
+    }
+
+    default CsvProjection project(List<String> columns) {
+        return new CsvProjection(this, columns);
+    }
+}
@@ -0,0 +1,259 @@
+package util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parallel CSV reader for very large UTF-8 files (millions of rows).
+ *
+ * The file is memory-mapped and cut into chunks of about
+ * {@link #DEFAULT_CHUNK_BYTES} at record boundaries: a cut is only made at a
+ * '\n' that is outside quotes, so quoted fields with embedded line breaks are
+ * never split. Chunks are decoded and parsed by {@link CsvReader} on a
+ * ForkJoinPool, a bounded number ahead of the consumer, and their rows are
+ * handed out strictly in file order through the same cursor API as
+ * CsvReader. Memory use is bounded by the in-flight chunks, not the file.
+ *
+ * Files whose records end in bare CR (no LF) cannot be split and are parsed
+ * as a single chunk.
+ */
+public class ParallelCsvReader implements CsvRows {
+
+    public static final long DEFAULT_CHUNK_BYTES = 1L << 20;
+    private static final long MAP_WINDOW = 64L << 20;
+
+    /** Parsed rows of one chunk. */
+    private static final class Chunk {
+        final String[][] rows;
+        final long[] recordNo; // 1-based record number of each row within the chunk
+        final long records; // records in the chunk, including skipped blank ones
+
+        Chunk(String[][] rows, long[] recordNo, long records) {
+            this.rows = rows;
+            this.recordNo = recordNo;
+            this.records = records;
+        }
+    }
+
+    private final FileChannel ch;
+    private final long fileSize;
+    private final char delim;
+    private final long chunkBytes;
+    private final ForkJoinPool pool;
+    private final int window;
+    private final ArrayDeque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<>();
+
+    private final List<String> headers;
+    private final long headerEnd;
+    private final Map<String, Integer> headerIndex = new HashMap<>();
+
+    private boolean[] retain; // columns to materialize, null = all
+    private long scanPos; // start of the next chunk to submit
+    private Chunk current;
+    private int rowIdx;
+    private long recordBase;
+    private String[] row;
+    private long rowNumber;
+
+    public ParallelCsvReader(Path file, char delimiter, int threads) throws IOException {
+        this(file, delimiter, threads, DEFAULT_CHUNK_BYTES);
+    }
+
+    public ParallelCsvReader(Path file, char delimiter, int threads, long chunkBytes) throws IOException {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be >= 1");
+        this.ch = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileSize = ch.size();
+        this.delim = delimiter;
+        this.chunkBytes = Math.max(1, chunkBytes);
+        this.pool = new ForkJoinPool(threads);
+        this.window = threads * 2;
+
+        try {
+            // skip BOM
+            long start = 0;
+            if (fileSize >= 3) {
+                MappedByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, 3);
+                if ((b.get(0) & 0xFF) == 0xEF && (b.get(1) & 0xFF) == 0xBB && (b.get(2) & 0xFF) == 0xBF)
+                    start = 3;
+            }
+
+            // header = first non-blank record; extend record by record until found
+            List<String> h = Collections.emptyList();
+            long end = start;
+            while (h.isEmpty() && end < fileSize) {
+                end = findBoundary(end, end);
+                try (CsvReader r = new CsvReader(reader(start, end), delimiter)) {
+                    h = r.header();
+                }
+            }
+            this.headers = h;
+            for (int c = 0; c < h.size(); c++)
+                headerIndex.put(h.get(c), c);
+            this.scanPos = end;
+            this.headerEnd = end;
+        } catch (IOException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<String> header() {
+        return headers;
+    }
+
+    @Override
+    public int indexOf(String column) {
+        Integer i = headerIndex.get(column);
+        return i == null ? -1 : i;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        while (current == null || rowIdx >= current.rows.length) {
+            if (current != null) {
+                recordBase += current.records;
+                current = null;
+            }
+            submitMore();
+            ForkJoinTask<Chunk> t = inFlight.poll();
+            if (t == null) {
+                row = null;
+                return false;
+            }
+            try {
+                current = t.join();
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            rowIdx = 0;
+        }
+        row = current.rows[rowIdx];
+        rowNumber = recordBase + current.recordNo[rowIdx];
+        rowIdx++;
+        return true;
+    }
+
+    @Override
+    public long rowNumber() {
+        return rowNumber;
+    }
+
+    @Override
+    public int size() {
+        return row == null ? 0 : row.length;
+    }
+
+    @Override
+    public String get(int c) {
+        if (row == null || c < 0 || c >= row.length)
+            return "";
+        return row[c];
+    }
+
+    /**
+     * Materialize only these source columns (negative entries are ignored);
+     * others read as "". Used by {@link CsvProjection}, before the first row.
+     */
+    void retainColumns(int[] columns) {
+        if (scanPos != headerEnd)
+            throw new IllegalStateException("retainColumns after reading started");
+        boolean[] keep = new boolean[headers.size()];
+        for (int c : columns) {
+            if (c >= 0 && c < keep.length)
+                keep[c] = true;
+        }
+        retain = keep;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ForkJoinTask<Chunk> t : inFlight)
+            t.cancel(true);
+        inFlight.clear();
+        pool.shutdownNow();
+        ch.close();
+    }
+
+    // keep up to window chunks parsing ahead of the consumer
+    private void submitMore() throws IOException {
+        while (inFlight.size() < window && scanPos < fileSize) {
+            final long s = scanPos;
+            final long e = findBoundary(s, Math.min(fileSize, s + chunkBytes));
+            scanPos = e;
+            inFlight.add(pool.submit(() -> parseChunk(s, e)));
+        }
+    }
+
+    private Chunk parseChunk(long start, long end) {
+        final boolean[] keep = retain;
+        try (CsvReader r = new CsvReader(reader(start, end), delim, false)) {
+            String[][] rows = new String[1024][];
+            long[] recordNo = new long[1024];
+            int n = 0;
+            while (r.next()) {
+                if (n == rows.length) {
+                    rows = Arrays.copyOf(rows, n * 2);
+                    recordNo = Arrays.copyOf(recordNo, n * 2);
+                }
+                String[] v = new String[r.size()];
+                for (int c = 0; c < v.length; c++)
+                    v[c] = keep == null || (c < keep.length && keep[c]) ? r.get(c) : "";
+                rows[n] = v;
+                recordNo[n] = r.rowNumber();
+                n++;
+            }
+            // once exhausted, rowNumber() is the number of records in the chunk
+            return new Chunk(Arrays.copyOf(rows, n), Arrays.copyOf(recordNo, n), r.rowNumber());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /** Decode the mapped byte range [start, end) as UTF-8. */
+    private Reader reader(long start, long end) throws IOException {
+        if (end - start > Integer.MAX_VALUE)
+            throw new IOException("CSV record too large to map: " + (end - start) + " bytes");
+        MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        // bulk-copy to the heap first: the UTF-8 decoder's fast path only works on arrays
+        byte[] bytes = new byte[(int) (end - start)];
+        mb.get(bytes);
+        CharBuffer cb = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes));
+        return new CharArrayReader(cb.array(), cb.arrayOffset(), cb.limit());
+    }
+
+    /**
+     * Offset just past the first '\n' at or after minEnd that lies outside
+     * quotes, scanning from the record boundary start (where quote parity is
+     * even). Returns the file size if there is none.
+     */
+    private long findBoundary(long start, long minEnd) throws IOException {
+        if (minEnd >= fileSize)
+            return fileSize;
+        boolean inQuote = false;
+        long p = start;
+        while (p < fileSize) {
+            long winEnd = Math.min(fileSize, p + MAP_WINDOW);
+            MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY, p, winEnd - p);
+            int n = (int) (winEnd - p);
+            for (int i = 0; i < n; i++) {
+                byte b = mb.get(i);
+                if (b == '"')
+                    inQuote = !inQuote;
+                else if (b == '\n' && !inQuote && p + i >= minEnd)
+                    return p + i + 1;
+            }
+            p = winEnd;
+        }
+        return fileSize;
+    }
+}
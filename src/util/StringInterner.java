@@ -0,0 +1,102 @@
+package util;
+
+/**
+ * Small per-column intern table for repeated CSV values (state, district,
+ * category, ...): equal values share one String instance.
+ *
+ * Lookups can be made straight from a char range, so a hit allocates
+ * nothing. The table holds at most maxEntries distinct values; past that,
+ * new values are returned uninterned, so a column that turns out to be
+ * high-cardinality (names, e-mails) cannot grow it without bound.
+ * Not thread-safe.
+ */
+public final class StringInterner {
+
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    private final int maxEntries;
+    private String[] table = new String[64]; // open addressing, linear probing
+    private int[] hashes = new int[64];
+    private int size;
+
+    public StringInterner() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public StringInterner(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /** Number of distinct values held. */
+    public int size() {
+        return size;
+    }
+
+    public String intern(String s) {
+        if (s == null || s.isEmpty())
+            return s == null ? null : "";
+        int h = s.hashCode();
+        int mask = table.length - 1;
+        for (int i = h & mask;; i = (i + 1) & mask) {
+            String e = table[i];
+            if (e == null)
+                return add(i, h, s);
+            if (hashes[i] == h && e.equals(s))
+                return e;
+        }
+    }
+
+    /** Intern chars[off, off+len) without allocating when the value is known. */
+    public String intern(char[] chars, int off, int len) {
+        if (len == 0)
+            return "";
+        int h = 0; // same as String.hashCode()
+        for (int k = 0; k < len; k++)
+            h = 31 * h + chars[off + k];
+        int mask = table.length - 1;
+        for (int i = h & mask;; i = (i + 1) & mask) {
+            String e = table[i];
+            if (e == null)
+                return add(i, h, new String(chars, off, len));
+            if (hashes[i] == h && equals(e, chars, off, len))
+                return e;
+        }
+    }
+
+    private String add(int slot, int h, String s) {
+        if (size >= maxEntries)
+            return s;
+        table[slot] = s;
+        hashes[slot] = h;
+        if (++size * 2 > table.length)
+            grow();
+        return s;
+    }
+
+    private void grow() {
+        String[] oldTable = table;
+        int[] oldHashes = hashes;
+        table = new String[oldTable.length * 2];
+        hashes = new int[table.length];
+        int mask = table.length - 1;
+        for (int j = 0; j < oldTable.length; j++) {
+            if (oldTable[j] == null)
+                continue;
+            int i = oldHashes[j] & mask;
+            while (table[i] != null)
+                i = (i + 1) & mask;
+            table[i] = oldTable[j];
+            hashes[i] = oldHashes[j];
+        }
+    }
+
+    private static boolean equals(String s, char[] chars, int off, int len) {
+        if (s.length() != len)
+            return false;
+        for (int k = 0; k < len; k++) {
+            if (s.charAt(k) != chars[off + k])
+                return false;
+        }
+        return true;
+    }
+}